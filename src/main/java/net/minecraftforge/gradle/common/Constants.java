@@ -23,7 +23,6 @@ import au.com.bytecode.opencsv.CSVParser;
 import au.com.bytecode.opencsv.CSVReader;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
 import groovy.lang.Closure;
@@ -39,9 +38,11 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
@@ -185,6 +186,19 @@ public class Constants
     // util
     public static final String NEWLINE = System.getProperty("line.separator");
 
+    // hashing
+    private static final int    BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX         = "0123456789abcdef".toCharArray();
+
+    /** one direct buffer per thread, so hashing big jars does not put them on the heap. */
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
     // helper methods
     public static List<String> getClassPath()
     {
@@ -361,11 +375,26 @@ public class Constants
     {
         try
         {
-            InputStream fis = new FileInputStream(file);
-            byte[] array = ByteStreams.toByteArray(fis);
-            fis.close();
+            MessageDigest hasher = MessageDigest.getInstance(function);
+            ByteBuffer buffer = HASH_BUFFER.get();
+
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try
+            {
+                buffer.clear();
+                while (channel.read(buffer) != -1)
+                {
+                    buffer.flip();
+                    hasher.update(buffer);
+                    buffer.clear();
+                }
+            }
+            finally
+            {
+                channel.close();
+            }
 
-            return hash(array, function);
+            return toHex(hasher.digest());
         }
         catch (Exception e)
         {
@@ -375,30 +404,51 @@ public class Constants
         return null;
     }
 
+    /**
+     * Hashes everything left in the stream, without holding more than a small buffer of it at once.
+     * The stream is not closed.
+     * @param stream stream to read
+     * @param function hash function to use, see {@link MessageDigest#getInstance(String)}
+     * @return the hash in lower case hex
+     * @throws IOException if the stream could not be read
+     */
+    public static String hash(InputStream stream, String function) throws IOException
+    {
+        try
+        {
+            MessageDigest hasher = MessageDigest.getInstance(function);
+            update(hasher, stream, new byte[BUFFER_SIZE]);
+            return toHex(hasher.digest());
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
     public static String hashZip(File file, String function)
     {
         try
         {
             MessageDigest hasher = MessageDigest.getInstance(function);
+            byte[] buffer = new byte[BUFFER_SIZE];
 
             ZipInputStream zin = new ZipInputStream(new FileInputStream(file));
-            ZipEntry entry;
-            while ((entry = zin.getNextEntry()) != null)
+            try
             {
-                hasher.update(entry.getName().getBytes());
-                hasher.update(ByteStreams.toByteArray(zin));
+                ZipEntry entry;
+                while ((entry = zin.getNextEntry()) != null)
+                {
+                    hasher.update(entry.getName().getBytes());
+                    update(hasher, zin, buffer);
+                }
             }
-            zin.close();
-
-            byte[] hash = hasher.digest();
-
-            // convert to string
-            StringBuilder result = new StringBuilder();
-
-            for (byte b : hash) {
-                result.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+            finally
+            {
+                zin.close();
             }
-            return result.toString();
+
+            return toHex(hasher.digest());
         }
         catch (Exception e)
         {
@@ -408,6 +458,15 @@ public class Constants
         return null;
     }
 
+    private static void update(MessageDigest hasher, InputStream stream, byte[] buffer) throws IOException
+    {
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+        {
+            hasher.update(buffer, 0, read);
+        }
+    }
+
     public static String hash(String str)
     {
         return hash(str.getBytes());
@@ -422,16 +481,7 @@ public class Constants
     {
         try
         {
-            MessageDigest complete = MessageDigest.getInstance(function);
-            byte[] hash = complete.digest(bytes);
-
-            String result = "";
-
-            for (int i = 0; i < hash.length; i++)
-            {
-                result += Integer.toString((hash[i] & 0xff) + 0x100, 16).substring(1);
-            }
-            return result;
+            return toHex(MessageDigest.getInstance(function).digest(bytes));
         }
         catch (Exception e)
         {
@@ -441,6 +491,21 @@ public class Constants
         return null;
     }
 
+    /**
+     * @param bytes bytes to convert
+     * @return the bytes as lower case hex
+     */
+    public static String toHex(byte[] bytes)
+    {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
     public static PrintStream getTaskLogStream(Project project, String name)
     {
         final File taskLogs = new File(project.getBuildDir(), "taskLogs");
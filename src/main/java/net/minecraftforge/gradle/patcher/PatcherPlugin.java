@@ -33,6 +33,7 @@ import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.tasks.*;
 import net.minecraftforge.gradle.util.CopyInto;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.json.version.Library;
 import net.minecraftforge.gradle.util.json.version.Version;
 
@@ -134,6 +135,7 @@ public class PatcherPlugin extends BasePlugin<PatcherExtension>
             postDecompileJar.setPatches(delayedFile(MCP_PATCHES_MERGED));
             postDecompileJar.setAstyleConfig(delayedFile(MCP_DATA_STYLE));
             postDecompileJar.setDoesCache(false);
+            postDecompileJar.setThreads(ParallelUtil.defaultThreads());
             postDecompileJar.dependsOn(decompileJar);
         }
 
@@ -318,6 +320,7 @@ public class PatcherPlugin extends BasePlugin<PatcherExtension>
             remapCleanTask.setParamsCsv(delayedFile(Constants.CSV_PARAM));
             remapCleanTask.setAddsJavadocs(false);
             remapCleanTask.setDoesCache(false);
+            remapCleanTask.setThreads(ParallelUtil.defaultThreads());
             remapCleanTask.dependsOn(TASK_POST_DECOMP);
         }
 
@@ -434,6 +437,7 @@ public class PatcherPlugin extends BasePlugin<PatcherExtension>
             remapTask.setParamsCsv(delayedFile(Constants.CSV_PARAM));
             remapTask.setAddsJavadocs(false);
             remapTask.setDoesCache(false);
+            remapTask.setThreads(ParallelUtil.defaultThreads());
             remapTask.dependsOn(TASK_POST_DECOMP, TASK_EXTRACT_MAPPINGS);
             // depend on patch task in afterEval
         }
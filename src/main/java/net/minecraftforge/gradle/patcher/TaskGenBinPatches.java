@@ -19,33 +19,31 @@
  */
 package net.minecraftforge.gradle.patcher;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
-import java.util.jar.Pack200;
-import java.util.jar.Pack200.Packer;
 import java.util.zip.Adler32;
-import java.nio.file.attribute.FileTime;
 
-import lzma.streams.LzmaOutputStream;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelUtil;
+import net.minecraftforge.gradle.util.binpatch.BinPatchCodecs;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
 
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
@@ -71,6 +69,10 @@ class TaskGenBinPatches extends DefaultTask
     @InputFile  private Object srg;
     @OutputFile private Object devBinPatches;
     @OutputFile private Object runBinPatches;
+    @Input      private String runtimeCodec = BinPatchCodecs.LEGACY;
+    @Input      private String devCodec     = BinPatchCodecs.LEGACY;
+    @Internal   private Object deltaCache;
+    @Internal   private int    threads = ParallelUtil.defaultThreads();
     //@formatter:on
 
     private List<Object>             patchSets    = Lists.newArrayList();
@@ -78,7 +80,16 @@ class TaskGenBinPatches extends DefaultTask
     private HashMap<String, String>  srgMapping   = new HashMap<String, String>();
     private Multimap<String, String> innerClasses = ArrayListMultimap.create();
     private Set<String>              patchedFiles = new HashSet<String>();
-    private Delta                    delta        = new Delta();
+    private File                     cacheDir;
+
+    // Delta keeps its working state in fields, so every worker needs its own.
+    private final ThreadLocal<Delta> delta = new ThreadLocal<Delta>() {
+        @Override
+        protected Delta initialValue()
+        {
+            return new Delta();
+        }
+    };
 
     //@formatter:off
     public TaskGenBinPatches() { super(); }
@@ -88,6 +99,7 @@ class TaskGenBinPatches extends DefaultTask
     public void doTask() throws Exception
     {
         loadMappings();
+        cacheDir = getDeltaCache();
 
         for (Object o : this.patchSets)
         {
@@ -112,21 +124,30 @@ class TaskGenBinPatches extends DefaultTask
         HashMap<String, byte[]> runtime = new HashMap<String, byte[]>();
         HashMap<String, byte[]> devtime = new HashMap<String, byte[]>();
 
-        File dirtyJar = getDirtyJar();
-
-        createBinPatches(runtime, "client/", getCleanClient(), dirtyJar);
-        createBinPatches(runtime, "server/", getCleanServer(), dirtyJar);
-        createBinPatches(devtime, "merged/", getCleanMerged(), dirtyJar);
+        // read everything on this thread, then work out all three sides at once.
+        List<BinPatchJob> jobs = Lists.newArrayList();
+        JarFile dirtyJ = new JarFile(getDirtyJar());
+        try
+        {
+            createBinPatches(jobs, runtime, "client/", getCleanClient(), dirtyJ);
+            createBinPatches(jobs, runtime, "server/", getCleanServer(), dirtyJ);
+            createBinPatches(jobs, devtime, "merged/", getCleanMerged(), dirtyJ);
+        }
+        finally
+        {
+            dirtyJ.close();
+        }
 
-        byte[] runtimedata = createPatchJar(runtime);
-        runtimedata = pack200(runtimedata);
-        runtimedata = compress(runtimedata);
-        Files.write(runtimedata, getRuntimeBinPatches());
+        List<byte[]> results = ParallelUtil.invokeAll(getThreads(), jobs);
+        for (int i = 0; i < jobs.size(); i++)
+        {
+            BinPatchJob job = jobs.get(i);
+            job.patches.put(job.name, results.get(i));
+        }
+        CacheFiles.trim(getProject(), cacheDir);
 
-        byte[] devtimedata = createPatchJar(devtime);
-        devtimedata = pack200(devtimedata);
-        devtimedata = compress(devtimedata);
-        Files.write(devtimedata, getDevBinPatches());
+        BinPatchCodecs.write(getRuntimeCodec(), toArchiveEntries(runtime), getRuntimeBinPatches());
+        BinPatchCodecs.write(getDevCodec(), toArchiveEntries(devtime), getDevBinPatches());
     }
 
     private void addInnerClasses(String parent, Set<String> patchList)
@@ -174,10 +195,9 @@ class TaskGenBinPatches extends DefaultTask
         });
     }
 
-    private void createBinPatches(HashMap<String, byte[]> patches, String root, File base, File target) throws Exception
+    private void createBinPatches(List<BinPatchJob> jobs, HashMap<String, byte[]> patches, String root, File base, JarFile dirtyJ) throws Exception
     {
         JarFile cleanJ = new JarFile(base);
-        JarFile dirtyJ = new JarFile(target);
 
         for (Map.Entry<String, String> entry : obfMapping.entrySet())
         {
@@ -197,28 +217,85 @@ class TaskGenBinPatches extends DefaultTask
                 continue;
             }
 
-            byte[] clean = (cleanE != null ? ByteStreams.toByteArray(cleanJ.getInputStream(cleanE)) : new byte[0]);
+            byte[] clean = (cleanE != null ? ByteStreams.toByteArray(cleanJ.getInputStream(cleanE)) : null);
             byte[] dirty = ByteStreams.toByteArray(dirtyJ.getInputStream(dirtyE));
 
-            byte[] diff = delta.compute(clean, dirty);
+            jobs.add(new BinPatchJob(patches, root + srg.replace('/', '.') + ".binpatch", obf, srg, clean, dirty));
+        }
+
+        cleanJ.close();
+    }
+
+    private class BinPatchJob implements Callable<byte[]>
+    {
+        final HashMap<String, byte[]> patches;
+        final String                  name;
+        final String                  obf;
+        final String                  srg;
+        final byte[]                  clean;
+        final byte[]                  dirty;
+
+        BinPatchJob(HashMap<String, byte[]> patches, String name, String obf, String srg, byte[] clean, byte[] dirty)
+        {
+            this.patches = patches;
+            this.name = name;
+            this.obf = obf;
+            this.srg = srg;
+            this.clean = clean;
+            this.dirty = dirty;
+        }
+
+        @Override
+        public byte[] call() throws Exception
+        {
+            byte[] diff = computeDelta(clean != null ? clean : new byte[0], dirty);
 
             ByteArrayDataOutput out = ByteStreams.newDataOutput(diff.length + 50);
             out.writeUTF(obf);                   // Clean name
             out.writeUTF(obf.replace('/', '.')); // Source Notch name
             out.writeUTF(srg.replace('/', '.')); // Source SRG Name
-            out.writeBoolean(cleanE != null);    // Exists in Clean
-            if (cleanE != null)
+            out.writeBoolean(clean != null);     // Exists in Clean
+            if (clean != null)
             {
                 out.writeInt(adlerHash(clean)); // Hash of Clean file
             }
             out.writeInt(diff.length); // Patch length
             out.write(diff);           // Patch
 
-            patches.put(root + srg.replace('/', '.') + ".binpatch", out.toByteArray());
+            return out.toByteArray();
         }
+    }
 
-        cleanJ.close();
-        dirtyJ.close();
+    /**
+     * Computes the GDIFF patch from clean to dirty, or reads it from the delta cache if this exact pair of classes
+     * was diffed before. Most patched classes do not change from one build to the next.
+     */
+    private byte[] computeDelta(byte[] clean, byte[] dirty) throws IOException
+    {
+        if (cacheDir == null)
+            return delta.get().compute(clean, dirty);
+
+        String key = Constants.hash(clean, "SHA-1") + "-" + Constants.hash(dirty, "SHA-1");
+        File cached = new File(cacheDir, key.substring(0, 2) + "/" + key + ".gdiff");
+
+        if (cached.isFile())
+        {
+            CacheFiles.touch(cached);
+            return Files.toByteArray(cached);
+        }
+
+        byte[] diff = delta.get().compute(clean, dirty);
+
+        try
+        {
+            CacheFiles.write(cached, diff);
+        }
+        catch (IOException e)
+        {
+            getLogger().debug("Could not cache the binpatch for " + key, e);
+        }
+
+        return diff;
     }
 
     private int adlerHash(byte[] input)
@@ -228,53 +305,14 @@ class TaskGenBinPatches extends DefaultTask
         return (int) hasher.getValue();
     }
 
-    private byte[] createPatchJar(HashMap<String, byte[]> patches) throws Exception
+    private static Map<String, byte[]> toArchiveEntries(HashMap<String, byte[]> patches)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        JarOutputStream jar = new JarOutputStream(out);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
         for (Map.Entry<String, byte[]> entry : patches.entrySet())
         {
-            JarEntry jarEntry = new JarEntry("binpatch/" + entry.getKey());
-            jarEntry.setCreationTime(FileTime.fromMillis(0L));
-            jarEntry.setLastAccessTime(FileTime.fromMillis(0L));
-            jarEntry.setLastModifiedTime(FileTime.fromMillis(0L));
-            jar.putNextEntry(jarEntry);
-            jar.write(entry.getValue());
+            entries.put("binpatch/" + entry.getKey(), entry.getValue());
         }
-        jar.close();
-        return out.toByteArray();
-    }
-
-    private byte[] pack200(byte[] data) throws Exception
-    {
-        JarInputStream in = new JarInputStream(new ByteArrayInputStream(data));
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        Packer packer = Pack200.newPacker();
-
-        SortedMap<String, String> props = packer.properties();
-        props.put(Packer.EFFORT, "9");
-        props.put(Packer.KEEP_FILE_ORDER, Packer.TRUE);
-        props.put(Packer.UNKNOWN_ATTRIBUTE, Packer.PASS);
-
-        final PrintStream err = new PrintStream(System.err);
-        System.setErr(new PrintStream(ByteStreams.nullOutputStream()));
-        packer.pack(in, out);
-        System.setErr(err);
-
-        in.close();
-        out.close();
-
-        return out.toByteArray();
-    }
-
-    private byte[] compress(byte[] data) throws Exception
-    {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        LzmaOutputStream lzma = new LzmaOutputStream.Builder(out).useEndMarkerMode(true).build();
-        lzma.write(data);
-        lzma.close();
-        return out.toByteArray();
+        return entries;
     }
 
     public File getCleanClient()
@@ -372,6 +410,60 @@ class TaskGenBinPatches extends DefaultTask
         this.runBinPatches = runBinPatches;
     }
 
+    /**
+     * @return the folder patches are cached in between builds, or NULL if they are not cached
+     */
+    public File getDeltaCache()
+    {
+        return CacheFiles.getCacheDir(getProject(), deltaCache, "binpatchDeltas");
+    }
+
+    /**
+     * @param deltaCache the folder to cache patches in, or FALSE to not cache them
+     */
+    public void setDeltaCache(Object deltaCache)
+    {
+        this.deltaCache = deltaCache;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public String getRuntimeCodec()
+    {
+        return runtimeCodec;
+    }
+
+    /**
+     * FML reads the runtime binpatches itself, and only understands {@link BinPatchCodecs#LEGACY}.
+     * @param runtimeCodec the codec to write the runtime binpatches with
+     */
+    public void setRuntimeCodec(String runtimeCodec)
+    {
+        this.runtimeCodec = runtimeCodec;
+    }
+
+    public String getDevCodec()
+    {
+        return devCodec;
+    }
+
+    /**
+     * Any codec other than {@link BinPatchCodecs#LEGACY} needs a ForgeGradle that knows it to read the userdev.
+     * @param devCodec the codec to write the dev binpatches with
+     */
+    public void setDevCodec(String devCodec)
+    {
+        this.devCodec = devCodec;
+    }
+
     public File getDevBinPatches()
     {
         return getProject().file(devBinPatches);
@@ -25,13 +25,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.SequencedInputSupplier;
 import net.minecraftforge.srg2source.util.io.FolderSupplier;
 import net.minecraftforge.srg2source.util.io.InputSupplier;
@@ -44,6 +49,7 @@ import org.gradle.api.file.FileVisitDetails;
 import org.gradle.api.file.FileVisitor;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
 
@@ -51,6 +57,9 @@ import com.cloudbees.diff.Diff;
 import com.cloudbees.diff.Hunk;
 import com.cloudbees.diff.PatchException;
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
@@ -62,6 +71,7 @@ class TaskGenPatches extends DefaultTask
     private final List<Object>      changed = new LinkedList<Object>();
     @Input private String           originalPrefix = "";
     @Input private String           changedPrefix = "";
+    @Internal private int           threads = ParallelUtil.defaultThreads();
     //@formatter:on
     
     //@formatter:off
@@ -159,6 +169,11 @@ class TaskGenPatches extends DefaultTask
 
     public void processFiles(InputSupplier original, InputSupplier changed) throws IOException
     {
+        Map<String, String[]> lastRun = readManifest();
+        Map<String, String[]> manifest = Maps.newTreeMap();
+
+        // only the files that differ are read into jobs, which are usually very few.
+        List<DiffJob> jobs = Lists.newArrayList();
         List<String> paths = original.gatherAll("");
         for (String path : paths)
         {
@@ -167,7 +182,9 @@ class TaskGenPatches extends DefaultTask
             InputStream c = changed.getInput(path);
             try
             {
-                processFile(path, o, c);
+                DiffJob job = processFile(path, o, c, lastRun, manifest);
+                if (job != null)
+                    jobs.add(job);
             }
             finally
             {
@@ -175,9 +192,20 @@ class TaskGenPatches extends DefaultTask
                 if (c != null) c.close();
             }
         }
+
+        List<String> diffs = ParallelUtil.invokeAll(getThreads(), jobs);
+        for (int i = 0; i < jobs.size(); i++)
+        {
+            writePatch(jobs.get(i), diffs.get(i), manifest);
+        }
+
+        writeManifest(manifest);
     }
 
-    public void processFile(String relative, InputStream original, InputStream changed) throws IOException
+    /**
+     * @return the diff to run, or NULL if the patch is already known
+     */
+    private DiffJob processFile(String relative, InputStream original, InputStream changed, Map<String, String[]> lastRun, Map<String, String[]> manifest) throws IOException
     {
         getLogger().debug("Diffing: " + relative);
 
@@ -186,47 +214,159 @@ class TaskGenPatches extends DefaultTask
         if (changed == null)
         {
             getLogger().debug("    Changed File does not exist");
-            return;
+            return null;
         }
 
-        // We have to cache the bytes because diff reads the stream twice.. why.. who knows.
         byte[] oData = ByteStreams.toByteArray(original);
         byte[] cData = ByteStreams.toByteArray(changed);
 
-        Diff diff = Diff.diff(new InputStreamReader(new ByteArrayInputStream(oData), Charsets.UTF_8), new InputStreamReader(new ByteArrayInputStream(cData), Charsets.UTF_8), false);
+        if (Arrays.equals(oData, cData))
+        {
+            getLogger().debug("    Files are identical");
+            return null;
+        }
+
+        String oHash = Constants.hash(oData, "SHA-1");
+        String cHash = Constants.hash(cData, "SHA-1");
+
+        // same inputs as last time, and the patch was not touched since we wrote it
+        String[] last = lastRun.get(relative);
+        if (last != null && last[0].equals(oHash) && last[1].equals(cHash) && isPatch(patchFile, last[2]))
+        {
+            getLogger().debug("    Unchanged since the last run");
+            manifest.put(relative, last);
+            if (!last[2].isEmpty())
+                created.add(patchFile);
+            return null;
+        }
+
+        return new DiffJob(relative, patchFile, oData, cData, oHash, cHash);
+    }
+
+    private void writePatch(DiffJob job, String unidiff, Map<String, String[]> manifest) throws IOException
+    {
+        if (unidiff == null)
+        {
+            manifest.put(job.relative, new String[] { job.oHash, job.cHash, "" });
+            return;
+        }
+
+        String olddiff = "";
+        if (job.patchFile.exists())
+        {
+            olddiff = Files.toString(job.patchFile, Charsets.UTF_8);
+        }
+
+        if (!olddiff.equals(unidiff))
+        {
+            getLogger().debug("Writing patch: " + job.patchFile);
+            job.patchFile.getParentFile().mkdirs();
+            Files.touch(job.patchFile);
+            Files.write(unidiff, job.patchFile, Charsets.UTF_8);
+        }
+        else
+        {
+            getLogger().debug("Patch did not change");
+        }
+        created.add(job.patchFile);
+        manifest.put(job.relative, new String[] { job.oHash, job.cHash, Constants.hash(unidiff.getBytes(Charsets.UTF_8), "SHA-1") });
+    }
+
+    /**
+     * @param hash the hash of the patch, or empty if there should be none
+     */
+    private static boolean isPatch(File patchFile, String hash)
+    {
+        if (hash.isEmpty())
+            return !patchFile.exists();
+        return patchFile.isFile() && hash.equals(Constants.hash(patchFile, "SHA-1"));
+    }
+
+    private File getManifestFile()
+    {
+        return new File(getTemporaryDir(), "patches.manifest");
+    }
+
+    /**
+     * The manifest lists the hashes of both sides and of the patch of every file that differed on the last run.
+     */
+    private Map<String, String[]> readManifest() throws IOException
+    {
+        Map<String, String[]> manifest = Maps.newHashMap();
+        File file = getManifestFile();
+        if (!file.isFile())
+            return manifest;
+
+        List<String> lines = Files.readLines(file, Charsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(getManifestHeader()))
+            return manifest;
+
+        for (String line : lines.subList(1, lines.size()))
+        {
+            String[] pts = line.split("\t", -1);
+            if (pts.length == 4)
+                manifest.put(pts[0], new String[] { pts[1], pts[2], pts[3] });
+        }
+        return manifest;
+    }
+
+    private void writeManifest(Map<String, String[]> manifest) throws IOException
+    {
+        StringBuilder buf = new StringBuilder(getManifestHeader()).append('\n');
+        for (Map.Entry<String, String[]> e : manifest.entrySet())
+        {
+            buf.append(e.getKey()).append('\t').append(Joiner.on('\t').join(e.getValue())).append('\n');
+        }
+        Files.write(buf.toString(), getManifestFile(), Charsets.UTF_8);
+    }
+
+    private String getManifestHeader()
+    {
+        return "1\t" + originalPrefix + "\t" + changedPrefix;
+    }
 
-        if (!relative.startsWith("/"))
-            relative = "/" + relative;
+    private final class DiffJob implements Callable<String>
+    {
+        private final String relative;
+        private final File   patchFile;
+        private final byte[] oData;
+        private final byte[] cData;
+        private final String oHash;
+        private final String cHash;
+
+        DiffJob(String relative, File patchFile, byte[] oData, byte[] cData, String oHash, String cHash)
+        {
+            this.relative = relative;
+            this.patchFile = patchFile;
+            this.oData = oData;
+            this.cData = cData;
+            this.oHash = oHash;
+            this.cHash = cHash;
+        }
 
-        if (!diff.isEmpty())
+        /**
+         * @return the unified diff, or NULL if the files are the same
+         */
+        @Override
+        public String call() throws IOException
         {
-            String unidiff = diff.toUnifiedDiff(originalPrefix + relative, changedPrefix + relative, 
-                    new InputStreamReader(new ByteArrayInputStream(oData), Charsets.UTF_8), 
+            // We have to cache the bytes because diff reads the stream twice.. why.. who knows.
+            Diff diff = Diff.diff(new InputStreamReader(new ByteArrayInputStream(oData), Charsets.UTF_8), new InputStreamReader(new ByteArrayInputStream(cData), Charsets.UTF_8), false);
+
+            if (diff.isEmpty())
+                return null;
+
+            String path = relative.startsWith("/") ? relative : "/" + relative;
+
+            String unidiff = diff.toUnifiedDiff(originalPrefix + path, changedPrefix + path,
+                    new InputStreamReader(new ByteArrayInputStream(oData), Charsets.UTF_8),
                     new InputStreamReader(new ByteArrayInputStream(cData), Charsets.UTF_8), 3);
             unidiff = unidiff.replace("\r\n", "\n"); //Normalize lines
             unidiff = unidiff.replace("\n" + Hunk.ENDING_NEWLINE + "\n", "\n"); //We give 0 shits about this.
-
-            String olddiff = "";
-            if (patchFile.exists())
-            {
-                olddiff = Files.toString(patchFile, Charsets.UTF_8);
-            }
-
-            if (!olddiff.equals(unidiff))
-            {
-                getLogger().debug("Writing patch: " + patchFile);
-                patchFile.getParentFile().mkdirs();
-                Files.touch(patchFile);
-                Files.write(unidiff, patchFile, Charsets.UTF_8);
-            }
-            else
-            {
-                getLogger().debug("Patch did not change");
-            }
-            created.add(patchFile);
+            return unidiff;
         }
     }
-    
+
     @InputFiles
     public FileCollection getOriginalSources()
     {
@@ -294,4 +434,14 @@ class TaskGenPatches extends DefaultTask
     {
         this.changedPrefix = changedPrefix;
     }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
 }
@@ -24,7 +24,13 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
@@ -33,6 +39,7 @@ import java.util.zip.ZipInputStream;
 import java.nio.file.attribute.FileTime;
 
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 
@@ -42,6 +49,7 @@ import org.gradle.api.tasks.TaskAction;
 
 import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
 
 public abstract class AbstractEditJarTask extends CachedTask
 {
@@ -52,6 +60,9 @@ public abstract class AbstractEditJarTask extends CachedTask
     @OutputFile
     private Object outJar;
 
+    private int    threads  = 1;
+    private int    inFlight = 256;
+
     protected File resolvedInJar;
     protected File resolvedOutJar;
 
@@ -70,7 +81,10 @@ public abstract class AbstractEditJarTask extends CachedTask
             Map<String, String> sourceMap = Maps.newHashMap();
             Map<String, byte[]> resourceMap = Maps.newHashMap();
 
-            readAndStoreJarInRam(resolvedInJar, sourceMap, resourceMap);
+            if (getThreads() > 1)
+                pipelineJar(resolvedInJar, new StoreInRam(sourceMap, resourceMap));
+            else
+                readAndStoreJarInRam(resolvedInJar, sourceMap, resourceMap);
 
             doStuffMiddle(sourceMap, resourceMap);
 
@@ -78,6 +92,18 @@ public abstract class AbstractEditJarTask extends CachedTask
 
             getLogger().debug("Saving jar: " + resolvedOutJar);
         }
+        else if (getThreads() > 1)
+        {
+            JarOutputStream zout = new JarOutputStream(Files.newOutputStream(resolvedOutJar.toPath()));
+            try
+            {
+                pipelineJar(resolvedInJar, new CopyToJar(zout));
+            }
+            finally
+            {
+                zout.close();
+            }
+        }
         else
         {
             copyJar(resolvedInJar, resolvedOutJar);
@@ -93,7 +119,8 @@ public abstract class AbstractEditJarTask extends CachedTask
     public abstract void doStuffBefore() throws Exception;
 
     /**
-     * Called as the .java files of the jar are read from the jar
+     * Called as the .java files of the jar are read from the jar.
+     * When {@link #getThreads()} is more than one, this is called from several threads at once.
      * @param name name of the current entry
      * @param file current contents of the entry
      * @return new new contents of the file
@@ -159,6 +186,163 @@ public abstract class AbstractEditJarTask extends CachedTask
         zin.close();
     }
 
+    /**
+     * Reads the jar on the calling thread and hands the sources to a pool of workers running {@link #asRead(String, String)}.
+     * Results are passed to the sink on the calling thread in the order of the input jar, and at most
+     * {@link #getInFlight()} entries are held in memory between being read and being handed on.
+     */
+    private void pipelineJar(File input, EntrySink sink) throws Exception
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(getThreads());
+        Deque<Future<Object>> pending = new ArrayDeque<Future<Object>>();
+        Deque<ZipEntry> pendingEntries = new ArrayDeque<ZipEntry>();
+        int window = Math.max(getInFlight(), getThreads());
+
+        ZipInputStream zin = new ZipInputStream(Files.newInputStream(input.toPath()));
+        try
+        {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null)
+            {
+                // ignore META-INF, it shouldn't be here. If it is we remove it from the output jar.
+                if (entry.getName().contains("META-INF"))
+                {
+                    continue;
+                }
+
+                final byte[] data = ByteStreams.toByteArray(zin);
+
+                if (entry.isDirectory() || !sink.isSource(entry.getName()))
+                {
+                    pending.add(Futures.<Object>immediateFuture(data));
+                }
+                else
+                {
+                    final String name = entry.getName();
+                    pending.add(workers.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception
+                        {
+                            return sink.encode(asRead(name, new String(data, Constants.CHARSET)));
+                        }
+                    }));
+                }
+                pendingEntries.add(entry);
+
+                // window full, wait for the oldest one.
+                while (pending.size() >= window)
+                {
+                    sink.accept(pendingEntries.poll(), ParallelUtil.getResult(pending.poll()));
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                sink.accept(pendingEntries.poll(), ParallelUtil.getResult(pending.poll()));
+            }
+        }
+        finally
+        {
+            workers.shutdownNow();
+            zin.close();
+        }
+    }
+
+    /**
+     * Where the pipelined mode puts the entries it has read.
+     */
+    private interface EntrySink
+    {
+        boolean isSource(String name);
+
+        /**
+         * Turns an edited source into whatever {@link #accept(ZipEntry, Object)} gets for it.
+         * Called on the worker threads.
+         */
+        Object encode(String source);
+
+        /**
+         * @param data the raw bytes of a resource, or what {@link #encode(String)} returned for a source
+         */
+        void accept(ZipEntry entry, Object data) throws IOException;
+    }
+
+    private static class StoreInRam implements EntrySink
+    {
+        private final Map<String, String> sourceMap;
+        private final Map<String, byte[]> resourceMap;
+
+        StoreInRam(Map<String, String> sourceMap, Map<String, byte[]> resourceMap)
+        {
+            this.sourceMap = sourceMap;
+            this.resourceMap = resourceMap;
+        }
+
+        @Override
+        public boolean isSource(String name)
+        {
+            return name.endsWith(".java") || name.endsWith(".scala") || name.endsWith(".groovy") || name.endsWith(".kt");
+        }
+
+        @Override
+        public Object encode(String source)
+        {
+            // kept as is, it ends up in the source map anyway.
+            return source;
+        }
+
+        @Override
+        public void accept(ZipEntry entry, Object data)
+        {
+            if (data instanceof String)
+                sourceMap.put(entry.getName(), (String) data);
+            else
+                resourceMap.put(entry.getName(), (byte[]) data);
+        }
+    }
+
+    private class CopyToJar implements EntrySink
+    {
+        private final JarOutputStream zout;
+
+        CopyToJar(JarOutputStream zout)
+        {
+            this.zout = zout;
+        }
+
+        @Override
+        public boolean isSource(String name)
+        {
+            return name.endsWith(".java");
+        }
+
+        @Override
+        public Object encode(String source)
+        {
+            // same as copyJar, so both modes give the same bytes.
+            return source.getBytes();
+        }
+
+        @Override
+        public void accept(ZipEntry entry, Object data) throws IOException
+        {
+            try
+            {
+                JarEntry jarEntry = new JarEntry(entry);
+                jarEntry.setCreationTime(FileTime.fromMillis(0L));
+                jarEntry.setLastAccessTime(FileTime.fromMillis(0L));
+                jarEntry.setLastModifiedTime(FileTime.fromMillis(0L));
+                zout.putNextEntry(jarEntry);
+                zout.write((byte[]) data);
+                zout.closeEntry();
+            }
+            catch (ZipException ex)
+            {
+                getLogger().debug("Duplicate zip entry " + entry.getName() + " in " + resolvedInJar + " writing " + resolvedOutJar);
+            }
+        }
+    }
+
     protected static void saveJar(File output, Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws IOException
     {
         output.getParentFile().mkdirs();
@@ -261,4 +445,33 @@ public abstract class AbstractEditJarTask extends CachedTask
     {
         this.outJar = outJar;
     }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Sets how many threads run {@link #asRead(String, String)}.
+     * Anything above one switches the task to the pipelined mode.
+     * @param threads number of worker threads
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * Sets how many entries the pipelined mode may hold between reading and writing them.
+     * @param inFlight maximum number of entries in flight
+     */
+    public void setInFlight(int inFlight)
+    {
+        this.inFlight = inFlight;
+    }
 }
@@ -19,11 +19,18 @@
  */
 package net.minecraftforge.gradle.tasks;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelUtil;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.jetbrains.java.decompiler.code.CodeConstants;
@@ -37,10 +44,16 @@ import org.jetbrains.java.decompiler.util.JADNameProvider;
 
 import java.io.*;
 import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
@@ -57,8 +70,20 @@ public class ApplyFernFlowerTask extends CachedTask {
     @OutputFile
     Object outJar;
 
+    @Optional
+    @InputFiles
     private FileCollection         classpath;
 
+    private boolean                parallel = false;
+    private int                    threads  = ParallelUtil.defaultThreads();
+    private Object                 classCache = false;
+
+    /**
+     * How many work units each thread gets in parallel mode. More units than threads keeps
+     * the pool busy when a few units happen to hold the very large classes.
+     */
+    private static final int       UNITS_PER_THREAD = 4;
+
     @TaskAction
     public void applyFernFlower() throws IOException {
         final File in = getInJar();
@@ -80,7 +105,29 @@ public class ApplyFernFlowerTask extends CachedTask {
         mapOptions.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, "0");
         mapOptions.put(DecompilerContext.RENAMER_FACTORY, AdvancedJadRenamerFactory.class.getName());
 
-        PrintStreamLogger logger = new PrintStreamLogger(Constants.getTaskLogStream(getProject(), getName() + ".log"));
+        PrintStream log = Constants.getTaskLogStream(getProject(), getName() + ".log");
+        PrintStreamLogger logger = new PrintStreamLogger(log);
+
+        File cacheDir = getClassCache();
+        String decompilerVersion = CacheFiles.getJarVersion(BaseDecompiler.class);
+        if (cacheDir != null && (decompilerVersion == null || CacheFiles.getPluginVersion() == null)) {
+            // without the exact decompiler build in the key, one build could be handed the sources of another.
+            getLogger().info("Not caching decompiled classes, the decompiler or the plugin was not loaded from a jar");
+            cacheDir = null;
+        }
+
+        if (cacheDir != null) {
+            decompileCached(in, tempDir, tempJar, mapOptions, log, cacheDir, decompilerVersion);
+            Constants.copyFile(tempJar, out);
+            return;
+        }
+
+        if (isParallel() && getThreads() > 1) {
+            decompileParallel(in, tempDir, tempJar, mapOptions, log);
+            Constants.copyFile(tempJar, out);
+            return;
+        }
+
         BaseDecompiler decompiler = new BaseDecompiler(new ByteCodeProvider(), new ArtifactSaver(tempDir), mapOptions, logger);
 
         decompiler.addSpace(in, true);
@@ -92,6 +139,280 @@ public class ApplyFernFlowerTask extends CachedTask {
         Constants.copyFile(tempJar, out);
     }
 
+    /**
+     * Splits the classes of the input jar into independent units and decompiles them concurrently.
+     * Every unit sees the whole input jar and classpath as libraries, so the output matches the
+     * single context run. The unit outputs are then merged with the input resources in sorted order.
+     */
+    private void decompileParallel(File in, File tempDir, File tempJar, Map<String, Object> mapOptions, PrintStream log) throws IOException {
+        Map<String, Long> groupSizes = Maps.newHashMap();
+        Map<String, List<String>> groups = groupClasses(in, groupSizes);
+        List<List<String>> units = splitUnits(groups, groupSizes, getThreads() * UNITS_PER_THREAD);
+        getLogger().info("Decompiling {} in {} units on {} threads", in.getName(), units.size(), getThreads());
+
+        List<File> outputs = decompileUnits(in, units, tempDir, mapOptions, log, getThreads());
+        mergeUnits(in, outputs, tempJar);
+    }
+
+    /**
+     * Reuses the cached source of every class whose inputs did not change since it was last decompiled,
+     * and decompiles the rest as units like the parallel mode does.
+     */
+    private void decompileCached(File in, File tempDir, File tempJar, Map<String, Object> mapOptions, PrintStream log, File cacheDir, String decompilerVersion) throws IOException {
+        Map<String, Long> groupSizes = Maps.newHashMap();
+        Map<String, List<String>> groups = groupClasses(in, groupSizes);
+
+        // everything that changes what the decompiler writes for the same bytes goes in the keys.
+        String setup = CacheFiles.getPluginVersion() + "|" + decompilerVersion + "|" + new TreeMap<String, Object>(mapOptions);
+        DecompileCache cache = new DecompileCache(cacheDir, setup, in, groups, classpath);
+
+        // the cached sources go in a jar of their own, which is merged like any other unit.
+        Map<String, List<String>> missing = new TreeMap<String, List<String>>();
+        File cachedJar = new File(tempDir, "cached.jar");
+        ZipOutputStream cached = new ZipOutputStream(new FileOutputStream(cachedJar));
+        try {
+            for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+                byte[] source = cache.get(group.getKey());
+                if (source == null) {
+                    missing.put(group.getKey(), group.getValue());
+                } else {
+                    cached.putNextEntry(new ZipEntry(group.getKey() + ".java"));
+                    cached.write(source);
+                    cached.closeEntry();
+                }
+            }
+        } finally {
+            cached.close();
+        }
+
+        getLogger().info("Decompiling {} of {} classes in {}, the rest are cached", missing.size(), groups.size(), in.getName());
+
+        List<File> outputs = Lists.newArrayList();
+        if (!missing.isEmpty()) {
+            int workers = isParallel() ? Math.max(1, getThreads()) : 1;
+            List<List<String>> units = splitUnits(missing, groupSizes, workers > 1 ? workers * UNITS_PER_THREAD : 1);
+            outputs.addAll(decompileUnits(in, units, tempDir, mapOptions, log, workers));
+
+            for (File output : outputs) {
+                if (output.exists()) {
+                    cache.storeAll(output);
+                }
+            }
+        }
+        outputs.add(cachedJar);
+        CacheFiles.trim(getProject(), cacheDir);
+
+        mergeUnits(in, outputs, tempJar);
+    }
+
+    private List<File> decompileUnits(File in, List<List<String>> units, File tempDir, Map<String, Object> mapOptions, PrintStream log, int threads) throws IOException {
+        List<DecompileUnit> jobs = Lists.newArrayListWithCapacity(units.size());
+        for (int i = 0; i < units.size(); i++) {
+            jobs.add(new DecompileUnit(in, units.get(i), new File(tempDir, "unit" + i), mapOptions));
+        }
+
+        try {
+            return ParallelUtil.invokeAll(threads, jobs);
+        } finally {
+            // the logger keeps state between calls, so every unit logs on its own and the logs are joined in unit order.
+            for (DecompileUnit job : jobs) {
+                job.log.writeTo(log);
+            }
+            log.flush();
+        }
+    }
+
+    /**
+     * Groups the classes of the jar by their outer class, as inner classes have to be decompiled
+     * along with their parent.
+     * @param groupSizes filled with the total size of every group
+     * @return the class file names of every group, by outer class
+     */
+    private static Map<String, List<String>> groupClasses(File in, Map<String, Long> groupSizes) throws IOException {
+        Map<String, List<String>> groups = new TreeMap<String, List<String>>();
+
+        ZipFile zip = new ZipFile(in);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".class")) {
+                    continue;
+                }
+
+                String outer = name.substring(0, name.length() - ".class".length());
+                int inner = outer.indexOf('$', outer.lastIndexOf('/') + 1);
+                if (inner > 0) {
+                    outer = outer.substring(0, inner);
+                }
+
+                List<String> group = groups.get(outer);
+                if (group == null) {
+                    groups.put(outer, group = Lists.newArrayList());
+                    groupSizes.put(outer, 0L);
+                }
+                group.add(name);
+                groupSizes.put(outer, groupSizes.get(outer) + Math.max(entry.getSize(), 1L));
+            }
+        } finally {
+            zip.close();
+        }
+
+        return groups;
+    }
+
+    /**
+     * Spreads the groups over the units by size.
+     */
+    private static List<List<String>> splitUnits(final Map<String, List<String>> groups, final Map<String, Long> groupSizes, int unitCount) {
+        // biggest groups first, each onto the currently lightest unit.
+        List<String> order = Lists.newArrayList(groups.keySet());
+        Collections.sort(order, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int diff = groupSizes.get(b).compareTo(groupSizes.get(a));
+                return diff != 0 ? diff : a.compareTo(b);
+            }
+        });
+
+        int count = Math.max(1, Math.min(unitCount, order.size()));
+        List<List<String>> units = Lists.newArrayListWithCapacity(count);
+        long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            units.add(Lists.<String>newArrayList());
+        }
+
+        for (String outer : order) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            units.get(lightest).addAll(groups.get(outer));
+            loads[lightest] += groupSizes.get(outer);
+        }
+
+        return units;
+    }
+
+    /**
+     * Writes the decompiled units and the non-class entries of the input into one jar.
+     * Entries are written sorted by name so the result does not depend on thread scheduling.
+     */
+    private static void mergeUnits(File in, List<File> unitJars, File tempJar) throws IOException {
+        Map<String, ZipFile> entries = new TreeMap<String, ZipFile>();
+        List<ZipFile> opened = Lists.newArrayList();
+
+        try {
+            ZipFile input = new ZipFile(in);
+            opened.add(input);
+            Enumeration<? extends ZipEntry> inEntries = input.entries();
+            while (inEntries.hasMoreElements()) {
+                ZipEntry entry = inEntries.nextElement();
+                if (!entry.getName().endsWith(".class")) {
+                    entries.put(entry.getName(), input);
+                }
+            }
+
+            for (File unitJar : unitJars) {
+                if (!unitJar.exists()) {
+                    continue; // nothing in the unit could be decompiled. Fernflower logged why.
+                }
+
+                ZipFile unit = new ZipFile(unitJar);
+                opened.add(unit);
+                Enumeration<? extends ZipEntry> unitEntries = unit.entries();
+                while (unitEntries.hasMoreElements()) {
+                    ZipEntry entry = unitEntries.nextElement();
+                    if (!entries.containsKey(entry.getName())) {
+                        entries.put(entry.getName(), unit);
+                    }
+                }
+            }
+
+            tempJar.getParentFile().mkdirs();
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(tempJar));
+            try {
+                for (Map.Entry<String, ZipFile> e : entries.entrySet()) {
+                    ZipEntry ze = new ZipEntry(e.getKey());
+                    ze.setLastAccessTime(FileTime.fromMillis(0L));
+                    ze.setLastModifiedTime(FileTime.fromMillis(0L));
+                    ze.setCreationTime(FileTime.fromMillis(0L));
+                    out.putNextEntry(ze);
+                    if (!e.getKey().endsWith("/")) {
+                        InputStream data = e.getValue().getInputStream(e.getValue().getEntry(e.getKey()));
+                        ByteStreams.copy(data, out);
+                        data.close();
+                    }
+                    out.closeEntry();
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (ZipFile zip : opened) {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Decompiles one unit of classes in its own fernflower context.
+     * The DecompilerContext is thread local, so units can safely run side by side.
+     */
+    private class DecompileUnit implements Callable<File> {
+        private final File in;
+        private final List<String> classes;
+        private final File unitDir;
+        private final Map<String, Object> mapOptions;
+        private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        DecompileUnit(File in, List<String> classes, File unitDir, Map<String, Object> mapOptions) {
+            this.in = in;
+            this.classes = classes;
+            this.unitDir = unitDir;
+            this.mapOptions = mapOptions;
+        }
+
+        @Override
+        public File call() throws IOException {
+            unitDir.mkdirs();
+            File unitJar = new File(unitDir.getParentFile(), unitDir.getName() + ".jar");
+            File output = new File(unitDir, unitJar.getName());
+            output.delete(); // left from an earlier run, it must not be merged again if nothing decompiles now.
+
+            ZipFile source = new ZipFile(in);
+            ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(unitJar));
+            try {
+                for (String name : classes) {
+                    zout.putNextEntry(new ZipEntry(name));
+                    InputStream data = source.getInputStream(source.getEntry(name));
+                    ByteStreams.copy(data, zout);
+                    data.close();
+                    zout.closeEntry();
+                }
+            } finally {
+                zout.close();
+                source.close();
+            }
+
+            PrintStreamLogger logger = new PrintStreamLogger(new PrintStream(log, true));
+            BaseDecompiler decompiler = new BaseDecompiler(new ByteCodeProvider(), new ArtifactSaver(unitDir), mapOptions, logger);
+
+            // libraries go first, so the unit's own copies of its classes replace the ones from the input jar.
+            decompiler.addSpace(in, false);
+            for (File library : classpath) {
+                decompiler.addSpace(library, false);
+            }
+            decompiler.addSpace(unitJar, true);
+
+            decompiler.decompileContext();
+            return output;
+        }
+    }
+
     public static class AdvancedJadRenamerFactory implements IVariableNamingFactory {
         @Override
         public IVariableNameProvider createFactory(StructMethod arg0)
@@ -319,5 +640,45 @@ public class ApplyFernFlowerTask extends CachedTask {
         this.classpath = classpath;
     }
 
+    public boolean isParallel()
+    {
+        return parallel;
+    }
+
+    /**
+     * Decompiles the jar as several independent units on a pool of {@link #getThreads()} threads.
+     * @param parallel TRUE to enable the parallel mode
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public File getClassCache()
+    {
+        return CacheFiles.getCacheDir(getProject(), classCache, "decompiledClasses");
+    }
+
+    /**
+     * Keeps the decompiled source of every class, so the next run only decompiles the classes that changed,
+     * or whose referenced classes changed their outline. Off by default. The cache is trimmed to the
+     * forgegradle.artifactCacheSize cap after every run.
+     * @param classCache TRUE to cache sources in the Gradle user home, a folder to cache them in, or FALSE to decompile the whole jar every time
+     */
+    public void setClassCache(Object classCache)
+    {
+        this.classCache = classCache;
+    }
+
 
 }
@@ -20,14 +20,23 @@
 package net.minecraftforge.gradle.tasks;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.FilteredInputSupplier;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.SequencedInputSupplier;
 import net.minecraftforge.gradle.util.SourceDirSetSupplier;
 import net.minecraftforge.srg2source.rangeapplier.RangeApplier;
@@ -48,10 +57,17 @@ import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 
 public class ApplyS2STask extends DefaultTask
 {
+    /**
+     * Least range map lines in a batch. Every thread loads the mappings into an applier of its own, so a batch has
+     * to be about as much work as that, or one thread is faster.
+     */
+    private static final int MIN_BATCH_WEIGHT = 20000;
+
     @InputFiles
     private final List<Object> srg = new LinkedList<Object>();
 
@@ -70,6 +86,12 @@ public class ApplyS2STask extends DefaultTask
     private final List<Object> in = new LinkedList<Object>();
     private Object out;
 
+    @Internal
+    private int threads = 1;
+
+    // lowered by the tests, so a few small files are still split into batches
+    int minBatchWeight = MIN_BATCH_WEIGHT;
+
     @TaskAction
     public void doTask() throws IOException
     {
@@ -79,19 +101,23 @@ public class ApplyS2STask extends DefaultTask
         FileCollection srg = getSrgs();
         FileCollection exc = getExcs();
 
+        List<InputSupplier> inputs = Lists.newArrayList();
+        for (Object o : in)
+            inputs.add(getInput(o));
+
         InputSupplier inSup;
 
-        if (in.size() == 1)
+        if (inputs.size() == 1)
         {
             // just 1 supplier.
-            inSup = getInput(in.get(0));
+            inSup = inputs.get(0);
         }
         else
         {
             // multinput
             inSup = new SequencedInputSupplier();
-            for (Object o : in)
-                ((SequencedInputSupplier) inSup).add(getInput(o));
+            for (InputSupplier input : inputs)
+                ((SequencedInputSupplier) inSup).add(input);
         }
 
         OutputSupplier outSup;
@@ -107,7 +133,7 @@ public class ApplyS2STask extends DefaultTask
         }
 
         getLogger().lifecycle("remapping source...");
-        applyRangeMap(inSup, outSup, srg, exc, rangemap, rangelog);
+        applyRangeMap(inputs, inSup, outSup, srg, exc, rangemap, rangelog);
 
 
         inSup.close();
@@ -147,23 +173,242 @@ public class ApplyS2STask extends DefaultTask
             throw new IllegalArgumentException("Can only make suppliers out of directories and zips right now!");
     }
 
-    private void applyRangeMap(InputSupplier inSup, OutputSupplier outSup, FileCollection srg, FileCollection exc, File rangeMap, File rangeLog) throws IOException
+    private void applyRangeMap(List<InputSupplier> inputs, InputSupplier inSup, OutputSupplier outSup, FileCollection srg, FileCollection exc, File rangeMap, File rangeLog) throws IOException
+    {
+        Set<File> srgFiles = srg.getFiles();
+        Set<File> excFiles = exc.getFiles();
+        PrintStream log = Constants.getTaskLogStream(getProject(), this.getName() + ".log");
+        RangeApplier app = newApplier(srgFiles, excFiles, log);
+
+        // for debugging.
+        if (getLogger().isDebugEnabled())
+            app.dumpRenameMap();
+
+        if (getThreads() > 1)
+        {
+            Map<String, List<String>> ranges = ExtractS2SRangeTask.splitRangeMap(rangeMap);
+            if (ranges == null)
+                getLogger().info("Could not split the range map, remapping on one thread");
+            else if (applyParallel(new ApplierPool(app, srgFiles, excFiles, log), inputs, outSup, ranges, log))
+                return;
+        }
+
+        app.remapSources(inSup, outSup, rangeMap, false);
+    }
+
+    private static RangeApplier newApplier(Set<File> srg, Set<File> exc, PrintStream log) throws IOException
     {
-        RangeApplier app = new RangeApplier().readSrg(srg.getFiles());
+        RangeApplier app = new RangeApplier().readSrg(srg);
 
-        app.setOutLogger(Constants.getTaskLogStream(getProject(), this.getName() + ".log"));
+        app.setOutLogger(log);
 
         if (!exc.isEmpty())
         {
             app.readParamMap(exc);
         }
 
-        // for debugging.
-        app.dumpRenameMap();
+        return app;
+    }
 
-        app.remapSources(inSup, outSup, rangeMap, false);
+    /**
+     * Remaps the files in batches on several threads. Every batch gets its own part of the range map and reads
+     * straight from the supplier its files came from. The files and log of each batch are kept until all batches
+     * before it are written, so the output is the same as from one thread.
+     * @return FALSE if there is too little to remap to be worth more than one thread
+     */
+    private boolean applyParallel(ApplierPool pool, List<InputSupplier> inputs, final OutputSupplier outSup, Map<String, List<String>> ranges, final PrintStream log) throws IOException
+    {
+        // a file in more than one input is read from the first, like the sequenced supplier does
+        Set<String> seen = Sets.newHashSet();
+        List<List<String>> files = Lists.newArrayList();
+        int total = 0;
+        for (InputSupplier input : inputs)
+        {
+            List<String> paths = Lists.newArrayList();
+            for (String path : input.gatherAll(".java"))
+            {
+                if (seen.add(path))
+                {
+                    paths.add(path);
+                    total += getWeight(ranges, path);
+                }
+            }
+            files.add(paths);
+        }
+
+        // a few batches per thread, so one with big files doesn't hold up the rest
+        int target = Math.max(minBatchWeight, total / (getThreads() * 4));
+        List<RemapJob> jobs = Lists.newArrayList();
+        for (int i = 0; i < inputs.size(); i++)
+        {
+            List<String> batch = Lists.newArrayList();
+            int weight = 0;
+            for (String path : files.get(i))
+            {
+                batch.add(path);
+                weight += getWeight(ranges, path);
+                if (weight >= target)
+                {
+                    jobs.add(new RemapJob(pool, inputs.get(i), batch, ranges));
+                    batch = Lists.newArrayList();
+                    weight = 0;
+                }
+            }
+            if (!batch.isEmpty())
+                jobs.add(new RemapJob(pool, inputs.get(i), batch, ranges));
+        }
+
+        if (jobs.size() < 2)
+        {
+            getLogger().info("Remapping {} files on one thread", seen.size());
+            return false;
+        }
+
+        // no more threads than batches, so no more appliers either
+        int threads = Math.min(getThreads(), jobs.size());
+        getLogger().info("Remapping {} files in {} batches on {} threads", seen.size(), jobs.size(), threads);
+        ParallelUtil.runOrdered(threads, threads * 2, jobs, new ParallelUtil.Sink<RemappedBatch>() {
+            @Override
+            public void accept(RemappedBatch batch) throws IOException
+            {
+                for (Map.Entry<String, ByteArrayOutputStream> e : batch.files.entrySet())
+                {
+                    OutputStream out = outSup.getOutput(e.getKey());
+                    if (out == null)
+                        continue;
+                    try
+                    {
+                        e.getValue().writeTo(out);
+                    }
+                    finally
+                    {
+                        out.close();
+                    }
+                }
+                batch.log.writeTo(log);
+            }
+        });
+        return true;
+    }
+
+    private static int getWeight(Map<String, List<String>> ranges, String path)
+    {
+        List<String> lines = ranges.get(path);
+        return lines == null ? 1 : lines.size() + 1;
+    }
+
+    private class RemapJob implements Callable<RemappedBatch>
+    {
+        private final ApplierPool               pool;
+        private final InputSupplier             input;
+        private final List<String>              files;
+        private final Map<String, List<String>> ranges;
+
+        RemapJob(ApplierPool pool, InputSupplier input, List<String> files, Map<String, List<String>> ranges)
+        {
+            this.pool = pool;
+            this.input = input;
+            this.files = files;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public RemappedBatch call() throws IOException
+        {
+            File rangeMap = File.createTempFile("rangemap", ".txt", getTemporaryDir());
+            try
+            {
+                BufferedWriter writer = Files.newWriter(rangeMap, Constants.CHARSET);
+                try
+                {
+                    for (String path : files)
+                    {
+                        List<String> lines = ranges.get(path);
+                        if (lines == null)
+                            continue;
+
+                        for (String line : lines)
+                        {
+                            writer.write(line);
+                            writer.write(Constants.NEWLINE);
+                        }
+                    }
+                }
+                finally
+                {
+                    writer.close();
+                }
+
+                RemappedBatch batch = new RemappedBatch();
+                RangeApplier app = pool.borrow();
+                app.setOutLogger(new PrintStream(batch.log, true));
+                app.remapSources(new FilteredInputSupplier(input, Sets.newHashSet(files)), batch, rangeMap, false);
+                // one that failed may be stuck halfway through a file, so it is dropped
+                pool.giveBack(app);
+                return batch;
+            }
+            finally
+            {
+                rangeMap.delete();
+            }
+        }
+    }
+
+    /**
+     * Hands out appliers to the remap jobs. A RangeApplier keeps the file it is working on, and the renames it made
+     * in it, in its fields, so no two threads may use the same one. Its rename table can't be shared either, so each
+     * new one reads the SRG and exc files again. They are only made when every other one is busy, so there are never
+     * more than there are threads.
+     */
+    private static class ApplierPool
+    {
+        private final Set<File>           srg;
+        private final Set<File>           exc;
+        private final PrintStream         log;
+        private final Queue<RangeApplier> idle = new ConcurrentLinkedQueue<RangeApplier>();
+
+        ApplierPool(RangeApplier first, Set<File> srg, Set<File> exc, PrintStream log)
+        {
+            this.srg = srg;
+            this.exc = exc;
+            this.log = log;
+            idle.add(first);
+        }
+
+        RangeApplier borrow() throws IOException
+        {
+            RangeApplier app = idle.poll();
+            return app == null ? newApplier(srg, exc, log) : app;
+        }
+
+        void giveBack(RangeApplier app)
+        {
+            idle.add(app);
+        }
     }
 
+    /**
+     * Keeps the files of one batch in memory, in the order the applier opened them, along with what it logged.
+     */
+    private static class RemappedBatch implements OutputSupplier
+    {
+        private final Map<String, ByteArrayOutputStream> files = Maps.newLinkedHashMap();
+        private final ByteArrayOutputStream              log   = new ByteArrayOutputStream();
+
+        @Override
+        public OutputStream getOutput(String relPath)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            files.put(relPath, out);
+            return out;
+        }
+
+        @Override
+        public void close()
+        {
+            // written by the task, once every batch before this one is
+        }
+    }
 
     private FileCollection generateDefaultExc(File modifiers, FileCollection currentExcs, FileCollection srgs)
     {
@@ -393,6 +638,19 @@ public class ApplyS2STask extends DefaultTask
         this.exc.add(exc);
     }
 
+    /**
+     * @return how many threads remap files at once. With 1 the whole range map is applied in one go.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
     public File getRangeMap()
     {
         return getProject().file(rangeMap);
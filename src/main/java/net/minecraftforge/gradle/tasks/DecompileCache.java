@@ -0,0 +1,431 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Decompiled sources of single classes, kept between runs of {@link ApplyFernFlowerTask}.
+ * <p>
+ * A class is cached together with its inner classes, under a key made from the decompiler setup, their bytes, the
+ * libraries, the names of all classes in the same package, and the outline of every class they reference: its access,
+ * supertypes and member declarations, along with the outlines of its own supertypes. Code in a referenced class never
+ * changes how a class decompiles, so changing an access transformer only decompiles the changed classes and the classes
+ * that use them again. The package is part of the key since fernflower only imports a class when no class of the same
+ * simple name is in the package, so adding or renaming one can change the imports of every class there.
+ */
+class DecompileCache
+{
+    private final File                dir;
+    private final Map<String, String> keys     = Maps.newHashMap();
+    private final Map<String, Info>   classes  = Maps.newHashMap();
+    private final Map<String, String> outlines = Maps.newHashMap();
+
+    /**
+     * @param dir the folder to cache sources in
+     * @param setup the decompiler build and options, anything else that changes the output for the same bytes
+     * @param in the jar being decompiled
+     * @param groups the classes of the jar, grouped by outer class
+     * @param classpath the libraries the jar is decompiled against
+     * @throws IOException if the jar could not be read
+     */
+    DecompileCache(File dir, String setup, File in, Map<String, List<String>> groups, Iterable<File> classpath) throws IOException
+    {
+        this.dir = dir;
+
+        StringBuilder libraries = new StringBuilder(setup);
+        for (File library : classpath)
+        {
+            libraries.append('-').append(Joiner.on('-').join(Constants.hashAll(library)));
+        }
+        String libraryHash = Constants.hash(libraries.toString().getBytes(Constants.CHARSET), "SHA-1");
+
+        ZipFile zip = new ZipFile(in);
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class"))
+                    continue;
+
+                InputStream data = zip.getInputStream(entry);
+                byte[] bytes = ByteStreams.toByteArray(data);
+                data.close();
+
+                Info info = new Info(Constants.hash(bytes, "SHA-1"));
+                new ClassReader(bytes).accept(info, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                classes.put(entry.getName().substring(0, entry.getName().length() - ".class".length()), info);
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        // the classes of every package, by name, so they're hashed in the same order every time
+        Map<String, StringBuilder> packages = Maps.newHashMap();
+        for (String name : new TreeSet<String>(classes.keySet()))
+        {
+            String pkg = getPackage(name);
+            StringBuilder names = packages.get(pkg);
+            if (names == null)
+            {
+                names = new StringBuilder();
+                packages.put(pkg, names);
+            }
+            names.append(name).append('|');
+        }
+        Map<String, String> packageHashes = Maps.newHashMap();
+        for (Map.Entry<String, StringBuilder> e : packages.entrySet())
+        {
+            packageHashes.put(e.getKey(), Constants.hash(e.getValue().toString().getBytes(Constants.CHARSET), "SHA-1"));
+        }
+
+        for (Map.Entry<String, List<String>> group : groups.entrySet())
+        {
+            Set<String> members = new TreeSet<String>();
+            Set<String> references = new TreeSet<String>();
+            for (String file : group.getValue())
+            {
+                String name = file.substring(0, file.length() - ".class".length());
+                members.add(name);
+                references.addAll(classes.get(name).references);
+            }
+
+            StringBuilder key = new StringBuilder(libraryHash);
+            key.append('|').append(packageHashes.get(getPackage(group.getKey())));
+            for (String name : members)
+            {
+                key.append('|').append(name).append('=').append(classes.get(name).hash);
+            }
+            for (String name : references)
+            {
+                if (!members.contains(name) && classes.containsKey(name))
+                    key.append('|').append(name).append(':').append(getOutline(name));
+            }
+
+            keys.put(group.getKey(), Constants.hash(key.toString().getBytes(Constants.CHARSET), "SHA-1"));
+        }
+
+        // only the keys are needed from here on.
+        classes.clear();
+        outlines.clear();
+    }
+
+    private static String getPackage(String name)
+    {
+        return name.substring(0, Math.max(0, name.lastIndexOf('/')));
+    }
+
+    /**
+     * The hash of the outline of the class and all its supertypes in the jar.
+     */
+    private String getOutline(String name)
+    {
+        String outline = outlines.get(name);
+        if (outline != null)
+            return outline;
+
+        Info info = classes.get(name);
+        if (info == null)
+            return "";
+
+        outlines.put(name, ""); // in case of a broken hierarchy that loops
+        StringBuilder buf = new StringBuilder(info.outline);
+        for (String parent : info.parents)
+        {
+            buf.append('|').append(getOutline(parent));
+        }
+
+        outline = Constants.hash(buf.toString().getBytes(Constants.CHARSET), "SHA-1");
+        outlines.put(name, outline);
+        return outline;
+    }
+
+    private File getFile(String outer)
+    {
+        String key = keys.get(outer);
+        return new File(dir, key.substring(0, 2) + "/" + key + ".java");
+    }
+
+    /**
+     * @param outer the outer class, like net/minecraft/block/Block
+     * @return the cached source of the class, or NULL if it has to be decompiled
+     */
+    public byte[] get(String outer) throws IOException
+    {
+        File cached = getFile(outer);
+        if (!cached.isFile())
+            return null;
+
+        CacheFiles.touch(cached);
+        return Files.toByteArray(cached);
+    }
+
+    /**
+     * Caches every source in a decompiled jar that belongs to one of the groups.
+     * @param decompiled a jar of sources written by fernflower
+     * @throws IOException if the jar could not be read
+     */
+    public void storeAll(File decompiled) throws IOException
+    {
+        ZipFile zip = new ZipFile(decompiled);
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                String outer = entry.getName().substring(0, Math.max(0, entry.getName().length() - ".java".length()));
+                if (!entry.getName().endsWith(".java") || !keys.containsKey(outer))
+                    continue;
+
+                InputStream data = zip.getInputStream(entry);
+                byte[] source = ByteStreams.toByteArray(data);
+                data.close();
+
+                store(getFile(outer), source);
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    private static void store(File cached, byte[] source)
+    {
+        try
+        {
+            CacheFiles.write(cached, source);
+        }
+        catch (IOException e)
+        {
+            // not cached then, it will just be decompiled again next time.
+        }
+    }
+
+    /**
+     * Collects the outline of a class and every class it mentions.
+     */
+    private static class Info extends ClassVisitor
+    {
+        private final String        hash;
+        private final StringBuilder outline    = new StringBuilder();
+        private final Set<String>   parents    = new TreeSet<String>();
+        private final Set<String>   references = new TreeSet<String>();
+
+        private final MethodVisitor code       = new MethodVisitor(Opcodes.ASM5) {
+            @Override
+            public void visitTypeInsn(int opcode, String type)
+            {
+                addName(type);
+            }
+
+            @Override
+            public void visitFieldInsn(int opcode, String owner, String name, String desc)
+            {
+                addName(owner);
+                addType(Type.getType(desc));
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf)
+            {
+                addName(owner);
+                addType(Type.getMethodType(desc));
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs)
+            {
+                addType(Type.getMethodType(desc));
+                for (Object arg : bsmArgs)
+                {
+                    visitLdcInsn(arg);
+                }
+            }
+
+            @Override
+            public void visitLdcInsn(Object cst)
+            {
+                if (cst instanceof Type)
+                    addType((Type) cst);
+                else if (cst instanceof Handle)
+                {
+                    addName(((Handle) cst).getOwner());
+                    addType(Type.getType(((Handle) cst).getDesc()));
+                }
+            }
+
+            @Override
+            public void visitMultiANewArrayInsn(String desc, int dims)
+            {
+                addType(Type.getType(desc));
+            }
+
+            @Override
+            public void visitTryCatchBlock(Label start, Label end, Label handler, String type)
+            {
+                if (type != null)
+                    addName(type);
+            }
+        };
+
+        private final SignatureVisitor signatures = new SignatureVisitor(Opcodes.ASM5) {
+            @Override
+            public void visitClassType(String name)
+            {
+                references.add(name);
+            }
+        };
+
+        Info(String hash)
+        {
+            super(Opcodes.ASM5);
+            this.hash = hash;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            outline.append(access).append(' ').append(name).append(' ').append(signature).append(' ').append(superName);
+            addSignature(signature);
+            if (superName != null)
+            {
+                parents.add(superName);
+                references.add(superName);
+            }
+            for (String iface : interfaces)
+            {
+                outline.append(' ').append(iface);
+                parents.add(iface);
+                references.add(iface);
+            }
+        }
+
+        @Override
+        public void visitOuterClass(String owner, String name, String desc)
+        {
+            outline.append("\nouter ").append(owner).append(' ').append(name).append(' ').append(desc);
+            references.add(owner);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access)
+        {
+            outline.append("\ninner ").append(access).append(' ').append(name).append(' ').append(outerName).append(' ').append(innerName);
+            references.add(name);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            outline.append("\nfield ").append(access).append(' ').append(name).append(' ').append(desc).append(' ').append(signature).append(' ').append(value);
+            addType(Type.getType(desc));
+            addSignature(signature);
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+        {
+            outline.append("\nmethod ").append(access).append(' ').append(name).append(' ').append(desc).append(' ').append(signature);
+            addType(Type.getMethodType(desc));
+            addSignature(signature);
+            if (exceptions != null)
+            {
+                for (String exception : exceptions)
+                {
+                    outline.append(' ').append(exception);
+                    references.add(exception);
+                }
+            }
+            return code;
+        }
+
+        private void addName(String name)
+        {
+            // array types are given as descriptors
+            if (name.startsWith("["))
+                addType(Type.getType(name));
+            else
+                references.add(name);
+        }
+
+        private void addType(Type type)
+        {
+            switch (type.getSort())
+            {
+                case Type.ARRAY:
+                    addType(type.getElementType());
+                    break;
+                case Type.OBJECT:
+                    references.add(type.getInternalName());
+                    break;
+                case Type.METHOD:
+                    addType(type.getReturnType());
+                    for (Type arg : type.getArgumentTypes())
+                    {
+                        addType(arg);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addSignature(String signature)
+        {
+            if (signature != null)
+                new SignatureReader(signature).accept(signatures);
+        }
+    }
+}
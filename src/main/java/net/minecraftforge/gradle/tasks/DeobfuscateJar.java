@@ -39,7 +39,6 @@ import java.util.zip.ZipFile;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.*;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -50,18 +49,16 @@ import de.oceanlabs.mcp.mcinjector.LVTNaming;
 import de.oceanlabs.mcp.mcinjector.MCInjectorImpl;
 import groovy.lang.Closure;
 import net.md_5.specialsource.AccessMap;
-import net.md_5.specialsource.Jar;
 import net.md_5.specialsource.JarMapping;
-import net.md_5.specialsource.JarRemapper;
-import net.md_5.specialsource.RemapperProcessor;
-import net.md_5.specialsource.provider.JarProvider;
-import net.md_5.specialsource.provider.JointProvider;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelJarRemapper;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 import net.minecraftforge.gradle.util.json.MCInjectorStruct;
 import net.minecraftforge.gradle.util.json.MCInjectorStruct.InnerClass;
+import net.minecraftforge.gradle.util.mcp.MappingStore;
 
 public class DeobfuscateJar extends CachedTask
 {
@@ -98,6 +95,9 @@ public class DeobfuscateJar extends CachedTask
     @Internal
     private Object            log;
 
+    @Internal
+    private int               threads       = ParallelUtil.defaultThreads();
+
     @TaskAction
     public void doTask() throws IOException
     {
@@ -132,7 +132,7 @@ public class DeobfuscateJar extends CachedTask
         mapping.loadMappings(srg);
 
         // load in ATs
-        ErroringRemappingAccessMap accessMap = new ErroringRemappingAccessMap(new File[] { getMethodCsv(), getFieldCsv() });
+        ErroringRemappingAccessMap accessMap = new ErroringRemappingAccessMap(new File[] { getMethodCsv(), getFieldCsv() }, MappingStore.getStoreDir(getProject()));
 
         getLogger().info("Using AccessTransformers...");
         //Make SS shutup about access maps
@@ -143,23 +143,8 @@ public class DeobfuscateJar extends CachedTask
         }
         //        System.setOut(tmp);
 
-        // make a processor out of the ATS and mappings.
-        RemapperProcessor srgProcessor = new RemapperProcessor(null, mapping, null);
-
-        RemapperProcessor atProcessor = new RemapperProcessor(null, null, accessMap);
-        // make remapper
-        JarRemapper remapper = new JarRemapper(srgProcessor, mapping, atProcessor);
-
-        // load jar
-        Jar input = Jar.init(inJar);
-
-        // ensure that inheritance provider is used
-        JointProvider inheritanceProviders = new JointProvider();
-        inheritanceProviders.add(new JarProvider(input));
-        mapping.setFallbackInheritanceProvider(inheritanceProviders);
-
-        // remap jar
-        remapper.remapJar(input, outJar);
+        // remap jar, applying the ATs to the remapped classes
+        new ParallelJarRemapper(mapping, accessMap, getThreads()).remapJar(inJar, outJar, null);
 
         // throw error for broken AT lines
         if (accessMap.brokenLines.size() > 0 && failOnAtError)
@@ -401,6 +386,19 @@ public class DeobfuscateJar extends CachedTask
         this.log = log;
     }
 
+    /**
+     * @return how many classes are remapped at once
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
     public File getSrg()
     {
         return getProject().file(srg);
@@ -490,7 +488,7 @@ public class DeobfuscateJar extends CachedTask
         private final Map<String, String> renames     = Maps.newHashMap();
         public final Map<String, String>  brokenLines = Maps.newHashMap();
 
-        public ErroringRemappingAccessMap(File[] renameCsvs) throws IOException
+        public ErroringRemappingAccessMap(File[] renameCsvs, File mappingStore) throws IOException
         {
             super();
 
@@ -498,26 +496,7 @@ public class DeobfuscateJar extends CachedTask
             {
                 if (f == null)
                     continue;
-                Files.readLines(f, Charsets.UTF_8, new LineProcessor<String>()
-                {
-                    @Override
-                    public boolean processLine(String line) throws IOException
-                    {
-                        String[] pts = line.split(",");
-                        if (!"searge".equals(pts[0]))
-                        {
-                            renames.put(pts[0], pts[1]);
-                        }
-
-                        return true;
-                    }
-
-                    @Override
-                    public String getResult()
-                    {
-                        return null;
-                    }
-                });
+                renames.putAll(MappingStore.read(f, mappingStore).getNames());
             }
         }
 
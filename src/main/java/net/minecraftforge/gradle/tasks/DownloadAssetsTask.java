@@ -22,19 +22,29 @@ package net.minecraftforge.gradle.tasks;
 import groovy.lang.Closure;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.ParallelUtil;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 import net.minecraftforge.gradle.util.json.version.AssetIndex;
@@ -45,7 +55,9 @@ import org.gradle.api.tasks.TaskAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.io.Files;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 
 public class DownloadAssetsTask extends DefaultTask
 {
@@ -56,7 +68,12 @@ public class DownloadAssetsTask extends DefaultTask
     private File          virtualRoot  = null;
     private final File    minecraftDir = new File(Constants.getMinecraftDirectory(), "assets/objects");
 
-    private static final int MAX_TRIES = 5;
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadAssetsTask.class);
+
+    private static final int MAX_TRIES        = 5;
+    private static final int DOWNLOAD_THREADS = 8;
+    private static final int RETRY_DELAY      = 500; // ms, doubled after every try
+    private static final int TIMEOUT          = 30 * 1000;
 
     @TaskAction
     public void doTask() throws IOException, InterruptedException
@@ -73,28 +90,52 @@ public class DownloadAssetsTask extends DefaultTask
         // check virtual
         if (index.virtual)
         {
-            virtualRoot = new File(getAssetsDir(), "virtual/" + Files.getNameWithoutExtension(indexFile.getName()));
+            String name = indexFile.getName();
+            int dot = name.lastIndexOf('.');
+            virtualRoot = new File(getAssetsDir(), "virtual/" + (dot == -1 ? name : name.substring(0, dot)));
             virtualRoot.mkdirs();
         }
-        
-        // make thread pool
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()*2);
-        
+
+        // verifying is CPU bound, downloading is bound by the connections we allow ourselves.
+        ExecutorService verifiers = Executors.newFixedThreadPool(ParallelUtil.defaultThreads());
+        ExecutorService downloaders = Executors.newFixedThreadPool(DOWNLOAD_THREADS);
+        VerifiedAssets verified = new VerifiedAssets(new File(getAssetsDir(), "verified.txt"));
+
+        // many names share one object, so each object is only checked and downloaded once.
+        Map<String, Asset> assets = Maps.newLinkedHashMap();
         for (Entry<String, AssetEntry> e : index.objects.entrySet())
         {
-            Asset asset = new Asset(e.getKey(), e.getValue().hash, e.getValue().size);
-            executor.submit(new GetAssetTask(asset, outDir, minecraftDir, virtualRoot));
+            String hash = e.getValue().hash.toLowerCase();
+            Asset asset = assets.get(hash);
+            if (asset == null)
+            {
+                asset = new Asset(hash, e.getValue().size);
+                assets.put(hash, asset);
+            }
+            asset.names.add(e.getKey());
         }
-        
-        executor.shutdown(); // complete all the tasks then shutdown.
 
-        int max = (int) executor.getTaskCount(); // its gonna be somewhere around 600-700 I think
+        Progress progress = new Progress(assets.size());
 
-        // as long as the excutor isnt dead yet.
-        while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+        try
         {
-            int done = (int) executor.getCompletedTaskCount();
-            getLogger().lifecycle("Current status: {}/{}   {}%", done, max, (int) ((double) done / max * 100));
+            for (Asset asset : assets.values())
+            {
+                verifiers.submit(new VerifyAssetTask(asset, outDir, minecraftDir, virtualRoot, downloaders, progress, verified));
+            }
+
+            progress.await();
+        }
+        finally
+        {
+            verifiers.shutdownNow();
+            downloaders.shutdownNow();
+            verified.save();
+        }
+
+        if (!progress.failed.isEmpty())
+        {
+            getLogger().error("{} assets could not be downloaded: {}", progress.failed.size(), progress.failed);
         }
     }
 
@@ -120,110 +161,380 @@ public class DownloadAssetsTask extends DefaultTask
 
     private static class Asset
     {
-        public final String name;
-        public final String path;
-        public final String hash;
-        public final long   size;
+        public final List<String> names = Lists.newArrayList();
+        public final String       path;
+        public final String       hash;
+        public final long         size;
 
-        Asset(String name, String hash, long size)
+        Asset(String hash, long size)
         {
-            this.name = name;
             this.path = hash.substring(0, 2) + "/" + hash;
-            this.hash = hash.toLowerCase();
+            this.hash = hash;
             this.size = size;
         }
     }    
+    private static final ThreadLocal<MessageDigest> SHA1 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue()
+        {
+            try
+            {
+                return MessageDigest.getInstance("SHA1");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[64 * 1024];
+        }
+    };
+
     private static boolean checkFileCorrupt(File file, long size, String expectedHash)
     {
-        if (!file.exists())
-            return true;
-        
-        if (file.length() != size)
+        // cheap checks first, most files are either fine or missing.
+        if (!file.isFile() || file.length() != size)
             return true;
-        
-        if (!expectedHash.equalsIgnoreCase(Constants.hash(file, "SHA1")))
+
+        try
+        {
+            MessageDigest digest = SHA1.get();
+            digest.reset();
+            byte[] buffer = BUFFER.get();
+
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            return !expectedHash.equalsIgnoreCase(Constants.toHex(digest.digest()));
+        }
+        catch (IOException e)
+        {
             return true;
-        
-        return false;
+        }
+    }
+
+    /**
+     * Counts finished assets and reports every few percent, so the task thread can simply wait.
+     */
+    private class Progress
+    {
+        private final int                   total;
+        private final AtomicInteger         done   = new AtomicInteger();
+        private final CountDownLatch        latch;
+        private final Queue<String>         failed = new ConcurrentLinkedQueue<String>();
+        private final AtomicInteger         lastReported = new AtomicInteger();
+
+        Progress(int total)
+        {
+            this.total = total;
+            this.latch = new CountDownLatch(total);
+        }
+
+        void finished(Asset asset, boolean worked)
+        {
+            if (!worked)
+                failed.addAll(asset.names);
+
+            int now = done.incrementAndGet();
+            int percent = (int) ((double) now / total * 100);
+            int last = lastReported.get();
+            if (percent >= last + 10 && lastReported.compareAndSet(last, percent))
+            {
+                getLogger().lifecycle("Current status: {}/{}   {}%", now, total, percent);
+            }
+
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException
+        {
+            latch.await();
+        }
     }
 
-    private static class GetAssetTask implements Callable<Boolean>
+    /**
+     * Checks an asset against the local copies, and queues a download if none of them is good.
+     */
+    private static class VerifyAssetTask implements Runnable
     {
-        private static final Logger LOGGER = LoggerFactory.getLogger(GetAssetTask.class);
-        private final Asset asset;
-        private final File assetDir, minecraftDir, virtualRoot;
-        
-        private GetAssetTask(Asset asset, File assetDir, File minecraftDir, File virtualRoot)
+        private final Asset           asset;
+        private final File            assetDir, minecraftDir, virtualRoot;
+        private final ExecutorService downloaders;
+        private final Progress        progress;
+        private final VerifiedAssets  verified;
+
+        private VerifyAssetTask(Asset asset, File assetDir, File minecraftDir, File virtualRoot, ExecutorService downloaders, Progress progress, VerifiedAssets verified)
         {
             this.asset = asset;
             this.assetDir = assetDir;
             this.minecraftDir = minecraftDir;
             this.virtualRoot = virtualRoot;
+            this.downloaders = downloaders;
+            this.progress = progress;
+            this.verified = verified;
         }
-        
+
         @Override
-        public Boolean call()
+        public void run()
         {
-            boolean worked = true;
-            
-            for (int tryNum = 1; tryNum < MAX_TRIES + 1; tryNum++)
+            boolean worked = false;
+            boolean queued = false;
+            try
             {
-                try
+                File file = new File(assetDir, asset.path);
+
+                if (!verified.isVerified(file, asset))
                 {
-                    File file = new File(assetDir, asset.path);
+                    file.delete();
+                    file.getParentFile().mkdirs();
 
-                    if (checkFileCorrupt(file, asset.size, asset.hash))
+                    File localMc = new File(minecraftDir, asset.path);
+                    if (checkFileCorrupt(localMc, asset.size, asset.hash))
                     {
-                        file.delete();
+                        // the download reports its own progress
+                        downloaders.submit(new DownloadAssetTask(asset, file, virtualRoot, progress, verified));
+                        queued = true;
+                        return;
                     }
 
-                    // if it exists, its good, so we dont do this stuff...
-                    if (!file.exists())
+                    // copy from MC
+                    Constants.copyFile(localMc, file, asset.size);
+                    verified.add(file, asset);
+                }
+
+                copyToVirtual(asset, file, virtualRoot);
+                worked = true;
+            }
+            catch (Exception e)
+            {
+                LOGGER.error("Error verifying asset: {}", asset.names, e);
+            }
+            finally
+            {
+                if (!queued)
+                    progress.finished(asset, worked);
+            }
+        }
+    }
+
+    /**
+     * Downloads an asset, retrying with a growing delay until the download checks out.
+     */
+    private static class DownloadAssetTask implements Runnable
+    {
+        private final Asset          asset;
+        private final File           file, virtualRoot;
+        private final Progress       progress;
+        private final VerifiedAssets verified;
+
+        private DownloadAssetTask(Asset asset, File file, File virtualRoot, Progress progress, VerifiedAssets verified)
+        {
+            this.asset = asset;
+            this.file = file;
+            this.virtualRoot = virtualRoot;
+            this.progress = progress;
+            this.verified = verified;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean worked = false;
+
+            try
+            {
+                worked = tryDownload();
+            }
+            finally
+            {
+                progress.finished(asset, worked);
+            }
+        }
+
+        private boolean tryDownload()
+        {
+            boolean worked = false;
+
+            for (int tryNum = 1; tryNum < MAX_TRIES + 1 && !worked; tryNum++)
+            {
+                try
+                {
+                    download();
+
+                    if (checkFileCorrupt(file, asset.size, asset.hash))
+                        throw new IOException("Downloaded file is corrupt");
+                    verified.add(file, asset);
+
+                    copyToVirtual(asset, file, virtualRoot);
+                    worked = true;
+                }
+                catch (Exception e)
+                {
+                    LOGGER.error("Error downloading asset (try {}) : {} {}", tryNum, asset.names, e.toString());
+                    file.delete();
+
+                    if (tryNum < MAX_TRIES)
                     {
-                        file.getParentFile().mkdirs();
-                        File localMc = new File(minecraftDir, asset.path);
-                        
-                        if (checkFileCorrupt(localMc, asset.size, asset.hash))
-                        {
-                            // download
-                            ReadableByteChannel channel = Channels.newChannel(new URL(Constants.URL_ASSETS + "/" + asset.path).openStream());
-                            FileOutputStream fout = new FileOutputStream(file);
-                            FileChannel fileChannel = fout.getChannel();
-                            
-                            fileChannel.transferFrom(channel, 0, asset.size);
-                            
-                            channel.close();
-                            fout.close();
-                        }
-                        else
+                        try
                         {
-                            // copy from MC
-                            Constants.copyFile(localMc, file, asset.size);
+                            Thread.sleep(RETRY_DELAY << (tryNum - 1));
                         }
-                    }
-                    
-                    
-                    if (virtualRoot != null)
-                    {
-                        File virtual = new File(virtualRoot, asset.name);
-                        
-                        if (checkFileCorrupt(virtual, asset.size, asset.hash))
+                        catch (InterruptedException e1)
                         {
-                            virtual.delete();
-                            Constants.copyFile(file, virtual);
+                            Thread.currentThread().interrupt();
+                            break;
                         }
                     }
-                    
                 }
-                catch (Exception e)
+            }
+
+            return worked;
+        }
+
+        private void download() throws IOException
+        {
+            HttpURLConnection con = (HttpURLConnection) new URL(Constants.URL_ASSETS + "/" + asset.path).openConnection();
+            con.setRequestProperty("User-Agent", Constants.USER_AGENT);
+            con.setConnectTimeout(TIMEOUT);
+            con.setReadTimeout(TIMEOUT);
+
+            // reading the body fully and closing the stream lets the JVM keep the connection alive for the next asset.
+            InputStream in = con.getInputStream();
+            try
+            {
+                FileOutputStream fout = new FileOutputStream(file);
+                try
+                {
+                    ByteStreams.copy(in, fout);
+                }
+                finally
                 {
-                    LOGGER.error("Error downloading asset (try {}) : {}", tryNum, asset.name);
-                    e.printStackTrace();
-                    worked = false;
+                    fout.close();
                 }
             }
-            
-            return worked;
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    private static void copyToVirtual(Asset asset, File file, File virtualRoot) throws IOException
+    {
+        if (virtualRoot == null)
+            return;
+
+        for (String name : asset.names)
+        {
+            File virtual = new File(virtualRoot, name);
+
+            // a link to the object is good by definition, only real copies need hashing.
+            if (virtual.exists() && Files.isSameFile(virtual.toPath(), file.toPath()))
+                continue;
+
+            if (checkFileCorrupt(virtual, asset.size, asset.hash))
+            {
+                virtual.delete();
+                virtual.getParentFile().mkdirs();
+
+                try
+                {
+                    Files.createLink(virtual.toPath(), file.toPath());
+                }
+                catch (IOException | UnsupportedOperationException e)
+                {
+                    Constants.copyFile(file, virtual);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the size and modification time of every object that passed its SHA1 check, by asset hash.
+     * An object that still has the same size and time later is trusted without reading it again.
+     */
+    private static class VerifiedAssets
+    {
+        private final File                indexFile;
+        private final Map<String, long[]> entries = new ConcurrentHashMap<String, long[]>();
+
+        VerifiedAssets(File indexFile)
+        {
+            this.indexFile = indexFile;
+
+            if (!indexFile.exists())
+                return;
+
+            try
+            {
+                for (String line : Files.readAllLines(indexFile.toPath(), Constants.CHARSET))
+                {
+                    String[] pts = line.split(" ");
+                    if (pts.length == 3)
+                        entries.put(pts[0], new long[] { Long.parseLong(pts[1]), Long.parseLong(pts[2]) });
+                }
+            }
+            catch (Exception e)
+            {
+                // start over, everything will just be hashed again.
+                entries.clear();
+            }
+        }
+
+        boolean isVerified(File file, Asset asset)
+        {
+            if (!file.isFile() || file.length() != asset.size)
+                return false;
+
+            long[] entry = entries.get(asset.hash);
+            if (entry != null && entry[0] == asset.size && entry[1] == file.lastModified())
+                return true;
+
+            if (checkFileCorrupt(file, asset.size, asset.hash))
+                return false;
+
+            add(file, asset);
+            return true;
+        }
+
+        void add(File file, Asset asset)
+        {
+            entries.put(asset.hash, new long[] { asset.size, file.lastModified() });
+        }
+
+        void save()
+        {
+            StringBuilder out = new StringBuilder();
+            for (Map.Entry<String, long[]> e : entries.entrySet())
+            {
+                out.append(e.getKey()).append(' ').append(e.getValue()[0]).append(' ').append(e.getValue()[1]).append('\n');
+            }
+
+            try
+            {
+                CacheFiles.write(indexFile, out.toString().getBytes(Constants.CHARSET));
+            }
+            catch (IOException e)
+            {
+                LOGGER.warn("Could not save the verified asset index", e);
+            }
         }
     }
 }
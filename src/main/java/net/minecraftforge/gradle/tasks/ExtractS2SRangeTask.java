@@ -19,13 +19,20 @@
  */
 package net.minecraftforge.gradle.tasks;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.FilteredInputSupplier;
 import net.minecraftforge.gradle.util.SequencedInputSupplier;
 import net.minecraftforge.gradle.util.SourceDirSetSupplier;
 import net.minecraftforge.srg2source.ast.RangeExtractor;
@@ -41,10 +48,30 @@ import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 public class ExtractS2SRangeTask extends DefaultTask
 {
+    /**
+     * First part of the state file. Bump it whenever the range map changes in a way the old state can't tell.
+     */
+    private static final String STATE_VERSION = "2";
+
+    /**
+     * A block opened after one of these is the body of a type, and not something to leave out of the declarations.
+     */
+    private static final Pattern TYPE_KEYWORD = Pattern.compile("(?<![\\w$.])(?<!\\. )(?:class|interface|enum|record)(?![\\w$])");
+
+    /**
+     * A name in a source, to find the types it uses.
+     */
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*");
+
     @InputFiles
     private List<Object> libs = Lists.newArrayList();
 
@@ -80,7 +107,116 @@ public class ExtractS2SRangeTask extends DefaultTask
         generateRangeMap(inSup, rangemap);
     }
 
-    private void generateRangeMap(InputSupplier inSup, File rangeMap)
+    private void generateRangeMap(InputSupplier inSup, File rangeMap) throws IOException
+    {
+        File stateFile = new File(getTemporaryDir(), "rangemap.hashes");
+
+        // a change to any library means everything has to be parsed again
+        StringBuilder header = new StringBuilder(STATE_VERSION);
+        for (File f : getLibs())
+        {
+            header.append('\t').append(Joiner.on('-').useForNull("").join(Constants.hashAll(f)));
+        }
+        String libsHash = Constants.hash(header.toString().getBytes(Constants.CHARSET), "SHA-1");
+
+        Map<String, String> old = readState(stateFile, libsHash);
+
+        // hash every source, and the declarations of the changed ones
+        Map<String, String> hashes = Maps.newLinkedHashMap();
+        Map<String, String> changed = Maps.newHashMap();
+        for (String path : inSup.gatherAll(".java"))
+        {
+            InputStream stream = inSup.getInput(path);
+            byte[] data = ByteStreams.toByteArray(stream);
+            stream.close();
+
+            String hash = Constants.hash(data, "SHA-1");
+            String previous = old == null ? null : old.get(path);
+            if (previous != null && previous.startsWith(hash + "\t"))
+                hashes.put(path, previous);
+            else
+            {
+                String text = new String(data, Constants.CHARSET);
+                hashes.put(path, hash + "\t" + Constants.hash(getDeclarations(text).getBytes(Constants.CHARSET), "SHA-1"));
+                changed.put(path, text);
+            }
+        }
+
+        Map<String, List<String>> oldRanges = old == null || !rangeMap.isFile() ? null : splitRangeMap(rangeMap);
+
+        // a run that fails halfway must not leave a state that matches a broken range map
+        stateFile.delete();
+
+        // nothing to go on, or files were added or removed, parse everything
+        if (oldRanges == null || !hashes.keySet().equals(old.keySet()) || !hashes.keySet().containsAll(oldRanges.keySet()))
+        {
+            extractAll(inSup, rangeMap, stateFile, libsHash, hashes, "Extracting ranges of all {} files");
+            return;
+        }
+
+        Set<String> dirty = getDirty(hashes, old);
+        if (dirty == null)
+        {
+            extractAll(inSup, rangeMap, stateFile, libsHash, hashes, "Declarations changed, extracting ranges of all {} files");
+            return;
+        }
+        if (dirty.isEmpty())
+        {
+            getLogger().info("No sources changed, keeping the range map");
+            writeState(stateFile, libsHash, hashes);
+            return;
+        }
+        if (hasCrossReferences(dirty, changed, hashes.keySet()))
+        {
+            extractAll(inSup, rangeMap, stateFile, libsHash, hashes, "Changed sources use types of other sources, extracting ranges of all {} files");
+            return;
+        }
+
+        getLogger().info("Extracting ranges of {} out of {} files", dirty.size(), hashes.size());
+        File partial = new File(getTemporaryDir(), "partial.rangemap");
+        runExtractor(new FilteredInputSupplier(inSup, dirty), partial);
+
+        Map<String, List<String>> newRanges = splitRangeMap(partial);
+        partial.delete();
+        if (newRanges == null || !dirty.containsAll(newRanges.keySet()))
+        {
+            // the extractor wrote something that can't be split per file, so it can't be merged either
+            extractAll(inSup, rangeMap, stateFile, libsHash, hashes, "Could not merge the range map, extracting ranges of all {} files");
+            return;
+        }
+
+        BufferedWriter writer = Files.newWriter(rangeMap, Constants.CHARSET);
+        try
+        {
+            for (String path : hashes.keySet())
+            {
+                List<String> lines = dirty.contains(path) ? newRanges.get(path) : oldRanges.get(path);
+                if (lines == null)
+                    continue;
+
+                for (String line : lines)
+                {
+                    writer.write(line);
+                    writer.write(Constants.NEWLINE);
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        writeState(stateFile, libsHash, hashes);
+    }
+
+    private void extractAll(InputSupplier inSup, File rangeMap, File stateFile, String libsHash, Map<String, String> hashes, String message) throws IOException
+    {
+        getLogger().info(message, hashes.size());
+        runExtractor(inSup, rangeMap);
+        writeState(stateFile, libsHash, hashes);
+    }
+
+    private void runExtractor(InputSupplier inSup, File rangeMap)
     {
         RangeExtractor extractor = new RangeExtractor();
         
@@ -105,6 +241,238 @@ public class ExtractS2SRangeTask extends DefaultTask
             throw new RuntimeException("RangeMap generation Failed!!!");
     }
 
+    /**
+     * Whether a changed file names a type that another source declares. The extractor only resolves the types of the
+     * files it is given, so such a file has to be parsed together with all the others, or its ranges come out
+     * different from a full extract. Every identifier counts, even in comments and strings, which only costs a full
+     * extract.
+     */
+    static boolean hasCrossReferences(Set<String> dirty, Map<String, String> texts, Set<String> paths)
+    {
+        Set<String> types = Sets.newHashSet();
+        for (String path : paths)
+        {
+            types.add(getTypeName(path));
+        }
+
+        for (String path : dirty)
+        {
+            String own = getTypeName(path);
+            Matcher matcher = IDENTIFIER.matcher(texts.get(path));
+            while (matcher.find())
+            {
+                String name = matcher.group();
+                if (!name.equals(own) && types.contains(name))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String getTypeName(String path)
+    {
+        return path.substring(path.lastIndexOf('/') + 1, path.length() - ".java".length());
+    }
+
+    /**
+     * The files that changed since the last run. Ranges of other files only depend on the declarations of a changed
+     * file, and those are hard to follow through subclasses, call chains and imports, so a change to them is not
+     * tracked per file.
+     * @return the changed files, or NULL if the declarations of any of them changed
+     */
+    private static Set<String> getDirty(Map<String, String> hashes, Map<String, String> old)
+    {
+        Set<String> dirty = Sets.newHashSet();
+
+        for (Map.Entry<String, String> e : hashes.entrySet())
+        {
+            String previous = old.get(e.getKey());
+            if (e.getValue().equals(previous))
+                continue;
+
+            String declarations = e.getValue().substring(e.getValue().indexOf('\t'));
+            if (!previous.endsWith(declarations))
+                return null;
+
+            dirty.add(e.getKey());
+        }
+
+        return dirty;
+    }
+
+    /**
+     * Strips a source down to what other files can see of it: comments, whitespace and the contents of every block
+     * that is not the body of a type are left out, so method bodies, initializers and anonymous classes don't count.
+     * Anything that can't be told apart is kept, which only costs a full extract.
+     */
+    static String getDeclarations(String source)
+    {
+        StringBuilder out = new StringBuilder(source.length() / 4);
+        StringBuilder header = new StringBuilder(); // since the last ; { or } of the type body, without literals
+        int skipped = 0; // depth of the block being left out
+        boolean space = false;
+
+        for (int i = 0; i < source.length(); i++)
+        {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+
+            if (c == '/' && next == '/')
+            {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? source.length() : end;
+                space = true;
+            }
+            else if (c == '/' && next == '*')
+            {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 1;
+                space = true;
+            }
+            else if (c == '"' || c == '\'')
+            {
+                int end = i + 1;
+                while (end < source.length() && source.charAt(end) != c)
+                {
+                    end += source.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(end + 1, source.length());
+
+                if (skipped == 0)
+                {
+                    if (space && out.length() > 0)
+                        out.append(' ');
+                    out.append(source, i, end);
+                    header.append(' ');
+                    space = false;
+                }
+                i = end - 1;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                space = true;
+            }
+            else if (skipped > 0)
+            {
+                if (c == '{')
+                    skipped++;
+                else if (c == '}' && --skipped == 0)
+                    out.append('}');
+            }
+            else
+            {
+                if (space && out.length() > 0)
+                {
+                    out.append(' ');
+                    header.append(' ');
+                }
+                space = false;
+                out.append(c);
+
+                if (c == '{')
+                {
+                    if (!TYPE_KEYWORD.matcher(header).find())
+                        skipped = 1;
+                    header.setLength(0);
+                }
+                else if (c == ';' || c == '}')
+                    header.setLength(0);
+                else
+                    header.append(c);
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Splits a range map into the lines of each file.
+     * @return the lines by file, or NULL if there is a line that doesn't clearly belong to one file
+     */
+    static Map<String, List<String>> splitRangeMap(File rangeMap) throws IOException
+    {
+        Map<String, List<String>> sections = Maps.newLinkedHashMap();
+        String current = null;
+
+        for (String line : Files.readLines(rangeMap, Constants.CHARSET))
+        {
+            if (line.trim().isEmpty())
+                continue;
+
+            if (line.startsWith("startProcessing \""))
+            {
+                int end = line.indexOf('"', 17);
+                if (current != null || end < 0)
+                    return null;
+
+                current = line.substring(17, end);
+                if (sections.containsKey(current))
+                    return null;
+                sections.put(current, Lists.newArrayList(line));
+            }
+            else if (current == null)
+            {
+                return null;
+            }
+            else
+            {
+                if (line.startsWith("@|"))
+                {
+                    String[] pts = line.split("\\|");
+                    if (pts.length < 2 || !current.equals(pts[1]))
+                        return null;
+                }
+
+                sections.get(current).add(line);
+
+                if (line.startsWith("endProcessing"))
+                    current = null;
+            }
+        }
+
+        return current == null ? sections : null;
+    }
+
+    private static Map<String, String> readState(File stateFile, String libsHash) throws IOException
+    {
+        if (!stateFile.isFile())
+            return null;
+
+        List<String> lines = Files.readLines(stateFile, Constants.CHARSET);
+        if (lines.isEmpty() || !lines.get(0).equals(STATE_VERSION + "\t" + libsHash))
+            return null;
+
+        Map<String, String> hashes = Maps.newHashMap();
+        for (String line : lines.subList(1, lines.size()))
+        {
+            int idx = line.indexOf('\t');
+            if (idx < 0)
+                return null;
+            hashes.put(line.substring(0, idx), line.substring(idx + 1));
+        }
+        return hashes;
+    }
+
+    private static void writeState(File stateFile, String libsHash, Map<String, String> hashes) throws IOException
+    {
+        BufferedWriter writer = Files.newWriter(stateFile, Constants.CHARSET);
+        try
+        {
+            writer.write(STATE_VERSION + "\t" + libsHash);
+            writer.write(Constants.NEWLINE);
+            for (Map.Entry<String, String> e : hashes.entrySet())
+            {
+                writer.write(e.getKey() + "\t" + e.getValue());
+                writer.write(Constants.NEWLINE);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
     private InputSupplier getInput(Object o) throws IOException
     {
         if (o instanceof SourceDirectorySet)
@@ -19,14 +19,13 @@
  */
 package net.minecraftforge.gradle.tasks;
 
-import au.com.bytecode.opencsv.CSVReader;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
-import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
+import net.minecraftforge.gradle.util.mcp.MappingStore;
 import net.minecraftforge.srg2source.rangeapplier.MethodData;
 import net.minecraftforge.srg2source.rangeapplier.SrgContainer;
 import org.gradle.api.file.FileCollection;
@@ -35,7 +34,6 @@ import org.gradle.api.tasks.*;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -66,9 +64,9 @@ public class GenSrgs extends CachedTask
     public void doTask() throws IOException
     {
         // csv data.  SRG -> MCP
-        HashMap<String, String> methods = new HashMap<String, String>();
-        HashMap<String, String> fields = new HashMap<String, String>();
-        readCSVs(getMethodsCsv(), getFieldsCsv(), methods, fields);
+        File store = MappingStore.getStoreDir(getProject());
+        Map<String, String> methods = MappingStore.read(getMethodsCsv(), store).getNames();
+        Map<String, String> fields = MappingStore.read(getFieldsCsv(), store).getNames();
 
         // Do SRG stuff
         SrgContainer inSrg = new SrgContainer().readSrg(getInSrg());
@@ -80,24 +78,6 @@ public class GenSrgs extends CachedTask
 
     }
 
-    private static void readCSVs(File methodCsv, File fieldCsv, Map<String, String> methodMap, Map<String, String> fieldMap) throws IOException
-    {
-
-        // read methods
-        CSVReader csvReader = Constants.getReader(methodCsv);
-        for (String[] s : csvReader.readAll())
-        {
-            methodMap.put(s[0], s[1]);
-        }
-
-        // read fields
-        csvReader = Constants.getReader(fieldCsv);
-        for (String[] s : csvReader.readAll())
-        {
-            fieldMap.put(s[0], s[1]);
-        }
-    }
-
     private void writeOutSrgs(SrgContainer inSrg, Map<String, String> methods, Map<String, String> fields) throws IOException
     {
         // ensure folders exist
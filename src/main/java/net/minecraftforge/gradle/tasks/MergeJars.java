@@ -27,12 +27,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -52,13 +57,16 @@ import org.objectweb.asm.tree.InnerClassNode;
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
 
 import groovy.lang.Closure;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 
@@ -79,6 +87,13 @@ public class MergeJars extends CachedTask
 
     private static final boolean  DEBUG         = false;
 
+    /**
+     * How many merged entries may be waiting to be written at once.
+     */
+    private static final int      IN_FLIGHT     = 256;
+
+    private int                   threads       = ParallelUtil.defaultThreads();
+
     @TaskAction
     public void doTask() throws IOException
     {
@@ -115,63 +130,63 @@ public class MergeJars extends CachedTask
             }
 
             // read in the jars, and initalize some variables
-            HashSet<String> resources = new HashSet<String>();
-            HashMap<String, ZipEntry> cClasses = getClassEntries(cInJar, outJar, resources);
-            HashMap<String, ZipEntry> sClasses = getClassEntries(sInJar, outJar, resources);
-            HashSet<String> cAdded = new HashSet<String>();
+            TreeMap<String, Callable<byte[]>> jobs = new TreeMap<String, Callable<byte[]>>();
+            TreeMap<String, ZipEntry> cClasses = getClassEntries(cInJar, jobs);
+            TreeMap<String, ZipEntry> sClasses = getClassEntries(sInJar, jobs);
 
-            // start processing
+            // every output entry becomes one job, so the classes are parsed and merged in parallel
             for (Entry<String, ZipEntry> entry : cClasses.entrySet())
             {
-                String name = entry.getKey();
-                ZipEntry cEntry = entry.getValue();
-                ZipEntry sEntry = sClasses.get(name);
+                ZipEntry sEntry = sClasses.get(entry.getKey());
 
                 if (sEntry == null)
-                {
-                    copyClass(cInJar, cEntry, outJar, true);
-                    cAdded.add(name);
-                    continue;
-                }
-
-                sClasses.remove(name);
-                byte[] cData = readEntry(cInJar, entry.getValue());
-                byte[] sData = readEntry(sInJar, sEntry);
-                byte[] data = processClass(cData, sData);
-
-                ZipEntry newEntry = new ZipEntry(cEntry.getName());
-                newEntry.setLastAccessTime(FileTime.fromMillis(0L));
-                newEntry.setLastModifiedTime(FileTime.fromMillis(0L));
-                newEntry.setCreationTime(FileTime.fromMillis(0L));
-                outJar.putNextEntry(newEntry);
-                outJar.write(data);
-                cAdded.add(name);
+                    jobs.put(entry.getKey(), new CopyClass(cInJar, entry.getValue(), true));
+                else
+                    jobs.put(entry.getKey(), new MergeClass(cInJar, entry.getValue(), sInJar, sEntry));
             }
 
             for (Entry<String, ZipEntry> entry : sClasses.entrySet())
             {
+                if (cClasses.containsKey(entry.getKey()))
+                    continue;
+
                 if (DEBUG)
                 {
                     System.out.println("Copy class s->c : " + entry.getKey());
                 }
-                copyClass(sInJar, entry.getValue(), outJar, false);
+                jobs.put(entry.getKey(), new CopyClass(sInJar, entry.getValue(), false));
             }
 
-            for (String name : new String[] { sideOnlyClass.getName(), sideClass.getName() })
+            for (final String name : new String[] { sideOnlyClass.getName(), sideClass.getName() })
             {
-                String eName = name.replace(".", "/");
-                String classPath = eName + ".class";
-                ZipEntry newEntry = new ZipEntry(classPath);
-                newEntry.setLastAccessTime(FileTime.fromMillis(0L));
-                newEntry.setLastModifiedTime(FileTime.fromMillis(0L));
-                newEntry.setCreationTime(FileTime.fromMillis(0L));
-                if (!cAdded.contains(eName))
+                String classPath = name.replace(".", "/") + ".class";
+                if (!jobs.containsKey(classPath))
                 {
-                    outJar.putNextEntry(newEntry);
-                    outJar.write(getClassBytes(name));
+                    jobs.put(classPath, new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException
+                        {
+                            return getClassBytes(name);
+                        }
+                    });
                 }
             }
 
+            // written in sorted order, so the jar comes out the same whatever thread finishes first
+            final Iterator<String> names = jobs.keySet().iterator();
+            final ZipOutputStream out = outJar;
+            ParallelUtil.runOrdered(getThreads(), IN_FLIGHT, jobs.values(), new ParallelUtil.Sink<byte[]>() {
+                @Override
+                public void accept(byte[] data) throws IOException
+                {
+                    ZipEntry newEntry = new ZipEntry(names.next());
+                    newEntry.setLastAccessTime(FileTime.fromMillis(0L));
+                    newEntry.setLastModifiedTime(FileTime.fromMillis(0L));
+                    newEntry.setCreationTime(FileTime.fromMillis(0L));
+                    out.putNextEntry(newEntry);
+                    out.write(data);
+                }
+            });
         }
         finally
         {
@@ -207,9 +222,49 @@ public class MergeJars extends CachedTask
         }
     }
 
-    private void copyClass(ZipFile inJar, ZipEntry entry, ZipOutputStream outJar, boolean isClientOnly) throws IOException
+    private class CopyClass implements Callable<byte[]>
+    {
+        private final ZipFile  inJar;
+        private final ZipEntry entry;
+        private final boolean  isClientOnly;
+
+        CopyClass(ZipFile inJar, ZipEntry entry, boolean isClientOnly)
+        {
+            this.inJar = inJar;
+            this.entry = entry;
+            this.isClientOnly = isClientOnly;
+        }
+
+        @Override
+        public byte[] call() throws IOException
+        {
+            return copyClass(readEntry(inJar, entry), isClientOnly);
+        }
+    }
+
+    private class MergeClass implements Callable<byte[]>
+    {
+        private final ZipFile  cInJar, sInJar;
+        private final ZipEntry cEntry, sEntry;
+
+        MergeClass(ZipFile cInJar, ZipEntry cEntry, ZipFile sInJar, ZipEntry sEntry)
+        {
+            this.cInJar = cInJar;
+            this.cEntry = cEntry;
+            this.sInJar = sInJar;
+            this.sEntry = sEntry;
+        }
+
+        @Override
+        public byte[] call() throws IOException
+        {
+            return processClass(readEntry(cInJar, cEntry), readEntry(sInJar, sEntry));
+        }
+    }
+
+    private byte[] copyClass(byte[] data, boolean isClientOnly)
     {
-        ClassReader reader = new ClassReader(readEntry(inJar, entry));
+        ClassReader reader = new ClassReader(data);
         ClassNode classNode = new ClassNode();
 
         reader.accept(classNode, 0);
@@ -222,22 +277,20 @@ public class MergeJars extends CachedTask
 
         ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
         classNode.accept(writer);
-        byte[] data = writer.toByteArray();
-
-        ZipEntry newEntry = new ZipEntry(entry.getName());
-        if (outJar != null)
-        {
-            newEntry.setLastAccessTime(FileTime.fromMillis(0L));
-            newEntry.setLastModifiedTime(FileTime.fromMillis(0L));
-            newEntry.setCreationTime(FileTime.fromMillis(0L));
-            outJar.putNextEntry(newEntry);
-            outJar.write(data);
-        }
+        return writer.toByteArray();
     }
 
-    private byte[] readEntry(ZipFile inFile, ZipEntry entry) throws IOException
+    private static byte[] readEntry(ZipFile inFile, ZipEntry entry) throws IOException
     {
-        return ByteStreams.toByteArray(inFile.getInputStream(entry));
+        InputStream stream = inFile.getInputStream(entry);
+        try
+        {
+            return ByteStreams.toByteArray(stream);
+        }
+        finally
+        {
+            stream.close();
+        }
     }
 
     private AnnotationNode getSideAnn(boolean isClientOnly)
@@ -251,16 +304,14 @@ public class MergeJars extends CachedTask
 
     /**
      * @param inFile From which to read classes and resources
-     * @param outFile The place to write resources and ignored classes
-     * @param resources The registry to add resources to, and to check against.
-     * @return HashMap of all the desired Classes and their ZipEntrys
-     * @throws IOException
+     * @param jobs The output entries, resources are added here unless an earlier jar already has them
+     * @return all the desired Classes and their ZipEntrys, by entry name
      */
-    private HashMap<String, ZipEntry> getClassEntries(ZipFile inFile, ZipOutputStream outFile, HashSet<String> resources) throws IOException
+    private TreeMap<String, ZipEntry> getClassEntries(final ZipFile inFile, Map<String, Callable<byte[]>> jobs)
     {
-        HashMap<String, ZipEntry> ret = new HashMap<>();
+        TreeMap<String, ZipEntry> ret = new TreeMap<String, ZipEntry>();
 
-        for (ZipEntry entry : Collections.list(inFile.entries()))
+        for (final ZipEntry entry : Collections.list(inFile.entries()))
         {
             String entryName = entry.getName();
             // Always skip the manifest
@@ -270,31 +321,25 @@ public class MergeJars extends CachedTask
             }
             if (entry.isDirectory())
             {
-                /*
-                 * if (!resources.contains(entryName))
-                 * {
-                 * outFile.putNextEntry(entry);
-                 * }
-                 */
                 continue;
             }
 
             if (!entryName.endsWith(".class") || entryName.startsWith("."))
             {
-                if (!resources.contains(entryName))
+                if (!jobs.containsKey(entryName))
                 {
-                    ZipEntry newEntry = new ZipEntry(entryName);
-                    newEntry.setLastAccessTime(FileTime.fromMillis(0L));
-                    newEntry.setLastModifiedTime(FileTime.fromMillis(0L));
-                    newEntry.setCreationTime(FileTime.fromMillis(0L));
-                    outFile.putNextEntry(newEntry);
-                    outFile.write(readEntry(inFile, entry));
-                    resources.add(entryName);
+                    jobs.put(entryName, new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException
+                        {
+                            return readEntry(inFile, entry);
+                        }
+                    });
                 }
             }
             else
             {
-                ret.put(entryName.replace(".class", ""), entry);
+                ret.put(entryName, entry);
             }
         }
         return ret;
@@ -332,40 +377,86 @@ public class MergeJars extends CachedTask
         return writer.toByteArray();
     }
 
-    private static boolean innerMatches(InnerClassNode o, InnerClassNode o2)
-    {
-        if (o.innerName == null && o2.innerName != null) return false;
-        if (o.innerName != null && !o.innerName.equals(o2.innerName)) return false;
-        if (o.name == null && o2.name != null) return false;
-        if (o.name != null && !o.name.equals(o2.name)) return false;
-        if (o.outerName == null && o2.outerName != null) return false;
-        if (o.outerName != null && o.outerName.equals(o2.outerName)) return false;
-        return true;
-    }
-    private static boolean contains(List<InnerClassNode> list, InnerClassNode node)
-    {
-        for (InnerClassNode n : list)
-            if (innerMatches(n, node))
-                return true;
-        return false;
-    }
-    private static void processInners(ClassNode cClass, ClassNode sClass)
+    static void processInners(ClassNode cClass, ClassNode sClass)
     {
         List<InnerClassNode> cIners = cClass.innerClasses;
         List<InnerClassNode> sIners = sClass.innerClasses;
 
+        InnerIndex cIndex = new InnerIndex(cIners);
+        InnerIndex sIndex = new InnerIndex(sIners);
+
         for (InnerClassNode n : cIners)
         {
-            if (!contains(sIners, n))
+            if (!sIndex.contains(n))
+            {
                 sIners.add(n);
+                sIndex.add(n);
+            }
         }
         for (InnerClassNode n : sIners)
         {
-            if (!contains(cIners, n))
+            if (!cIndex.contains(n))
+            {
                 cIners.add(n);
+                cIndex.add(n);
+            }
         }
     }
 
+    /**
+     * Hash index over a list of inner class entries, so checking for a match does not walk the whole list.
+     * Entries are grouped by inner name and name, which must be equal to match. Within a group an entry
+     * matches when both outer names are null, or when its outer name is set and differs from the other one.
+     */
+    private static class InnerIndex
+    {
+        private final Map<List<String>, InnerGroup> groups = new HashMap<List<String>, InnerGroup>();
+
+        InnerIndex(List<InnerClassNode> nodes)
+        {
+            for (InnerClassNode n : nodes)
+                add(n);
+        }
+
+        void add(InnerClassNode n)
+        {
+            List<String> key = Arrays.asList(n.innerName, n.name);
+            InnerGroup group = groups.get(key);
+            if (group == null)
+            {
+                group = new InnerGroup();
+                groups.put(key, group);
+            }
+
+            if (n.outerName == null)
+            {
+                group.nullOuter = true;
+            }
+            else
+            {
+                group.outers.add(n.outerName);
+            }
+        }
+
+        boolean contains(InnerClassNode n)
+        {
+            InnerGroup group = groups.get(Arrays.asList(n.innerName, n.name));
+            if (group == null)
+                return false;
+
+            if (n.outerName == null)
+                return group.nullOuter || !group.outers.isEmpty();
+            else
+                return group.outers.size() > group.outers.count(n.outerName);
+        }
+    }
+
+    private static class InnerGroup
+    {
+        boolean                nullOuter = false;
+        final Multiset<String> outers    = HashMultiset.create();
+    }
+
     private ClassNode getClassNode(byte[] data)
     {
         ClassReader reader = new ClassReader(data);
@@ -379,39 +470,27 @@ public class MergeJars extends CachedTask
         List<FieldNode> cFields = cClass.fields;
         List<FieldNode> sFields = sClass.fields;
 
+        // names of the fields not reached yet, so looking ahead is a lookup instead of a scan
+        FieldLookahead cAhead = new FieldLookahead(cFields);
+        FieldLookahead sAhead = new FieldLookahead(sFields);
+
         int serverFieldIdx = 0;
         if (DEBUG)
             System.out.printf("B: Server List: %s\nB: Client List: %s\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance));
         for (int clientFieldIdx = 0; clientFieldIdx < cFields.size(); clientFieldIdx++)
         {
             FieldNode clientField = cFields.get(clientFieldIdx);
+            cAhead.moveTo(clientField);
             if (serverFieldIdx < sFields.size())
             {
                 FieldNode serverField = sFields.get(serverFieldIdx);
+                sAhead.moveTo(serverField);
                 if (!clientField.name.equals(serverField.name))
                 {
-                    boolean foundServerField = false;
-                    for (int serverFieldSearchIdx = serverFieldIdx + 1; serverFieldSearchIdx < sFields.size(); serverFieldSearchIdx++)
-                    {
-                        if (clientField.name.equals(sFields.get(serverFieldSearchIdx).name))
-                        {
-                            foundServerField = true;
-                            break;
-                        }
-                    }
                     // Found a server field match ahead in the list - walk to it and add the missing server fields to the client
-                    if (foundServerField)
+                    if (sAhead.hasAhead(clientField.name))
                     {
-                        boolean foundClientField = false;
-                        for (int clientFieldSearchIdx = clientFieldIdx + 1; clientFieldSearchIdx < cFields.size(); clientFieldSearchIdx++)
-                        {
-                            if (serverField.name.equals(cFields.get(clientFieldSearchIdx).name))
-                            {
-                                foundClientField = true;
-                                break;
-                            }
-                        }
-                        if (!foundClientField)
+                        if (!cAhead.hasAhead(serverField.name))
                         {
                             if (serverField.visibleAnnotations == null)
                             {
@@ -468,6 +547,36 @@ public class MergeJars extends CachedTask
             System.out.printf("E. Server List: %s\nE. Client List: %s\n", Lists.transform(sFields, FieldName.instance), Lists.transform(cFields, FieldName.instance));
     }
 
+    /**
+     * Counts the names of the fields of a list that the merge has not reached yet.
+     * Fields are only ever inserted at the merge position, so everything past it is an original field of the list.
+     */
+    private static class FieldLookahead
+    {
+        private final Set<FieldNode>    unreached = Sets.newIdentityHashSet();
+        private final Multiset<String>  names     = HashMultiset.create();
+
+        FieldLookahead(List<FieldNode> fields)
+        {
+            for (FieldNode f : fields)
+            {
+                unreached.add(f);
+                names.add(f.name);
+            }
+        }
+
+        void moveTo(FieldNode field)
+        {
+            if (unreached.remove(field))
+                names.remove(field.name);
+        }
+
+        boolean hasAhead(String name)
+        {
+            return names.contains(name);
+        }
+    }
+
     private static class FieldName implements Function<FieldNode, String>
     {
         public static FieldName instance = new FieldName();
@@ -649,4 +758,17 @@ public class MergeJars extends CachedTask
     {
         this.server = server;
     }
+
+    /**
+     * @return how many classes are parsed and merged at once
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
 }
@@ -24,11 +24,17 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.patching.ContextualPatch;
 import net.minecraftforge.gradle.util.patching.ContextualPatch.PatchStatus;
 
@@ -40,6 +46,7 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 
 import com.cloudbees.diff.PatchException;
@@ -47,17 +54,16 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 
 public class PatchSourcesTask extends AbstractEditJarTask
 {
     /*
-     * TODO: optimization plans
-     * 1) doStufBefore> read all the patch files into a map as strings stored by relative path.
-     * 2) doStufBefore> Create a threaded Executor to patch the files
-     * 3) AsRead > kick off the patching threads
-     * 4) ????
-     * 5) profit from multithreaded oatching. Its CPU bound anyways.
+     * With more than one patch thread, patches are applied on a work-stealing pool. Patches that
+     * change the same file are one job and run in the order they were loaded, so the only state
+     * shared between jobs is the source map behind the ContextProvider.
+     * The reports are logged afterwards, in the order the patches were loaded.
      */
 
     @Input
@@ -77,6 +83,9 @@ public class PatchSourcesTask extends AbstractEditJarTask
     @InputFiles
     private List<Object>           injects       = Lists.newArrayList();
 
+    @Internal
+    private int                    patchThreads  = 1;
+
     // stateful pieces of this task
     private ContextProvider        context;
     private ArrayList<PatchedFile> loadedPatches = Lists.newArrayList();
@@ -204,14 +213,136 @@ public class PatchSourcesTask extends AbstractEditJarTask
         }
     }
 
+    private List<List<ContextualPatch.PatchReport>> runPatches() throws IOException, PatchException
+    {
+        final List<List<ContextualPatch.PatchReport>> results = Lists.newArrayListWithCapacity(loadedPatches.size());
+
+        if (getPatchThreads() <= 1)
+        {
+            for (PatchedFile patch : loadedPatches)
+            {
+                results.add(patch.patch.patch(false));
+            }
+            return results;
+        }
+
+        for (int i = 0; i < loadedPatches.size(); i++)
+        {
+            results.add(null);
+        }
+
+        ExecutorService pool = Executors.newWorkStealingPool(getPatchThreads());
+        try
+        {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (final List<Integer> group : groupByTarget())
+            {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        for (int i : group)
+                        {
+                            List<ContextualPatch.PatchReport> reports = loadedPatches.get(i).patch.patch(false);
+                            synchronized (results)
+                            {
+                                results.set(i, reports);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures)
+            {
+                ParallelUtil.getResult(future);
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Splits the loaded patches into groups that don't share a target file.
+     * @return the indexes of the patches in each group, in the order they were loaded
+     */
+    private List<List<Integer>> groupByTarget() throws IOException, PatchException
+    {
+        List<List<Integer>> groups = Lists.newArrayList();
+        Map<String, List<Integer>> byTarget = Maps.newHashMap();
+
+        for (int i = 0; i < loadedPatches.size(); i++)
+        {
+            List<String> targets = loadedPatches.get(i).patch.getTargets();
+            List<Integer> group = null;
+
+            for (String target : targets)
+            {
+                if (target == null)
+                {
+                    // the target comes from the context, so there is no telling what it touches. Do it all in order.
+                    List<Integer> all = Lists.newArrayList();
+                    for (int j = 0; j < loadedPatches.size(); j++)
+                    {
+                        all.add(j);
+                    }
+                    return Lists.<List<Integer>> newArrayList(all);
+                }
+
+                List<Integer> other = byTarget.get(context.strip(target));
+                if (other == null || other == group)
+                    continue;
+
+                if (group == null)
+                {
+                    group = other;
+                }
+                else
+                {
+                    // this patch joins two groups, so they become one.
+                    group.addAll(other);
+                    Collections.sort(group);
+                    groups.remove(other);
+                    for (Map.Entry<String, List<Integer>> e : byTarget.entrySet())
+                    {
+                        if (e.getValue() == other)
+                            e.setValue(group);
+                    }
+                }
+            }
+
+            if (group == null)
+            {
+                group = Lists.newArrayList();
+                groups.add(group);
+            }
+            group.add(i);
+
+            for (String target : targets)
+            {
+                byTarget.put(context.strip(target), group);
+            }
+        }
+
+        return groups;
+    }
+
     private void applyPatches() throws IOException, PatchException
     {
         boolean fuzzed = false;
         Throwable failure = null;
 
-        for (PatchedFile patch : loadedPatches)
+        List<List<ContextualPatch.PatchReport>> results = runPatches();
+
+        for (int i = 0; i < loadedPatches.size(); i++)
         {
-            List<ContextualPatch.PatchReport> errors = patch.patch.patch(false);
+            PatchedFile patch = loadedPatches.get(i);
+            List<ContextualPatch.PatchReport> errors = results.get(i);
             for (ContextualPatch.PatchReport report : errors)
             {
                 // catch failed patches
@@ -302,6 +433,19 @@ public class PatchSourcesTask extends AbstractEditJarTask
 
     // START GETTERS/SETTERS HERE
 
+    /**
+     * @return how many threads apply patches at once. Patches to the same file always run one after another.
+     */
+    public int getPatchThreads()
+    {
+        return patchThreads;
+    }
+
+    public void setPatchThreads(int patchThreads)
+    {
+        this.patchThreads = patchThreads;
+    }
+
     public int getMaxFuzz()
     {
         return maxFuzz;
@@ -427,9 +571,15 @@ public class PatchSourcesTask extends AbstractEditJarTask
         {
             target = strip(target);
 
-            if (fileMap.containsKey(target))
+            String file;
+            synchronized (this)
             {
-                String[] lines = fileMap.get(target).split("\r\n|\r|\n");
+                file = fileMap.get(target);
+            }
+
+            if (file != null)
+            {
+                String[] lines = file.split("\r\n|\r|\n");
                 List<String> ret = new ArrayList<String>();
                 for (String line : lines)
                 {
@@ -445,7 +595,11 @@ public class PatchSourcesTask extends AbstractEditJarTask
         public void setData(String target, List<String> data)
         {
             target = strip(target);
-            fileMap.put(target, Joiner.on(Constants.NEWLINE).join(data));
+            String file = Joiner.on(Constants.NEWLINE).join(data);
+            synchronized (this)
+            {
+                fileMap.put(target, file);
+            }
         }
     }
 
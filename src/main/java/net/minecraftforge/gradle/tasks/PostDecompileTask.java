@@ -20,20 +20,22 @@
 package net.minecraftforge.gradle.tasks;
 
 import java.io.File;
-import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.mcp.FFPatcher;
 import net.minecraftforge.gradle.util.mcp.FmlCleanup;
+import net.minecraftforge.gradle.util.mcp.FormatterPool;
 import net.minecraftforge.gradle.util.mcp.GLConstantFixer;
 import net.minecraftforge.gradle.util.mcp.McpCleanup;
 import net.minecraftforge.gradle.util.patching.ContextualPatch;
@@ -46,10 +48,9 @@ import org.gradle.api.logging.LogLevel;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 
-import com.github.abrarsyed.jastyle.ASFormatter;
-import com.github.abrarsyed.jastyle.OptParser;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
@@ -71,13 +72,19 @@ public class PostDecompileTask extends AbstractEditJarTask
     @Cached
     private Object                       outJar;
 
+    @Internal
+    private Object                       resultCache = false;
+
     private static final Pattern         BEFORE      = Pattern.compile("(?m)((case|default).+(?:\\r\\n|\\r|\\n))(?:\\r\\n|\\r|\\n)");
     private static final Pattern         AFTER       = Pattern.compile("(?m)(?:\\r\\n|\\r|\\n)((?:\\r\\n|\\r|\\n)[ \\t]+(case|default))");
 
     private final Multimap<String, File> patchesMap  = ArrayListMultimap.create();
-    private final List<PatchAttempt>      patchErrors = Lists.newArrayList();
-    private final ASFormatter            formatter   = new ASFormatter();
+    private final List<PatchAttempt>      patchErrors = Collections.synchronizedList(Lists.<PatchAttempt>newArrayList());
+    private final Map<String, String>    patchHashes = new HashMap<String, String>();
+    private FormatterPool                formatter;
     private GLConstantFixer              oglFixer;
+    private File                         cacheDir;
+    private String                       astyleHash;
 
     @Override
     public void doStuffBefore() throws Exception
@@ -95,18 +102,38 @@ public class PostDecompileTask extends AbstractEditJarTask
             patchesMap.put(name.substring(0, patchIndex), f);
         }
 
-        formatter.setUseProperInnerClassIndenting(false);
-        OptParser parser = new OptParser(formatter);
-        parser.parseOptionFile(getAstyleConfig());
+        cacheDir = getResultCache();
+        if (cacheDir != null && CacheFiles.getPluginVersion() == null)
+        {
+            // without a way to tell plugin builds apart, one build could be handed the results of another.
+            getLogger().info("Not caching results, the plugin was not loaded from a jar");
+            cacheDir = null;
+        }
+        if (cacheDir != null)
+        {
+            astyleHash = Constants.hash(getAstyleConfig(), "SHA-1");
+
+            for (Map.Entry<String, Collection<File>> e : patchesMap.asMap().entrySet())
+            {
+                StringBuilder hashes = new StringBuilder();
+                for (File f : e.getValue())
+                    hashes.append(Constants.hash(f, "SHA-1"));
+                patchHashes.put(e.getKey(), hashes.toString());
+            }
+        }
+
+        formatter = new FormatterPool(getAstyleConfig());
 
         oglFixer = new GLConstantFixer();
     }
     class PatchAttempt {
-        public PatchAttempt(List<PatchReport> report, String file) {
+        public PatchAttempt(String name, List<PatchReport> report, String file) {
             super();
+            this.name = name;
             this.report = report;
             this.file = file;
         }
+        final String name;
         final List<PatchReport> report;
         final String file;
     }
@@ -115,9 +142,22 @@ public class PostDecompileTask extends AbstractEditJarTask
     {
         getLogger().debug("Processing file: " + name);
 
+        File cached = null;
+        if (cacheDir != null)
+        {
+            cached = getCachedFile(name, file);
+            if (cached.isFile())
+            {
+                getLogger().debug("using cached result " + cached.getName());
+                CacheFiles.touch(cached);
+                return Files.toString(cached, Constants.CHARSET);
+            }
+        }
+
         file = FFPatcher.processFile(file);
 
         // patch the file
+        boolean cacheable = true;
         Collection<File> patchFiles = patchesMap.get(name.replace('/', '.'));
         if (!patchFiles.isEmpty())
         {
@@ -125,8 +165,16 @@ public class PostDecompileTask extends AbstractEditJarTask
             ContextProvider provider = new ContextProvider(file);
             ContextualPatch patch = findPatch(patchFiles, provider,getLogger());
             if (patch != null) {
-                patchErrors.add(new PatchAttempt(patch.patch(false),file));
+                List<PatchReport> reports = patch.patch(false);
+                patchErrors.add(new PatchAttempt(name, reports, file));
                 file = provider.getAsString();
+
+                // failed and fuzzed patches have to be reported every time, so those never come from the cache
+                for (PatchReport report : reports)
+                {
+                    if (!report.getStatus().isSuccess() || report.getStatus() == PatchStatus.Fuzzed)
+                        cacheable = false;
+                }
             }
         }
 
@@ -143,28 +191,66 @@ public class PostDecompileTask extends AbstractEditJarTask
         file = oglFixer.fixOGL(file);
 
         getLogger().debug("formatting source");
-        Reader reader = new StringReader(file);
-        Writer writer = new StringWriter();
-        formatter.format(reader, writer);
-        reader.close();
-        writer.flush();
-        writer.close();
-        file = writer.toString();
+        file = formatter.format(file);
 
 //        getLogger().debug("applying FML transformations");
 //        file = BEFORE.matcher(file).replaceAll("$1");
 //        file = AFTER.matcher(file).replaceAll("$1");
 //        file = FmlCleanup.renameClass(file);
 
+        if (cached != null && cacheable)
+            storeCachedFile(cached, file);
+
         return file;
     }
 
+    /**
+     * The cache key covers everything the result depends on: the plugin build that does the fixes, the decompiled
+     * source, the MCP patches for the file and the astyle config.
+     */
+    private File getCachedFile(String name, String source)
+    {
+        String patches = patchHashes.get(name.replace('/', '.'));
+        String key = Constants.hash(Joiner.on('-').join(
+                CacheFiles.getPluginVersion(),
+                Constants.hash(source.getBytes(Constants.CHARSET), "SHA-1"),
+                patches == null ? "" : patches,
+                astyleHash,
+                Constants.NEWLINE).getBytes(Constants.CHARSET), "SHA-1");
+
+        return new File(cacheDir, key.substring(0, 2) + "/" + key + ".java");
+    }
+
+    private void storeCachedFile(File cached, String file)
+    {
+        try
+        {
+            CacheFiles.write(cached, file.getBytes(Constants.CHARSET));
+        }
+        catch (IOException e)
+        {
+            getLogger().debug("Could not cache the result " + cached.getName(), e);
+        }
+    }
+
     @Override
     public void doStuffAfter() throws Exception
     {
+        CacheFiles.trim(getProject(), cacheDir);
+
+        // files are processed in parallel, so report them in name order to get the same log every time
+        List<PatchAttempt> attempts = Lists.newArrayList(patchErrors);
+        Collections.sort(attempts, new Comparator<PatchAttempt>() {
+            @Override
+            public int compare(PatchAttempt a, PatchAttempt b)
+            {
+                return a.name.compareTo(b.name);
+            }
+        });
+
         boolean fuzzed = false;
         Throwable error = null;
-        for (PatchAttempt attempt: patchErrors)
+        for (PatchAttempt attempt: attempts)
         {
             for (PatchReport report : attempt.report) {
                 if (!report.getStatus().isSuccess())
@@ -251,6 +337,20 @@ public class PostDecompileTask extends AbstractEditJarTask
         this.astyleConfig = astyleConfig;
     }
 
+    public File getResultCache()
+    {
+        return CacheFiles.getCacheDir(getProject(), resultCache, "postDecompile");
+    }
+
+    /**
+     * Off by default, since it keeps another copy of every processed file.
+     * @param resultCache TRUE to cache processed files in the Gradle user home, a folder to cache them in, or FALSE to not cache them
+     */
+    public void setResultCache(Object resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
     @InputFiles
     public FileCollection getPatches()
     {
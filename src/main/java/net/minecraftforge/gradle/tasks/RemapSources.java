@@ -20,24 +20,15 @@
 package net.minecraftforge.gradle.tasks;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
-import net.minecraftforge.gradle.util.mcp.JavadocAdder;
+import net.minecraftforge.gradle.util.mcp.MappingStore;
+import net.minecraftforge.gradle.util.mcp.MappingStore.Mappings;
+import net.minecraftforge.gradle.util.mcp.SrgRemapper;
 
 import org.gradle.api.tasks.InputFile;
 
-import au.com.bytecode.opencsv.CSVReader;
-
-import com.google.common.base.Joiner;
-import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
-
 public class RemapSources extends AbstractEditJarTask
 {
     @InputFile
@@ -51,40 +42,29 @@ public class RemapSources extends AbstractEditJarTask
 
     private boolean                   addsJavadocs = true;
 
-    private final Map<String, String> methods      = Maps.newHashMap();
-    private final Map<String, String> methodDocs   = Maps.newHashMap();
-    private final Map<String, String> fields       = Maps.newHashMap();
-    private final Map<String, String> fieldDocs    = Maps.newHashMap();
-    private final Map<String, String> params       = Maps.newHashMap();
-
-    private static final Pattern      SRG_FINDER   = Pattern.compile("func_[0-9]+_[a-zA-Z_]+|field_[0-9]+_[a-zA-Z_]+|p_[\\w]+_\\d+_\\b");
-    private static final Pattern      METHOD       = Pattern.compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+(func_[0-9]+_[a-zA-Z_]+)\\(");
-    private static final Pattern      FIELD        = Pattern.compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+(field_[0-9]+_[a-zA-Z_]+) *(?:=|;)");
+    private final SrgRemapper         names        = new SrgRemapper();
 
     @Override
     public void doStuffBefore() throws Exception
     {
         // read CSV files
-        CSVReader reader = Constants.getReader(getMethodsCsv());
-        for (String[] s : reader.readAll())
+        File store = MappingStore.getStoreDir(getProject());
+
+        Mappings methods = MappingStore.read(getMethodsCsv(), store);
+        for (Map.Entry<String, String> e : methods.getNames().entrySet())
         {
-            methods.put(s[0], s[1]);
-            if (!s[3].isEmpty() && addsJavadocs)
-                methodDocs.put(s[0], s[3]);
+            names.addMethod(e.getKey(), e.getValue(), addsJavadocs ? methods.getDoc(e.getKey()) : null);
         }
 
-        reader = Constants.getReader(getFieldsCsv());
-        for (String[] s : reader.readAll())
+        Mappings fields = MappingStore.read(getFieldsCsv(), store);
+        for (Map.Entry<String, String> e : fields.getNames().entrySet())
         {
-            fields.put(s[0], s[1]);
-            if (!s[3].isEmpty() && addsJavadocs)
-                fieldDocs.put(s[0], s[3]);
+            names.addField(e.getKey(), e.getValue(), addsJavadocs ? fields.getDoc(e.getKey()) : null);
         }
 
-        reader = Constants.getReader(getParamsCsv());
-        for (String[] s : reader.readAll())
+        for (Map.Entry<String, String> e : MappingStore.read(getParamsCsv(), store).getNames().entrySet())
         {
-            params.put(s[0], s[1]);
+            names.addParam(e.getKey(), e.getValue());
         }
     }
     
@@ -97,84 +77,10 @@ public class RemapSources extends AbstractEditJarTask
     @Override
     public String asRead(String name, String text)
     {
-        ArrayList<String> newLines = new ArrayList<String>();
-        for (String line : Constants.lines(text))
-        {
-            // basically all this code is to find the javadocs for a field ebfore replacing it.
-            // if we arnt doing javadocs.. screw dat.
-            if (addsJavadocs)
-            {
-                injectJavadoc(newLines, line);
-            }
-            newLines.add(replaceInLine(line));
-        }
-
-        return Joiner.on(Constants.NEWLINE).join(newLines);
-    }
-
-    private void injectJavadoc(List<String> newLines, String line)
-    {
-        // methods
-        Matcher matcher = METHOD.matcher(line);
-        if (matcher.find())
-        {
-            String javadoc = methodDocs.get(matcher.group(2));
-            if (!Strings.isNullOrEmpty(javadoc))
-            {
-                insetAboveAnnotations(newLines, JavadocAdder.buildJavadoc(matcher.group(1), javadoc, true));
-            }
-            
-            // worked, so return and dont try the fields.
-            return;
-        }
-
-        // fields
-        matcher = FIELD.matcher(line);
-        if (matcher.find())
-        {
-            String javadoc = fieldDocs.get(matcher.group(2));
-            if (!Strings.isNullOrEmpty(javadoc))
-            {
-                insetAboveAnnotations(newLines, JavadocAdder.buildJavadoc(matcher.group(1), javadoc, false));
-            }
-        }
-    }
-
-    private static void insetAboveAnnotations(List<String> list, String line)
-    {
-        int back = 0;
-        while (list.get(list.size() - 1 - back).trim().startsWith("@"))
-        {
-            back++;
-        }
-        list.add(list.size() - back, line);
+        // the javadocs have to be found before the names they belong to are replaced.
+        return names.remap(text, addsJavadocs);
     }
 
-    private String replaceInLine(String line)
-    {
-        // FAR all methods
-        StringBuffer buf = new StringBuffer();
-        Matcher matcher = SRG_FINDER.matcher(line);
-        while (matcher.find())
-        {
-            String find = matcher.group();
-
-            if (find.startsWith("p_"))
-                find = params.get(find);
-            else if (find.startsWith("func_"))
-                find = methods.get(find);
-            else if (find.startsWith("field_"))
-                find = fields.get(find);
-
-            if (find == null)
-                find = matcher.group();
-
-            matcher.appendReplacement(buf, find);
-        }
-        matcher.appendTail(buf);
-        return buf.toString();
-    }
-    
     public File getMethodsCsv()
     {
         return methodsCsv.call();
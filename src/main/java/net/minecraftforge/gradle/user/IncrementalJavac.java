@@ -0,0 +1,653 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
+
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Compiles the sources of a jar with the compiler of the running JDK, keeping the classes between runs so that
+ * only the sources that changed are compiled again.
+ * <p>
+ * When a recompiled class changes its outline (its access, supertypes or member declarations), every source that
+ * uses it, or one of its subclasses, is compiled again too, until nothing changes any more. A changed constant may
+ * have been inlined anywhere, and an added or removed source may change how names resolve, so those are compiled
+ * from scratch, as is everything whenever the options, the classpath or the JDK change.
+ */
+class IncrementalJavac
+{
+    private static final int     VERSION    = 1;
+    private static final int     MAX_ROUNDS = 10;
+    private static final Pattern TYPE       = Pattern.compile("L([^;<>\\[]+)[;<]");
+
+    private final JavaCompiler   compiler   = ToolProvider.getSystemJavaCompiler();
+    private final File           classDir;
+    private final File           stateFile;
+    private final Logger         logger;
+
+    /** source path -> hash of the source */
+    private final Map<String, String>       hashes  = Maps.newTreeMap();
+    /** source path -> internal names of the classes compiled from it */
+    private final Map<String, List<String>> classes = Maps.newTreeMap();
+
+    /**
+     * @param classDir the folder to keep the classes in
+     * @param stateFile the file to remember what the classes were compiled from in
+     * @param logger the logger to report compile errors to
+     */
+    IncrementalJavac(File classDir, File stateFile, Logger logger)
+    {
+        this.classDir = classDir;
+        this.stateFile = stateFile;
+        this.logger = logger;
+    }
+
+    /**
+     * @return FALSE when running on a JRE, which has no compiler
+     */
+    public static boolean isAvailable()
+    {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Brings the classes up to date with the sources in the jar.
+     * @param sourceJar the jar to compile the .java files of
+     * @param classpath the libraries to compile against
+     * @param options the compiler options
+     * @throws IOException if reading or writing fails
+     */
+    public void compile(File sourceJar, Collection<File> classpath, List<String> options) throws IOException
+    {
+        Map<String, byte[]> sources = readSources(sourceJar);
+
+        StringBuilder setup = new StringBuilder();
+        setup.append(VERSION).append('|').append(System.getProperty("java.version"));
+        setup.append('|').append(Joiner.on(' ').join(options));
+        for (File library : classpath)
+        {
+            setup.append('|').append(Joiner.on(',').useForNull("").join(Constants.hashAll(library)));
+        }
+        String setupHash = Constants.hash(setup.toString().getBytes(Constants.CHARSET), "SHA-1");
+
+        Map<String, String> newHashes = Maps.newTreeMap();
+        for (Map.Entry<String, byte[]> e : sources.entrySet())
+        {
+            newHashes.put(e.getKey(), Constants.hash(e.getValue(), "SHA-1"));
+        }
+
+        boolean full = !readState(setupHash) || !hashes.keySet().equals(newHashes.keySet());
+
+        // a failed compile leaves the classes half done, so forget them until the next compile succeeds.
+        stateFile.delete();
+
+        if (full)
+        {
+            compileAll(sources, classpath, options);
+        }
+        else
+        {
+            Set<String> changed = Sets.newTreeSet();
+            for (Map.Entry<String, String> e : newHashes.entrySet())
+            {
+                if (!e.getValue().equals(hashes.get(e.getKey())))
+                    changed.add(e.getKey());
+            }
+
+            if (!compileChanged(sources, changed, classpath, options))
+                compileAll(sources, classpath, options);
+        }
+
+        hashes.clear();
+        hashes.putAll(newHashes);
+        writeState(setupHash);
+    }
+
+    private void compileAll(Map<String, byte[]> sources, Collection<File> classpath, List<String> options) throws IOException
+    {
+        logger.lifecycle("Compiling all " + sources.size() + " sources");
+
+        deleteDir(classDir);
+        classDir.mkdirs();
+        classes.clear();
+
+        doCompile(sources, sources.keySet(), classpath, options);
+    }
+
+    /**
+     * @return FALSE if the changes could not be compiled on their own, and everything needs to be compiled
+     */
+    private boolean compileChanged(Map<String, byte[]> sources, Set<String> changed, Collection<File> classpath, List<String> options) throws IOException
+    {
+        Map<String, Outline> outlines = null;
+        int rounds = 0;
+
+        while (!changed.isEmpty())
+        {
+            if (++rounds > MAX_ROUNDS)
+                return false;
+
+            logger.lifecycle("Compiling " + changed.size() + " changed sources");
+
+            // the outlines of everything are only needed once a class actually changed its outline
+            Map<String, Outline> before = Maps.newHashMap();
+            for (String source : changed)
+            {
+                for (String cls : classes.get(source))
+                {
+                    Outline outline = outlines != null ? outlines.get(cls) : readOutline(cls);
+                    if (outline != null)
+                        before.put(cls, outline);
+                    new File(classDir, cls + ".class").delete();
+                }
+                classes.remove(source);
+            }
+
+            doCompile(sources, changed, classpath, options);
+
+            Set<String> changedClasses = Sets.newHashSet(before.keySet());
+            for (String source : changed)
+            {
+                for (String cls : classes.get(source))
+                {
+                    Outline outline = readOutline(cls);
+                    Outline old = before.get(cls);
+
+                    if (old != null && !old.constants.toString().equals(outline.constants.toString()))
+                        return false; // could be inlined anywhere
+
+                    if (old != null && old.api.toString().equals(outline.api.toString()))
+                        changedClasses.remove(cls);
+                    else
+                        changedClasses.add(cls);
+
+                    if (outlines != null)
+                        outlines.put(cls, outline);
+                }
+            }
+
+            for (String cls : changedClasses)
+            {
+                if (new File(classDir, cls + ".class").isFile())
+                    continue;
+
+                // removed, so its constants can't have been inlined anywhere that still compiles
+                if (before.get(cls).constants.length() > 0)
+                    return false;
+                if (outlines != null)
+                    outlines.remove(cls);
+            }
+
+            Set<String> next = Sets.newTreeSet();
+            if (!changedClasses.isEmpty())
+            {
+                if (outlines == null)
+                    outlines = readAllOutlines();
+
+                // subclasses inherit the changes
+                boolean grew = true;
+                while (grew)
+                {
+                    grew = false;
+                    for (Map.Entry<String, Outline> e : outlines.entrySet())
+                    {
+                        if (changedClasses.contains(e.getKey()))
+                            continue;
+                        for (String parent : e.getValue().parents)
+                        {
+                            if (changedClasses.contains(parent))
+                            {
+                                changedClasses.add(e.getKey());
+                                grew = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                for (Map.Entry<String, List<String>> e : classes.entrySet())
+                {
+                    if (changed.contains(e.getKey()))
+                        continue;
+
+                    for (String cls : e.getValue())
+                    {
+                        Outline outline = outlines.get(cls);
+                        if (outline != null && !Collections.disjoint(outline.references, changedClasses))
+                        {
+                            next.add(e.getKey());
+                            break;
+                        }
+                    }
+                }
+            }
+
+            changed = next;
+        }
+
+        return true;
+    }
+
+    private void doCompile(final Map<String, byte[]> sources, Collection<String> paths, Collection<File> classpath, List<String> options) throws IOException
+    {
+        final List<String> errors = Lists.newArrayList();
+        DiagnosticListener<JavaFileObject> listener = new DiagnosticListener<JavaFileObject>() {
+            @Override
+            public void report(Diagnostic<? extends JavaFileObject> diagnostic)
+            {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                {
+                    logger.error(diagnostic.toString());
+                    errors.add(diagnostic.toString());
+                }
+                else
+                {
+                    logger.info(diagnostic.toString());
+                }
+            }
+        };
+
+        StandardJavaFileManager standard = compiler.getStandardFileManager(listener, null, Constants.CHARSET);
+        try
+        {
+            List<File> fullClasspath = Lists.newArrayList(classpath);
+            fullClasspath.add(classDir);
+            standard.setLocation(StandardLocation.CLASS_PATH, fullClasspath);
+            standard.setLocation(StandardLocation.SOURCE_PATH, Collections.<File> emptyList());
+            standard.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(classDir));
+
+            List<Source> units = Lists.newArrayListWithCapacity(paths.size());
+            for (String path : paths)
+            {
+                units.add(new Source(path, sources.get(path)));
+                classes.put(path, Lists.<String> newArrayList());
+            }
+
+            List<String> allOptions = Lists.newArrayList(options);
+            allOptions.add("-implicit:none");
+
+            boolean success = compiler.getTask(null, new Recorder(standard), listener, allOptions, null, units).call();
+            if (!success || !errors.isEmpty())
+                throw new RuntimeException("Recompiling failed with " + errors.size() + " errors, see the log for details");
+        }
+        finally
+        {
+            standard.close();
+        }
+    }
+
+    private static Map<String, byte[]> readSources(File sourceJar) throws IOException
+    {
+        Map<String, byte[]> sources = new TreeMap<String, byte[]>();
+
+        ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(sourceJar)));
+        try
+        {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null)
+            {
+                if (entry.isDirectory() || !entry.getName().endsWith(".java"))
+                    continue;
+
+                sources.put(entry.getName(), ByteStreams.toByteArray(zin));
+            }
+        }
+        finally
+        {
+            zin.close();
+        }
+
+        return sources;
+    }
+
+    private boolean readState(String setupHash)
+    {
+        hashes.clear();
+        classes.clear();
+
+        if (!stateFile.isFile() || !classDir.isDirectory())
+            return false;
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+            try
+            {
+                if (!setupHash.equals(in.readUTF()))
+                    return false;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++)
+                {
+                    String path = in.readUTF();
+                    hashes.put(path, in.readUTF());
+
+                    int classCount = in.readInt();
+                    List<String> names = Lists.newArrayListWithCapacity(classCount);
+                    for (int j = 0; j < classCount; j++)
+                    {
+                        names.add(in.readUTF());
+                    }
+                    classes.put(path, names);
+                }
+                return true;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.debug("Could not read " + stateFile + ", compiling everything", e);
+            hashes.clear();
+            classes.clear();
+            return false;
+        }
+    }
+
+    private void writeState(final String setupHash) throws IOException
+    {
+        CacheFiles.write(stateFile, new CacheFiles.Contents() {
+            @Override
+            public void write(OutputStream stream) throws IOException
+            {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeUTF(setupHash);
+                out.writeInt(hashes.size());
+                for (Map.Entry<String, String> e : hashes.entrySet())
+                {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue());
+
+                    List<String> names = classes.get(e.getKey());
+                    out.writeInt(names.size());
+                    for (String name : names)
+                    {
+                        out.writeUTF(name);
+                    }
+                }
+                out.flush();
+            }
+        });
+    }
+
+    private Map<String, Outline> readAllOutlines() throws IOException
+    {
+        Map<String, Outline> outlines = Maps.newHashMap();
+        for (List<String> names : classes.values())
+        {
+            for (String cls : names)
+            {
+                Outline outline = readOutline(cls);
+                if (outline != null)
+                    outlines.put(cls, outline);
+            }
+        }
+        return outlines;
+    }
+
+    private Outline readOutline(String cls) throws IOException
+    {
+        File file = new File(classDir, cls + ".class");
+        if (!file.isFile())
+            return null;
+
+        byte[] data = Files.toByteArray(file);
+        Outline outline = new Outline();
+        new ClassReader(data).accept(outline, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        outline.readReferences(data);
+        return outline;
+    }
+
+    private static void deleteDir(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (f.isDirectory())
+                    deleteDir(f);
+                else
+                    f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * A source file from the jar.
+     */
+    private static final class Source extends SimpleJavaFileObject
+    {
+        private final String path;
+        private final byte[] data;
+
+        Source(String path, byte[] data)
+        {
+            super(URI.create("jar:///" + path), Kind.SOURCE);
+            this.path = path;
+            this.data = data;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors)
+        {
+            return new String(data, Constants.CHARSET);
+        }
+
+        @Override
+        public InputStream openInputStream()
+        {
+            return new ByteArrayInputStream(data);
+        }
+    }
+
+    /**
+     * Writes the classes like the standard file manager, and remembers which source they came from.
+     */
+    private final class Recorder extends ForwardingJavaFileManager<JavaFileManager>
+    {
+        Recorder(JavaFileManager fileManager)
+        {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException
+        {
+            if (kind == JavaFileObject.Kind.CLASS && sibling instanceof Source)
+                classes.get(((Source) sibling).path).add(className.replace('.', '/'));
+
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+    }
+
+    /**
+     * What other classes see of a class, and what it uses of them.
+     */
+    private static final class Outline extends ClassVisitor
+    {
+        private final StringBuilder api        = new StringBuilder();
+        private final StringBuilder constants  = new StringBuilder();
+        private final Set<String>   parents    = Sets.newHashSet();
+        private final Set<String>   references = Sets.newHashSet();
+
+        Outline()
+        {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces)
+        {
+            api.append(access).append(' ').append(name).append(' ').append(signature).append(' ').append(superName);
+            if (superName != null)
+                parents.add(superName);
+            for (String iface : interfaces)
+            {
+                api.append(' ').append(iface);
+                parents.add(iface);
+            }
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access)
+        {
+            api.append("\ninner ").append(access).append(' ').append(name).append(' ').append(outerName).append(' ').append(innerName);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            api.append("\nfield ").append(access).append(' ').append(name).append(' ').append(desc).append(' ').append(signature);
+            if (value != null)
+                constants.append(name).append('=').append(value).append('\n');
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+        {
+            api.append("\nmethod ").append(access).append(' ').append(name).append(' ').append(desc).append(' ').append(signature);
+            if (exceptions != null)
+                api.append(' ').append(Joiner.on(' ').join(exceptions));
+            return null;
+        }
+
+        /**
+         * Every class named in the constant pool, as a class or inside a descriptor or signature.
+         */
+        void readReferences(byte[] data) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipBytes(8); // magic and version
+
+            int count = in.readUnsignedShort();
+            String[] utf = new String[count];
+            List<Integer> classRefs = Lists.newArrayList();
+            for (int i = 1; i < count; i++)
+            {
+                int tag = in.readUnsignedByte();
+                switch (tag)
+                {
+                    case 1: // Utf8
+                        utf[i] = in.readUTF();
+                        break;
+                    case 7: // Class
+                        classRefs.add(in.readUnsignedShort());
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        in.skipBytes(2);
+                        break;
+                    case 15: // MethodHandle
+                        in.skipBytes(3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        in.skipBytes(4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        in.skipBytes(8);
+                        i++;
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+
+            for (int index : classRefs)
+            {
+                if (utf[index] != null && !utf[index].startsWith("["))
+                    references.add(utf[index]);
+            }
+
+            for (String str : utf)
+            {
+                if (str == null || str.indexOf(';') < 0)
+                    continue;
+
+                Matcher m = TYPE.matcher(str);
+                while (m.find())
+                {
+                    references.add(m.group(1));
+                }
+            }
+        }
+    }
+}
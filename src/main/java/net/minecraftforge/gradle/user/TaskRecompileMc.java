@@ -24,6 +24,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.attribute.FileTime;
+import java.util.List;
 import java.util.Set;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
@@ -44,6 +45,7 @@ import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -64,6 +66,8 @@ public class TaskRecompileMc extends CachedTask
     @OutputFile
     private Object outJar;
 
+    private static final List<String> COMPILER_ARGS = ImmutableList.of("-source", "1.6", "-target", "1.6", "-g");
+
     @TaskAction
     public void doStuff() throws IOException
     {
@@ -71,9 +75,25 @@ public class TaskRecompileMc extends CachedTask
         File tempSrc = new File(getTemporaryDir(), "sources");
         File tempCls = new File(getTemporaryDir(), "compiled");
         File outJar = getOutJar();
+        File state = new File(getTemporaryDir(), "compiled.state");
+
+        // both compilers read the ext dirs from the system property
+        getExtPath();
+
+        if (IncrementalJavac.isAvailable())
+        {
+            // the classes stay in the temp dir, so the next run only compiles what changed
+            IncrementalJavac javac = new IncrementalJavac(tempCls, state, getLogger());
+            javac.compile(inJar, getProject().getConfigurations().getByName(classpath).getFiles(), COMPILER_ARGS);
 
+            outJar.getParentFile().mkdirs();
+            createOutput(outJar, inJar, tempCls, getInResources());
+            return;
+        }
+
+        // no compiler in this JVM, so let ant find one.
         // delete and recreate dirs
-        getProject().delete(tempSrc, tempCls);
+        getProject().delete(tempSrc, tempCls, state);
         tempSrc.mkdirs();
         tempCls.mkdirs();
 
@@ -81,7 +101,6 @@ public class TaskRecompileMc extends CachedTask
         extractSources(tempSrc, inJar);
 
         AntBuilder ant = CreateStartTask.setupAnt(this);
-        getExtPath();
         // recompile
         ant.invokeMethod("javac",
             ImmutableMap.builder()
@@ -105,6 +124,9 @@ public class TaskRecompileMc extends CachedTask
     private static String getExtPath()
     {
         String currentExtDirs = System.getProperty("java.ext.dirs");
+        if (currentExtDirs == null)
+            return null; // java 9+ has no ext dirs
+
         String newExtDirs = "";
         String[] parts = currentExtDirs.split(File.pathSeparator);
         if (parts.length > 0) {
@@ -31,9 +31,9 @@ import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import net.minecraftforge.gradle.util.mcp.MappingStore;
 
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
@@ -43,9 +43,6 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
 
-import au.com.bytecode.opencsv.CSVReader;
-
-import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 
 public class TaskSingleDeobfBin extends CachedTask
@@ -66,21 +63,10 @@ public class TaskSingleDeobfBin extends CachedTask
     @TaskAction
     public void doTask() throws IOException
     {
-        final Map<String, String> methods = Maps.newHashMap();
-        final Map<String, String> fields = Maps.newHashMap();
-
         // read CSV files
-        CSVReader reader = Constants.getReader(getMethodCsv());
-        for (String[] s : reader.readAll())
-        {
-            methods.put(s[0], s[1]);
-        }
-
-        reader = Constants.getReader(getFieldCsv());
-        for (String[] s : reader.readAll())
-        {
-            fields.put(s[0], s[1]);
-        }
+        File store = MappingStore.getStoreDir(getProject());
+        final Map<String, String> methods = MappingStore.read(getMethodCsv(), store).getNames();
+        final Map<String, String> fields = MappingStore.read(getFieldCsv(), store).getNames();
 
         // actually do the jar copy..
         File input = getInJar();
@@ -45,14 +45,13 @@ import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import groovy.lang.Closure;
-import net.md_5.specialsource.Jar;
 import net.md_5.specialsource.JarMapping;
-import net.md_5.specialsource.JarRemapper;
 import net.md_5.specialsource.provider.ClassLoaderProvider;
-import net.md_5.specialsource.provider.JarProvider;
-import net.md_5.specialsource.provider.JointProvider;
+import net.md_5.specialsource.provider.InheritanceProvider;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.ParallelJarRemapper;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.mcp.ReobfExceptor;
 
 /**
@@ -125,6 +124,8 @@ public class TaskSingleReobf extends DefaultTask
     private List<ReobfTransformer> preTransformers   = Lists.newArrayList();
     @Input
     private List<ReobfTransformer> postTransformers  = Lists.newArrayList();
+    @Internal
+    private int                    threads           = ParallelUtil.defaultThreads();
 
     public TaskSingleReobf()
     {
@@ -229,21 +230,13 @@ public class TaskSingleReobf extends DefaultTask
             mapping.loadMappings(f);
         }
 
-        // make remapper
-        JarRemapper remapper = new JarRemapper(null, mapping);
-
-        // load jar
-        Jar inputJar = Jar.init(input);
-
-        // ensure that inheritance provider is used
-        JointProvider inheritanceProviders = new JointProvider();
-        inheritanceProviders.add(new JarProvider(inputJar));
+        // classes outside the jar are looked up on the classpath
+        InheritanceProvider inheritance = null;
         if (classpath != null)
-            inheritanceProviders.add(new ClassLoaderProvider(new URLClassLoader(Constants.toUrls(classpath))));
-        mapping.setFallbackInheritanceProvider(inheritanceProviders);
+            inheritance = new ClassLoaderProvider(new URLClassLoader(Constants.toUrls(classpath)));
 
         // remap jar
-        remapper.remapJar(inputJar, output);
+        new ParallelJarRemapper(mapping, null, getThreads()).remapJar(input, output, inheritance);
     }
 
     private void applyExtraTransformers(File inJar, File outJar, List<ReobfTransformer> transformers) throws IOException
@@ -311,6 +304,19 @@ public class TaskSingleReobf extends DefaultTask
         this.classpath = classpath;
     }
 
+    /**
+     * @return how many classes are reobfuscated at once
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
     // SRG STUFF
     // --------------------------------------------
 
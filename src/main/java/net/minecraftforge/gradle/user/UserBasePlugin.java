@@ -29,6 +29,7 @@ import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.tasks.*;
 import net.minecraftforge.gradle.user.ReobfTaskFactory.ReobfTaskWrapper;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.ParallelUtil;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
 import org.gradle.api.*;
 import org.gradle.api.artifacts.*;
@@ -302,6 +303,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
             postDecomp.setOutJar(postDecompJar);
             postDecomp.setPatches(mcpPatchSet);
             postDecomp.setAstyleConfig(delayedFile(MCP_DATA_STYLE));
+            postDecomp.setThreads(ParallelUtil.defaultThreads());
             postDecomp.dependsOn(decompile);
         }
 
@@ -312,6 +314,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
             remap.setFieldsCsv(delayedFile(CSV_FIELD));
             remap.setMethodsCsv(delayedFile(CSV_METHOD));
             remap.setParamsCsv(delayedFile(CSV_PARAM));
+            remap.setThreads(ParallelUtil.defaultThreads());
             remap.dependsOn(postDecomp);
         }
 
@@ -661,6 +664,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
                 remap.setFieldsCsv(delayedFile(CSV_FIELD));
                 remap.setMethodsCsv(delayedFile(CSV_METHOD));
                 remap.setParamsCsv(delayedFile(CSV_PARAM));
+                remap.setThreads(ParallelUtil.defaultThreads());
                 remap.dependsOn(TASK_EXTRACT_MAPPINGS);
                 dummyTask.dependsOn(remap);
                 break;
@@ -737,6 +741,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
                 retromap.addExc(delayedFile(EXC_MCP));
                 retromap.addExc(delayedFile(EXC_SRG));
                 retromap.setRangeMap(rangeMap);
+                retromap.setThreads(ParallelUtil.defaultThreads());
                 retromap.dependsOn(TASK_GENERATE_SRGS, extractRangemap);
 
                 // TODO: add replacing extract task
@@ -766,6 +771,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
                 retromap.addExc(delayedFile(EXC_MCP));
                 retromap.addExc(delayedFile(EXC_SRG));
                 retromap.setRangeMap(rangeMap);
+                retromap.setThreads(ParallelUtil.defaultThreads());
                 retromap.dependsOn(TASK_GENERATE_SRGS, extractRangemap2);
             }
         };
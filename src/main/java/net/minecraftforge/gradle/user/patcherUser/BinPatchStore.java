@@ -0,0 +1,224 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user.patcherUser;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.user.patcherUser.TaskApplyBinPatches.ClassPatch;
+import net.minecraftforge.gradle.util.binpatch.BinPatchCodecs;
+import net.minecraftforge.gradle.util.binpatch.BinPatchCodec.EntryVisitor;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * The merged binpatches of a binpatch archive, decoded once and kept on disk so they can be read one at a time.
+ * Archives have to be decoded as a whole, which takes a while for the legacy LZMA compressed pack200 ones, so the
+ * decoded patches are stored under the hash of the archive and reused until the archive changes.
+ * <p>
+ * The store file holds the raw patch entries back to back, followed by an index of the class each patch
+ * applies to, and where its entry is. Patches may be read from several threads at once.
+ */
+class BinPatchStore implements Closeable
+{
+    private static final int     MAGIC  = 0x42505331; // BPS1
+    private static final Pattern MERGED = Pattern.compile("binpatch/merged/.*.binpatch");
+
+    private final RandomAccessFile   file;
+    private final FileChannel        channel;
+    private final Map<String, int[]> index;
+
+    private BinPatchStore(File store) throws IOException
+    {
+        file = new RandomAccessFile(store, "r");
+        channel = file.getChannel();
+
+        try
+        {
+            if (file.length() < 8 || file.readInt() != MAGIC)
+                throw new IOException("Not a binpatch store: " + store);
+
+            file.seek(file.length() - 4);
+            int indexStart = file.readInt();
+
+            byte[] indexData = new byte[(int) file.length() - 4 - indexStart];
+            file.seek(indexStart);
+            file.readFully(indexData);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexData));
+            int count = in.readInt();
+            index = Maps.newHashMapWithExpectedSize(count);
+            for (int i = 0; i < count; i++)
+            {
+                String name = in.readUTF();
+                index.put(name, new int[] { in.readInt(), in.readInt() });
+            }
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the store for the given archive, decoding the archive first if it was not decoded before.
+     * @param patches the binpatch archive
+     * @param storeDir the folder stores are kept in
+     * @return the store, which must be closed
+     * @throws IOException if the archive could not be decoded or the store could not be read
+     */
+    public static BinPatchStore open(File patches, File storeDir) throws IOException
+    {
+        File store = new File(storeDir, Constants.hash(patches, "SHA-1") + ".bps");
+
+        if (store.isFile())
+        {
+            try
+            {
+                BinPatchStore opened = new BinPatchStore(store);
+                CacheFiles.touch(store);
+                return opened;
+            }
+            catch (IOException e)
+            {
+                // broken somehow, just decode it again.
+                store.delete();
+            }
+        }
+
+        build(patches, store);
+        return new BinPatchStore(store);
+    }
+
+    private static void build(final File patches, File store) throws IOException
+    {
+        try
+        {
+            CacheFiles.write(store, new CacheFiles.Contents() {
+                @Override
+                public void write(OutputStream stream) throws IOException
+                {
+                    final Map<String, int[]> index = Maps.newLinkedHashMap();
+                    final DataOutputStream out = new DataOutputStream(stream);
+                    out.writeInt(MAGIC);
+
+                    BinPatchCodecs.read(patches, new EntryVisitor() {
+                        @Override
+                        public void visit(String name, byte[] data) throws IOException
+                        {
+                            if (!MERGED.matcher(name).matches())
+                                return;
+
+                            ByteArrayDataInput header = ByteStreams.newDataInput(data);
+                            header.readUTF(); // name
+                            String sourceClassName = header.readUTF();
+
+                            index.put(sourceClassName.replace('.', '/') + ".class", new int[] { out.size(), data.length });
+                            out.write(data);
+                        }
+                    });
+
+                    int indexStart = out.size();
+                    out.writeInt(index.size());
+                    for (Map.Entry<String, int[]> e : index.entrySet())
+                    {
+                        out.writeUTF(e.getKey());
+                        out.writeInt(e.getValue()[0]);
+                        out.writeInt(e.getValue()[1]);
+                    }
+                    out.writeInt(indexStart);
+                    out.flush();
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            // another build may have finished the same store in the meantime, thats fine.
+            if (!store.isFile())
+                throw e;
+        }
+    }
+
+    /**
+     * @return the number of patches in the store
+     */
+    public int size()
+    {
+        return index.size();
+    }
+
+    /**
+     * @param name the class file name, like net/minecraft/block/Block.class
+     * @return the patch for the class, or NULL if it is not patched
+     * @throws IOException if the patch could not be read
+     */
+    public ClassPatch get(String name) throws IOException
+    {
+        int[] pos = index.get(name);
+        if (pos == null)
+            return null;
+
+        ByteBuffer buffer = ByteBuffer.allocate(pos[1]);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, pos[0] + buffer.position()) < 0)
+                throw new EOFException("Truncated binpatch store");
+        }
+
+        ByteArrayDataInput input = ByteStreams.newDataInput(buffer.array());
+
+        String patchName = input.readUTF();
+        String sourceClassName = input.readUTF();
+        String targetClassName = input.readUTF();
+        boolean exists = input.readBoolean();
+        int inputChecksum = 0;
+        if (exists)
+        {
+            inputChecksum = input.readInt();
+        }
+        int patchLength = input.readInt();
+        byte[] patchBytes = new byte[patchLength];
+        input.readFully(patchBytes);
+
+        return new ClassPatch(patchName, sourceClassName, targetClassName, exists, inputChecksum, patchBytes);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
@@ -19,19 +19,18 @@
  */
 package net.minecraftforge.gradle.user.patcherUser;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
-import com.google.common.collect.Maps;
-import com.google.common.io.ByteArrayDataInput;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.nothome.delta.GDiffPatcher;
-import lzma.sdk.lzma.Decoder;
-import lzma.streams.LzmaInputStream;
+import net.minecraftforge.gradle.util.ParallelUtil;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import org.gradle.api.file.FileVisitDetails;
 import org.gradle.api.file.FileVisitor;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
@@ -39,17 +38,15 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.attribute.FileTime;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
-import java.util.jar.Pack200;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.zip.*;
 
 public class TaskApplyBinPatches extends CachedTask
 {
+    private static final int IN_FLIGHT = 256;
+
     //@formatter:off
     @InputFile  Object inJar;
     @InputFile  Object classJar;
@@ -61,20 +58,34 @@ public class TaskApplyBinPatches extends CachedTask
     @Cached
     Object                              outJar;
 
-    private HashMap<String, ClassPatch> patchlist = Maps.newHashMap();
-    private GDiffPatcher                patcher   = new GDiffPatcher();
+    @Internal
+    Object                              patchStore;
+
+    @Internal
+    private int                         threads   = ParallelUtil.defaultThreads();
+
+    // GDiffPatcher keeps its buffers in fields, so every worker gets its own.
+    private static final ThreadLocal<GDiffPatcher> PATCHER = new ThreadLocal<GDiffPatcher>() {
+        @Override
+        protected GDiffPatcher initialValue()
+        {
+            return new GDiffPatcher();
+        }
+    };
 
     @TaskAction
     public void doTask() throws IOException
     {
-        setup();
-
         if (getOutJar().exists())
         {
             getOutJar().delete();
         }
 
-        ZipFile in = new ZipFile(getInJar());
+        final BinPatchStore store = BinPatchStore.open(getPatches(), getPatchStore());
+        CacheFiles.trim(getProject(), getPatchStore());
+        log("Read %d binary patches", store.size());
+
+        final ZipFile in = new ZipFile(getInJar());
         ZipInputStream classesIn = new ZipInputStream(Files.newInputStream(getClassJar().toPath()));
         final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(getOutJar().toPath())));
         final HashSet<String> entries = new HashSet<String>();
@@ -83,49 +94,50 @@ public class TaskApplyBinPatches extends CachedTask
         {
             // DO PATCHES
             log("Patching Class:");
-            for (ZipEntry e : Collections.list(in.entries()))
+            List<Callable<PatchedEntry>> jobs = Lists.newArrayList();
+            for (final ZipEntry e : Collections.list(in.entries()))
             {
                 if (e.getName().contains("META-INF"))
                     continue;
 
-                if (e.isDirectory())
-                {
-                    e.setLastAccessTime(FileTime.fromMillis(0L));
-                    e.setLastModifiedTime(FileTime.fromMillis(0L));
-                    e.setCreationTime(FileTime.fromMillis(0L));
-                    out.putNextEntry(e);
-                }
-                else
-                {
-                    ZipEntry n = new ZipEntry(e.getName());
-                    n.setLastAccessTime(FileTime.fromMillis(0L));
-                    n.setLastModifiedTime(FileTime.fromMillis(0L));
-                    n.setCreationTime(FileTime.fromMillis(0L));
-                    out.putNextEntry(n);
+                jobs.add(new Callable<PatchedEntry>() {
+                    @Override
+                    public PatchedEntry call() throws IOException
+                    {
+                        if (e.isDirectory())
+                            return new PatchedEntry(e, null);
 
-                    byte[] data = ByteStreams.toByteArray(in.getInputStream(e));
-                    ClassPatch patch = patchlist.get(e.getName().replace('\\', '/'));
+                        return new PatchedEntry(e, patch(store, e.getName(), ByteStreams.toByteArray(in.getInputStream(e))));
+                    }
+                });
+            }
 
-                    if (patch != null)
+            ParallelUtil.runOrdered(getThreads(), IN_FLIGHT, jobs, new ParallelUtil.Sink<PatchedEntry>() {
+                @Override
+                public void accept(PatchedEntry patched) throws IOException
+                {
+                    ZipEntry e = patched.entry;
+                    if (patched.data == null)
                     {
-                        log("\t%s (%s) (input size %d)", patch.targetClassName, patch.sourceClassName, data.length);
-                        int inputChecksum = adlerHash(data);
-                        if (patch.inputChecksum != inputChecksum)
-                        {
-                            throw new RuntimeException(String.format("There is a binary discrepency between the expected input class %s (%s) and the actual class. Checksum on disk is %x, in patch %x. Things are probably about to go very wrong. Did you put something into the jar file?", patch.targetClassName, patch.sourceClassName, inputChecksum, patch.inputChecksum));
-                        }
-                        synchronized (patcher)
-                        {
-                            data = patcher.patch(data, patch.patch);
-                        }
+                        e.setLastAccessTime(FileTime.fromMillis(0L));
+                        e.setLastModifiedTime(FileTime.fromMillis(0L));
+                        e.setCreationTime(FileTime.fromMillis(0L));
+                        out.putNextEntry(e);
+                    }
+                    else
+                    {
+                        ZipEntry n = new ZipEntry(e.getName());
+                        n.setLastAccessTime(FileTime.fromMillis(0L));
+                        n.setLastModifiedTime(FileTime.fromMillis(0L));
+                        n.setCreationTime(FileTime.fromMillis(0L));
+                        out.putNextEntry(n);
+                        out.write(patched.data);
                     }
 
-                    out.write(data);
+                    // add the names to the hashset
+                    entries.add(e.getName());
                 }
-
-                // add the names to the hashset
-                entries.add(e.getName());
-            }
+            });
 
             // COPY DATA
             ZipEntry entry = null;
@@ -179,81 +191,43 @@ public class TaskApplyBinPatches extends CachedTask
             classesIn.close();
             in.close();
             out.close();
+            store.close();
         }
     }
 
-    private int adlerHash(byte[] input)
-    {
-        Adler32 hasher = new Adler32();
-        hasher.update(input);
-        return (int) hasher.getValue();
-    }
-
-    public void setup()
+    private byte[] patch(BinPatchStore store, String name, byte[] data) throws IOException
     {
-        Pattern matcher = Pattern.compile("binpatch/merged/.*.binpatch");
+        ClassPatch patch = store.get(name.replace('\\', '/'));
+        if (patch == null)
+            return data;
 
-        JarInputStream jis;
-        try
-        {
-            LzmaInputStream binpatchesDecompressed = new LzmaInputStream(new FileInputStream(getPatches()), new Decoder());
-            ByteArrayOutputStream jarBytes = new ByteArrayOutputStream();
-            JarOutputStream jos = new JarOutputStream(jarBytes);
-            Pack200.newUnpacker().unpack(binpatchesDecompressed, jos);
-            jis = new JarInputStream(new ByteArrayInputStream(jarBytes.toByteArray()));
-        }
-        catch (Exception e)
+        log("\t%s (%s) (input size %d)", patch.targetClassName, patch.sourceClassName, data.length);
+        int inputChecksum = adlerHash(data);
+        if (patch.inputChecksum != inputChecksum)
         {
-            throw Throwables.propagate(e);
+            throw new RuntimeException(String.format("There is a binary discrepency between the expected input class %s (%s) and the actual class. Checksum on disk is %x, in patch %x. Things are probably about to go very wrong. Did you put something into the jar file?", patch.targetClassName, patch.sourceClassName, inputChecksum, patch.inputChecksum));
         }
 
-        log("Reading Patches:");
-        do
-        {
-            try
-            {
-                JarEntry entry = jis.getNextJarEntry();
-                if (entry == null)
-                {
-                    break;
-                }
-
-                if (matcher.matcher(entry.getName()).matches())
-                {
-                    ClassPatch cp = readPatch(entry, jis);
-                    patchlist.put(cp.sourceClassName.replace('.', '/') + ".class", cp);
-                }
-                else
-                {
-                    jis.closeEntry();
-                }
-            }
-            catch (IOException e)
-            {}
-        } while (true);
-        log("Read %d binary patches", patchlist.size());
-        log("Patch list :\n\t%s", Joiner.on("\n\t").join(patchlist.entrySet()));
+        return PATCHER.get().patch(data, patch.patch);
     }
 
-    private ClassPatch readPatch(JarEntry patchEntry, JarInputStream jis) throws IOException
+    private static class PatchedEntry
     {
-        log("\t%s", patchEntry.getName());
-        ByteArrayDataInput input = ByteStreams.newDataInput(ByteStreams.toByteArray(jis));
-
-        String name = input.readUTF();
-        String sourceClassName = input.readUTF();
-        String targetClassName = input.readUTF();
-        boolean exists = input.readBoolean();
-        int inputChecksum = 0;
-        if (exists)
+        final ZipEntry entry;
+        final byte[]   data;
+
+        PatchedEntry(ZipEntry entry, byte[] data)
         {
-            inputChecksum = input.readInt();
+            this.entry = entry;
+            this.data = data;
         }
-        int patchLength = input.readInt();
-        byte[] patchBytes = new byte[patchLength];
-        input.readFully(patchBytes);
+    }
 
-        return new ClassPatch(name, sourceClassName, targetClassName, exists, inputChecksum, patchBytes);
+    private int adlerHash(byte[] input)
+    {
+        Adler32 hasher = new Adler32();
+        hasher.update(input);
+        return (int) hasher.getValue();
     }
 
     private void log(String format, Object... args)
@@ -291,6 +265,33 @@ public class TaskApplyBinPatches extends CachedTask
         this.patches = patchesJar;
     }
 
+    /**
+     * @return the folder decoded binpatch archives are kept in
+     */
+    public File getPatchStore()
+    {
+        File storeDir = CacheFiles.getCacheDir(getProject(), patchStore, "binpatches");
+        return storeDir == null ? getTemporaryDir() : storeDir;
+    }
+
+    /**
+     * @param patchStore the folder to keep decoded binpatch archives in, or FALSE to decode them into the task's temporary folder
+     */
+    public void setPatchStore(Object patchStore)
+    {
+        this.patchStore = patchStore;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
     public File getClassJar()
     {
         return getProject().file(classJar);
@@ -0,0 +1,79 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+
+import net.minecraftforge.srg2source.util.io.InputSupplier;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Lists only some of the files of another supplier, but still reads any of them.
+ * Closing it does nothing, the other supplier is closed by whoever made it.
+ */
+public class FilteredInputSupplier implements InputSupplier
+{
+    private final InputSupplier      delegate;
+    private final Collection<String> files;
+
+    /**
+     * @param delegate the supplier to read from
+     * @param files the paths to list, as the delegate gives them
+     */
+    public FilteredInputSupplier(InputSupplier delegate, Collection<String> files)
+    {
+        this.delegate = delegate;
+        this.files = files;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        // not ours to close
+    }
+
+    @Override
+    public String getRoot(String resource)
+    {
+        return delegate.getRoot(resource);
+    }
+
+    @Override
+    public InputStream getInput(String relPath)
+    {
+        return delegate.getInput(relPath);
+    }
+
+    @Override
+    public List<String> gatherAll(String endFilter)
+    {
+        List<String> out = Lists.newArrayList();
+        for (String path : delegate.gatherAll(endFilter))
+        {
+            if (files.contains(path))
+                out.add(path);
+        }
+        return out;
+    }
+}
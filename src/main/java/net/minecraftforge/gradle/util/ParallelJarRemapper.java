@@ -0,0 +1,279 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import net.md_5.specialsource.AccessMap;
+import net.md_5.specialsource.InheritanceMap;
+import net.md_5.specialsource.Jar;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.RemappingClassAdapter;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.md_5.specialsource.repo.ClassRepo;
+import net.md_5.specialsource.repo.JarRepo;
+
+/**
+ * Remaps a jar the same way SpecialSource's {@link JarRemapper#remapJar(Jar, File)} does, but several classes at a time.
+ * The inheritance of every class in the jar is read up front from the class headers, so the workers only ever
+ * read the mapping. Access transformers are applied to the remapped class before it is written, instead of in
+ * a second read and write of every class. Entries are written in the order of the input jar with zeroed timestamps.
+ */
+public class ParallelJarRemapper
+{
+    private static final int IN_FLIGHT = 256;
+
+    private final JarMapping mapping;
+    private final AccessMap  accessMap;
+    private final int        threads;
+
+    /**
+     * @param mapping the mapping to apply
+     * @param accessMap access changes to apply after remapping, may be NULL
+     * @param threads how many classes are remapped at once
+     */
+    public ParallelJarRemapper(JarMapping mapping, AccessMap accessMap, int threads)
+    {
+        this.mapping = mapping;
+        this.accessMap = accessMap;
+        this.threads = threads;
+    }
+
+    /**
+     * @param inJar jar to remap
+     * @param outJar where to write the remapped jar
+     * @param classpath used to find the parents of classes outside the jar, may be NULL
+     * @throws IOException if either jar could not be read or written
+     */
+    public void remapJar(File inJar, File outJar, InheritanceProvider classpath) throws IOException
+    {
+        List<String> names = Lists.newArrayList();
+        List<byte[]> contents = Lists.newArrayList();
+
+        ZipFile zip = new ZipFile(inJar);
+        try
+        {
+            for (ZipEntry entry : Collections.list(zip.entries()))
+            {
+                names.add(entry.getName());
+                InputStream stream = zip.getInputStream(entry);
+                try
+                {
+                    contents.add(ByteStreams.toByteArray(stream));
+                }
+                finally
+                {
+                    stream.close();
+                }
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        // the parents of everything in the jar, from the class headers alone
+        SharedInheritanceMap inheritance = new SharedInheritanceMap();
+        for (int i = 0; i < names.size(); i++)
+        {
+            String name = names.get(i);
+            if (!name.endsWith(".class"))
+                continue;
+
+            ClassReader reader = new ClassReader(contents.get(i));
+            List<String> parents = Lists.newArrayList(reader.getInterfaces());
+            if (reader.getSuperName() != null)
+                parents.add(reader.getSuperName());
+
+            inheritance.setParents(name.substring(0, name.length() - ".class".length()), parents);
+        }
+        mapping.setInheritanceMap(inheritance);
+        mapping.setFallbackInheritanceProvider(classpath);
+
+        final JarRemapper remapper = new JarRemapper(null, mapping, null);
+        final Jar jar = Jar.init(inJar);
+        final ClassRepo repo = new JarRepo(jar);
+
+        List<Callable<JarEntryData>> jobs = Lists.newArrayListWithCapacity(names.size());
+        for (int i = 0; i < names.size(); i++)
+        {
+            final String name = names.get(i);
+            final byte[] data = contents.get(i);
+
+            if (name.endsWith(".class"))
+            {
+                jobs.add(new Callable<JarEntryData>() {
+                    @Override
+                    public JarEntryData call()
+                    {
+                        return remapClass(remapper, repo, name, data);
+                    }
+                });
+            }
+            else if (!name.endsWith(".DSA") && !name.endsWith(".SF"))
+            {
+                // signatures would not match anymore
+                jobs.add(new Callable<JarEntryData>() {
+                    @Override
+                    public JarEntryData call()
+                    {
+                        return new JarEntryData(name, data);
+                    }
+                });
+            }
+        }
+
+        final JarOutputStream out = new JarOutputStream(Files.newOutputStream(outJar.toPath()));
+        try
+        {
+            ParallelUtil.runOrdered(threads, IN_FLIGHT, jobs, new ParallelUtil.Sink<JarEntryData>() {
+                @Override
+                public void accept(JarEntryData entry) throws IOException
+                {
+                    JarEntry newEntry = new JarEntry(entry.name);
+                    newEntry.setCreationTime(FileTime.fromMillis(0L));
+                    newEntry.setLastAccessTime(FileTime.fromMillis(0L));
+                    newEntry.setLastModifiedTime(FileTime.fromMillis(0L));
+                    out.putNextEntry(newEntry);
+                    out.write(entry.data);
+                }
+            });
+        }
+        finally
+        {
+            out.close();
+            jar.close();
+        }
+    }
+
+    private JarEntryData remapClass(JarRemapper remapper, ClassRepo repo, String name, byte[] data)
+    {
+        ClassReader reader = new ClassReader(data);
+        ClassNode node = new ClassNode();
+        reader.accept(new RemappingClassAdapter(node, remapper, repo), 0);
+
+        if (accessMap != null)
+        {
+            // the access map remembers what it applied, and that bookkeeping isnt thread safe.
+            synchronized (accessMap)
+            {
+                applyAccess(node);
+            }
+        }
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+
+        String className = name.substring(0, name.length() - ".class".length());
+        return new JarEntryData(remapper.map(className) + ".class", writer.toByteArray());
+    }
+
+    private void applyAccess(ClassNode node)
+    {
+        node.access = accessMap.applyClassAccess(node.name, node.access);
+
+        for (InnerClassNode inner : node.innerClasses)
+        {
+            inner.access = accessMap.applyClassAccess(inner.name, inner.access);
+        }
+
+        for (FieldNode field : node.fields)
+        {
+            field.access = accessMap.applyFieldAccess(node.name, field.name, field.access);
+        }
+
+        for (MethodNode method : node.methods)
+        {
+            method.access = accessMap.applyMethodAccess(node.name, method.name, method.desc, method.access);
+        }
+    }
+
+    private static class JarEntryData
+    {
+        final String name;
+        final byte[] data;
+
+        JarEntryData(String name, byte[] data)
+        {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * An inheritance map the workers can share. The mapping still adds the parents of classpath classes
+     * as it climbs into them.
+     */
+    private static class SharedInheritanceMap extends InheritanceMap
+    {
+        private final Map<String, List<String>> parents = new ConcurrentHashMap<String, List<String>>();
+
+        @Override
+        public boolean hasParents(String className)
+        {
+            return parents.containsKey(className);
+        }
+
+        @Override
+        public List<String> getParents(String className)
+        {
+            return parents.get(className);
+        }
+
+        @Override
+        public void setParents(String className, Collection<String> parents)
+        {
+            // a class nothing knows about has no parents to climb into
+            this.parents.put(className, parents == null ? Collections.<String> emptyList() : new ArrayList<String>(parents));
+        }
+
+        @Override
+        public int size()
+        {
+            return parents.size();
+        }
+    }
+}
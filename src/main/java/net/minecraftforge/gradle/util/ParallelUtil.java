@@ -0,0 +1,163 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Small helpers shared by the tasks that can spread their work over several threads.
+ */
+public final class ParallelUtil
+{
+    private ParallelUtil()
+    {
+    }
+
+    /**
+     * @return the number of worker threads tasks use unless told otherwise
+     */
+    public static int defaultThreads()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs all the jobs on a fixed pool of the given size and waits for them.
+     * The first failure is rethrown on the calling thread, and the remaining jobs are cancelled.
+     * @param threads maximum number of jobs running at once
+     * @param jobs the work to run
+     * @param <T> result type
+     * @return the results, in the same order as the jobs
+     * @throws IOException if any job threw one
+     */
+    public static <T> List<T> invokeAll(int threads, List<? extends Callable<T>> jobs) throws IOException
+    {
+        List<T> results = Lists.newArrayListWithCapacity(jobs.size());
+
+        if (jobs.isEmpty())
+            return results;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+        try
+        {
+            List<Future<T>> futures = Lists.newArrayListWithCapacity(jobs.size());
+            for (Callable<T> job : jobs)
+            {
+                futures.add(executor.submit(job));
+            }
+
+            for (Future<T> future : futures)
+            {
+                results.add(getResult(future));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs the jobs on a fixed pool of the given size and hands every result to the sink on the calling thread,
+     * in the order of the jobs. At most {@code window} results are waiting to be handed on at any time,
+     * so the whole output never has to sit in memory.
+     * @param threads maximum number of jobs running at once
+     * @param window maximum number of jobs submitted but not yet handed to the sink
+     * @param jobs the work to run
+     * @param sink receives the results in order
+     * @param <T> result type
+     * @throws IOException if any job or the sink threw one
+     */
+    public static <T> void runOrdered(int threads, int window, Iterable<? extends Callable<T>> jobs, Sink<T> sink) throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try
+        {
+            Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+            window = Math.max(window, threads);
+
+            for (Callable<T> job : jobs)
+            {
+                pending.add(executor.submit(job));
+
+                while (pending.size() >= window)
+                {
+                    sink.accept(getResult(pending.poll()));
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                sink.accept(getResult(pending.poll()));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Receives results from {@link ParallelUtil#runOrdered(int, int, Iterable, Sink)}.
+     * @param <T> result type
+     */
+    public interface Sink<T>
+    {
+        void accept(T result) throws IOException;
+    }
+
+    /**
+     * Waits for the future and unwraps whatever it failed with.
+     * @param future the future to wait on
+     * @param <T> result type
+     * @return the result of the future
+     * @throws IOException if the job threw one
+     */
+    public static <T> T getResult(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.binpatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * A way of packing the entries of a binpatch archive. Codecs only deal with the entries,
+ * the header that tells the readers which codec to use is written by {@link BinPatchCodecs}.
+ */
+public interface BinPatchCodec
+{
+    /**
+     * @return the name the codec is known by, and that is written to the archive header
+     */
+    String getName();
+
+    /**
+     * @param entries the entries of the archive by their path, written in iteration order
+     * @param out where to write the packed entries
+     * @throws IOException if writing fails
+     */
+    void write(Map<String, byte[]> entries, OutputStream out) throws IOException;
+
+    /**
+     * Reads the entries back in the order they were written.
+     * @param in the packed entries
+     * @param visitor gets every entry
+     * @throws IOException if reading fails or the visitor threw one
+     */
+    void read(InputStream in, EntryVisitor visitor) throws IOException;
+
+    interface EntryVisitor
+    {
+        void visit(String name, byte[] data) throws IOException;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.binpatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import net.minecraftforge.gradle.util.ParallelUtil;
+import net.minecraftforge.gradle.util.binpatch.BinPatchCodec.EntryVisitor;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+
+/**
+ * Finds codecs by name, and reads and writes binpatch archives with them.
+ * <p>
+ * Archives written with {@link #LEGACY} have no header at all. That is what FML reads at runtime, and what older
+ * ForgeGradle versions read from userdev. Every other codec writes {@link #MAGIC} and the codec name first,
+ * and readers use that to pick the codec. Anything without the header is read as {@link #LEGACY}.
+ */
+public final class BinPatchCodecs
+{
+    /** Pack200, then LZMA over the whole jar. Needs a JDK that still has Pack200. */
+    public static final String LEGACY  = Pack200LzmaCodec.NAME;
+    /** Blocks deflated in parallel. Fastest to write and read, somewhat bigger. */
+    public static final String DEFLATE = "deflate";
+    /** Blocks compressed with LZMA in parallel. Close to the legacy size, without Pack200. */
+    public static final String LZMA    = "lzma";
+
+    static final int           MAGIC   = 0x46474250; // FGBP
+
+    private BinPatchCodecs()
+    {
+    }
+
+    /**
+     * @param name the name of the codec
+     * @return the codec
+     * @throws IllegalArgumentException if there is no codec by that name
+     */
+    public static BinPatchCodec forName(String name)
+    {
+        if (LEGACY.equals(name))
+            return new Pack200LzmaCodec();
+        else if (DEFLATE.equals(name))
+            return new BlockCodec(DEFLATE, ParallelUtil.defaultThreads());
+        else if (LZMA.equals(name))
+            return new BlockCodec(LZMA, ParallelUtil.defaultThreads());
+
+        throw new IllegalArgumentException("Unknown binpatch codec: " + name);
+    }
+
+    /**
+     * Writes the archive with the named codec, and the header unless it is the legacy codec.
+     * @param codec name of the codec
+     * @param entries the entries of the archive by their path, written in iteration order
+     * @param archive file to write
+     * @throws IOException if writing fails
+     */
+    public static void write(String codec, Map<String, byte[]> entries, File archive) throws IOException
+    {
+        BinPatchCodec impl = forName(codec);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+        try
+        {
+            if (!LEGACY.equals(codec))
+            {
+                out.writeInt(MAGIC);
+                out.writeUTF(impl.getName());
+            }
+
+            impl.write(entries, out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads an archive written with any codec.
+     * @param archive file to read
+     * @param visitor gets every entry, in the order they were written
+     * @throws IOException if reading fails or the visitor threw one
+     */
+    public static void read(File archive, EntryVisitor visitor) throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(archive));
+        try
+        {
+            readCodec(in).read(in, visitor);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the header of an archive, if it has one.
+     * @param in the archive, which must support mark and reset. It is left at the start of the packed entries.
+     * @return the codec the archive was written with
+     * @throws IOException if reading fails
+     */
+    static BinPatchCodec readCodec(InputStream in) throws IOException
+    {
+        in.mark(4);
+
+        byte[] magic = new byte[4];
+        DataInputStream data = new DataInputStream(in);
+        if (ByteStreams.read(data, magic, 0, 4) == 4 && Ints.fromByteArray(magic) == MAGIC)
+        {
+            return forName(data.readUTF());
+        }
+
+        in.reset();
+        return new Pack200LzmaCodec();
+    }
+}
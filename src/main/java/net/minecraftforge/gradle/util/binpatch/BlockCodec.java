@@ -0,0 +1,231 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.binpatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import lzma.sdk.lzma.Decoder;
+import lzma.streams.LzmaInputStream;
+import lzma.streams.LzmaOutputStream;
+import net.minecraftforge.gradle.util.ParallelUtil;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Groups the entries into blocks of about {@link #BLOCK_SIZE} bytes and compresses every block on its own,
+ * so blocks can be compressed and decompressed on several threads at once.
+ * <p>
+ * The format is the number of blocks, then for every block its raw and compressed length and the compressed data.
+ * A raw block is a list of entries, each a UTF name, a length and the entry data.
+ */
+class BlockCodec implements BinPatchCodec
+{
+    static final int     BLOCK_SIZE = 1024 * 1024;
+
+    private final String name;
+    private final int    threads;
+
+    /**
+     * @param name {@link BinPatchCodecs#DEFLATE} or {@link BinPatchCodecs#LZMA}
+     * @param threads how many blocks are worked on at once
+     */
+    BlockCodec(String name, int threads)
+    {
+        this.name = name;
+        this.threads = threads;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void write(Map<String, byte[]> entries, OutputStream out) throws IOException
+    {
+        List<Compress> jobs = Lists.newArrayList();
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 64 * 1024);
+        DataOutputStream data = new DataOutputStream(block);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+        {
+            data.writeUTF(entry.getKey());
+            data.writeInt(entry.getValue().length);
+            data.write(entry.getValue());
+
+            if (block.size() >= BLOCK_SIZE)
+            {
+                jobs.add(new Compress(block.toByteArray()));
+                block.reset();
+            }
+        }
+        if (block.size() > 0)
+            jobs.add(new Compress(block.toByteArray()));
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(jobs.size());
+        List<byte[]> compressed = ParallelUtil.invokeAll(threads, jobs);
+        for (int i = 0; i < jobs.size(); i++)
+        {
+            dataOut.writeInt(jobs.get(i).raw.length);
+            dataOut.writeInt(compressed.get(i).length);
+            dataOut.write(compressed.get(i));
+        }
+        dataOut.flush();
+    }
+
+    @Override
+    public void read(InputStream in, final EntryVisitor visitor) throws IOException
+    {
+        DataInputStream dataIn = new DataInputStream(in);
+
+        int count = dataIn.readInt();
+        List<Callable<byte[]>> jobs = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++)
+        {
+            int rawLength = dataIn.readInt();
+            byte[] compressed = new byte[dataIn.readInt()];
+            dataIn.readFully(compressed);
+
+            jobs.add(new Decompress(compressed, rawLength));
+        }
+
+        ParallelUtil.runOrdered(threads, threads * 2, jobs, new ParallelUtil.Sink<byte[]>() {
+            @Override
+            public void accept(byte[] raw) throws IOException
+            {
+                DataInputStream block = new DataInputStream(new ByteArrayInputStream(raw));
+                while (block.available() > 0)
+                {
+                    String entry = block.readUTF();
+                    byte[] data = new byte[block.readInt()];
+                    block.readFully(data);
+                    visitor.visit(entry, data);
+                }
+            }
+        });
+    }
+
+    private class Compress implements Callable<byte[]>
+    {
+        private final byte[] raw;
+
+        Compress(byte[] raw)
+        {
+            this.raw = raw;
+        }
+
+        @Override
+        public byte[] call() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+
+            if (BinPatchCodecs.LZMA.equals(name))
+            {
+                OutputStream lzma = new LzmaOutputStream.Builder(out).useEndMarkerMode(true).build();
+                lzma.write(raw);
+                lzma.close();
+            }
+            else
+            {
+                Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+                deflater.setInput(raw);
+                deflater.finish();
+
+                byte[] buffer = new byte[64 * 1024];
+                while (!deflater.finished())
+                {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                deflater.end();
+            }
+
+            return out.toByteArray();
+        }
+    }
+
+    private class Decompress implements Callable<byte[]>
+    {
+        private final byte[] compressed;
+        private final int    rawLength;
+
+        Decompress(byte[] compressed, int rawLength)
+        {
+            this.compressed = compressed;
+            this.rawLength = rawLength;
+        }
+
+        @Override
+        public byte[] call() throws IOException
+        {
+            byte[] raw = new byte[rawLength];
+
+            if (BinPatchCodecs.LZMA.equals(name))
+            {
+                InputStream lzma = new LzmaInputStream(new ByteArrayInputStream(compressed), new Decoder());
+                ByteStreams.readFully(lzma, raw);
+                lzma.close();
+            }
+            else
+            {
+                Inflater inflater = new Inflater(true);
+                inflater.setInput(compressed);
+                try
+                {
+                    int read = 0;
+                    while (read < rawLength && !inflater.finished())
+                    {
+                        int n = inflater.inflate(raw, read, rawLength - read);
+                        if (n == 0 && inflater.needsInput())
+                            break;
+                        read += n;
+                    }
+
+                    if (read != rawLength)
+                        throw new IOException("Truncated binpatch block");
+                }
+                catch (DataFormatException e)
+                {
+                    throw new IOException("Corrupt binpatch block", e);
+                }
+                finally
+                {
+                    inflater.end();
+                }
+            }
+
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.binpatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Pack200;
+import java.util.jar.Pack200.Packer;
+
+import lzma.sdk.lzma.Decoder;
+import lzma.streams.LzmaInputStream;
+import lzma.streams.LzmaOutputStream;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * The original binpatch format: a jar of the entries, packed with Pack200 at effort 9, then compressed with LZMA.
+ * This is the only format FML can read at runtime.
+ */
+class Pack200LzmaCodec implements BinPatchCodec
+{
+    static final String NAME = "pack200-lzma";
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void write(Map<String, byte[]> entries, OutputStream out) throws IOException
+    {
+        byte[] data = createJar(entries);
+        data = pack200(data);
+
+        LzmaOutputStream lzma = new LzmaOutputStream.Builder(new NonClosingOutputStream(out)).useEndMarkerMode(true).build();
+        lzma.write(data);
+        lzma.close();
+    }
+
+    @Override
+    public void read(InputStream in, EntryVisitor visitor) throws IOException
+    {
+        // unpack to a file, so the whole jar never has to sit in memory.
+        File jar = File.createTempFile("binpatches", ".jar");
+        try
+        {
+            JarOutputStream jos = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)));
+            try
+            {
+                Pack200.newUnpacker().unpack(new LzmaInputStream(in, new Decoder()), jos);
+            }
+            finally
+            {
+                jos.close();
+            }
+
+            JarInputStream jis = new JarInputStream(new BufferedInputStream(new FileInputStream(jar)));
+            try
+            {
+                JarEntry entry;
+                while ((entry = jis.getNextJarEntry()) != null)
+                {
+                    visitor.visit(entry.getName(), ByteStreams.toByteArray(jis));
+                }
+            }
+            finally
+            {
+                jis.close();
+            }
+        }
+        finally
+        {
+            jar.delete();
+        }
+    }
+
+    private static byte[] createJar(Map<String, byte[]> entries) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JarOutputStream jar = new JarOutputStream(out);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+        {
+            JarEntry jarEntry = new JarEntry(entry.getKey());
+            jarEntry.setCreationTime(FileTime.fromMillis(0L));
+            jarEntry.setLastAccessTime(FileTime.fromMillis(0L));
+            jarEntry.setLastModifiedTime(FileTime.fromMillis(0L));
+            jar.putNextEntry(jarEntry);
+            jar.write(entry.getValue());
+        }
+        jar.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] pack200(byte[] data) throws IOException
+    {
+        JarInputStream in = new JarInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Packer packer = Pack200.newPacker();
+
+        SortedMap<String, String> props = packer.properties();
+        props.put(Packer.EFFORT, "9");
+        props.put(Packer.KEEP_FILE_ORDER, Packer.TRUE);
+        props.put(Packer.UNKNOWN_ATTRIBUTE, Packer.PASS);
+
+        final PrintStream err = new PrintStream(System.err);
+        System.setErr(new PrintStream(ByteStreams.nullOutputStream()));
+        packer.pack(in, out);
+        System.setErr(err);
+
+        in.close();
+        out.close();
+
+        return out.toByteArray();
+    }
+
+    /**
+     * The LZMA stream has to be closed to write its end marker, but the archive stream belongs to the caller.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream
+    {
+        NonClosingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A content addressed store of {@link Cached} outputs, shared by every project that uses the same Gradle user home.
+ * Outputs are keyed by the hashes of the task inputs and the plugin build, so a task that already ran somewhere
+ * else with the same inputs can have its outputs copied in instead of running again. The least recently used
+ * entries are dropped once the store grows past its size cap.
+ *
+ * The store is off unless the project property {@value #PROP_ENABLED} is TRUE, and its cap is set in megabytes
+ * with {@value #PROP_MAX_SIZE}.
+ */
+class ArtifactStore
+{
+    private static final Logger LOGGER          = LoggerFactory.getLogger(ArtifactStore.class);
+
+    public static final String  PROP_ENABLED    = "forgegradle.artifactCache";
+    public static final String  PROP_MAX_SIZE   = "forgegradle.artifactCacheSize";
+
+    private final File          root;
+    private final long          maxSize;
+
+    private ArtifactStore(File root, long maxSize)
+    {
+        this.root = root;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param project the project the task belongs to
+     * @return the store for this Gradle user home, or NULL if it is turned off
+     */
+    public static ArtifactStore get(Project project)
+    {
+        if (!project.hasProperty(PROP_ENABLED) || !Boolean.parseBoolean(project.property(PROP_ENABLED).toString()))
+            return null;
+
+        // without a way to tell plugin builds apart, one build could be handed the outputs of another.
+        if (CacheFiles.getPluginVersion() == null)
+            return null;
+
+        return new ArtifactStore(CacheFiles.getCacheDir(project, null, "artifacts"), CacheFiles.getMaxSize(project));
+    }
+
+    /**
+     * Builds the key of a cached output from the plugin version, the task type, the output, the hashes of the
+     * annotated inputs and the hashes of every other file the task declares as an input.
+     * @param task the task
+     * @param output the cached output
+     * @param inputs the inputs of the task
+     * @return the key of the output in the store
+     * @throws Exception if the inputs could not be resolved
+     */
+    public static String getKey(ICachableTask task, Annotated output, List<Annotated> inputs) throws Exception
+    {
+        StringBuilder key = new StringBuilder(CacheFiles.getPluginVersion());
+        key.append(Constants.NEWLINE).append(task.getClass().getName().replace("_Decorated", ""));
+        key.append(Constants.NEWLINE).append(output.getElement());
+        key.append(Constants.NEWLINE).append(CacheUtil.getInputHashes(inputs, task));
+
+        FileHashIndex index = FileHashIndex.get(task.getProject());
+        List<File> declared = Lists.newArrayList(task.getInputs().getFiles().getFiles());
+        Collections.sort(declared);
+        for (File file : declared)
+        {
+            key.append(Constants.NEWLINE).append(file.getName()).append(' ').append(index.hash(file));
+        }
+
+        return Constants.hash(key.toString());
+    }
+
+    /**
+     * @param key key of the output
+     * @param out where the output should go
+     * @return TRUE if the store has the output
+     */
+    public boolean contains(String key, File out)
+    {
+        return new File(new File(root, key), out.getName()).isFile();
+    }
+
+    /**
+     * Copies the stored output for the key in place of the given file.
+     * It is never linked, since the task may write into its outputs the next time it runs.
+     * @param key key of the output
+     * @param out where the output should go
+     * @return TRUE if the store had the output
+     */
+    public boolean restore(String key, File out)
+    {
+        File entry = new File(root, key);
+        File stored = new File(entry, out.getName());
+
+        if (!stored.isFile())
+            return false;
+
+        try
+        {
+            out.getParentFile().mkdirs();
+            out.delete();
+            Constants.copyFile(stored, out);
+
+            // mark it as recently used
+            entry.setLastModified(System.currentTimeMillis());
+            LOGGER.info("Restored {} from the artifact cache", out.getName());
+            return true;
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not restore {} from the artifact cache", out.getName(), e);
+            out.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Copies a freshly built output into the store, then trims the store down to its cap.
+     * @param key key of the output
+     * @param out the output
+     */
+    public void publish(String key, final File out)
+    {
+        File entry = new File(root, key);
+        File stored = new File(entry, out.getName());
+
+        if (stored.isFile())
+        {
+            entry.setLastModified(System.currentTimeMillis());
+            return;
+        }
+
+        try
+        {
+            CacheFiles.write(stored, new CacheFiles.Contents() {
+                @Override
+                public void write(OutputStream stream) throws IOException
+                {
+                    Files.copy(out.toPath(), stream);
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Could not add {} to the artifact cache", out.getName(), e);
+            return;
+        }
+
+        evict();
+    }
+
+    private void evict()
+    {
+        File[] entries = root.listFiles();
+        if (entries != null)
+            CacheFiles.evict(Arrays.asList(entries), maxSize);
+    }
+}
@@ -21,11 +21,15 @@ package net.minecraftforge.gradle.util.caching;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.List;
+
+import net.minecraftforge.gradle.common.Constants;
 
 import org.gradle.api.Task;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.specs.Spec;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 public class CacheCheckSpec implements Spec<Task>
@@ -52,17 +56,20 @@ public class CacheCheckSpec implements Spec<Task>
         if (!task.doesCache() || container.cachedList.isEmpty())
             return true;
 
+        List<Annotated> missing = Lists.newArrayList();
+
         for (Annotated field : container.cachedList)
         {
             try
             {
                 File file = task.getProject().file(field.getValue(task));
 
-                // not there? do the task.
+                // not there? maybe another project built it already.
                 if (!file.exists())
                 {
                     logger.info("No output file found.");
-                    return true;
+                    missing.add(field);
+                    continue;
                 }
 
                 File hashFile = CacheUtil.getHashFile(file);
@@ -70,7 +77,8 @@ public class CacheCheckSpec implements Spec<Task>
                 {
                     logger.info("No cache file found.");
                     file.delete(); // Kill the output file if the hash doesn't exist, else gradle will think it's up-to-date
-                    return true;
+                    missing.add(field);
+                    continue;
                 }
 
                 String foundMD5 = Files.toString(CacheUtil.getHashFile(file), Charset.defaultCharset());
@@ -83,7 +91,8 @@ public class CacheCheckSpec implements Spec<Task>
                     logger.info("Checksums calculated: " + calcMD5);
                     file.delete();
                     CacheUtil.getHashFile(file).delete();
-                    return true;
+                    missing.add(field);
+                    continue;
                 }
 
                 logger.debug("Checksums found: " + foundMD5);
@@ -98,7 +107,89 @@ public class CacheCheckSpec implements Spec<Task>
             }
         }
 
+        // the outputs that aren't cached can't be restored, so the task has to run to make them.
+        for (File file : task.getOutputs().getFiles())
+        {
+            if (!file.exists() && !isCached(task, file))
+            {
+                logger.info("Output {} is missing.", file);
+                return true;
+            }
+        }
+
+        if (!missing.isEmpty() && !restoreAll(task, missing))
+            return true;
+
         // no problems? all of em are here? skip the task.
         return false;
     }
+
+    private boolean isCached(ICachableTask task, File file)
+    {
+        for (Annotated field : container.cachedList)
+        {
+            try
+            {
+                if (task.getProject().file(field.getValue(task)).equals(file))
+                    return true;
+            }
+            catch (Exception e)
+            {
+                // can't tell, so it isn't.
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restores every missing output from the artifact store, or none of them.
+     * @return TRUE if all of them were restored
+     */
+    private boolean restoreAll(ICachableTask task, List<Annotated> missing)
+    {
+        ArtifactStore store = ArtifactStore.get(task.getProject());
+        if (store == null)
+            return false;
+
+        List<File> restored = Lists.newArrayList();
+        try
+        {
+            List<String> keys = Lists.newArrayList();
+            for (Annotated field : missing)
+            {
+                File file = task.getProject().file(field.getValue(task));
+                String key = ArtifactStore.getKey(task, field, container.inputList);
+                if (file.isDirectory() || !store.contains(key, file))
+                    return false;
+                keys.add(key);
+            }
+
+            for (int i = 0; i < missing.size(); i++)
+            {
+                Annotated field = missing.get(i);
+                File file = task.getProject().file(field.getValue(task));
+
+                if (!store.restore(keys.get(i), file))
+                    break;
+                restored.add(file);
+
+                Files.write(CacheUtil.getHashes(field, container.inputList, task), CacheUtil.getHashFile(file), Constants.CHARSET);
+            }
+
+            if (restored.size() == missing.size())
+                return true;
+        }
+        catch (Exception e)
+        {
+            task.getProject().getLogger().info("Could not restore the outputs of {} from the artifact cache", task.getName(), e);
+        }
+
+        // half restored is no good, the task runs and makes them all.
+        for (File file : restored)
+        {
+            file.delete();
+            CacheUtil.getHashFile(file).delete();
+        }
+        return false;
+    }
 }
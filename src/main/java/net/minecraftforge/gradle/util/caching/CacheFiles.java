@@ -0,0 +1,287 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Helpers for the caches kept in the Gradle user home: finding their folders, writing entries so that other builds
+ * never see half of one, and keeping each cache under the size cap of the {@link ArtifactStore}.
+ */
+public final class CacheFiles
+{
+    private static final Logger LOGGER         = LoggerFactory.getLogger(CacheFiles.class);
+    private static final long   DEFAULT_MAX_MB = 4096;
+
+    private static String       pluginVersion;
+
+    private CacheFiles()
+    {
+    }
+
+    /**
+     * Writes the contents of a file.
+     */
+    public interface Contents
+    {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Resolves the cache folder setting of a task.
+     * @param project the project the task belongs to
+     * @param setting NULL or TRUE for the default folder, FALSE for no cache, or anything {@link Project#file(Object)} takes
+     * @param name the name of the default folder in the Gradle user home
+     * @return the cache folder, or NULL if the cache is turned off
+     */
+    public static File getCacheDir(Project project, Object setting, String name)
+    {
+        if (setting == null || Boolean.TRUE.equals(setting))
+            return new File(project.getGradle().getGradleUserHomeDir(), "caches/minecraft/" + name);
+        if (Boolean.FALSE.equals(setting))
+            return null;
+        return project.file(setting);
+    }
+
+    /**
+     * The version of the plugin, along with the hash of its jar since snapshots all share one version.
+     * Caches that depend on the code of the plugin put it in their keys.
+     * @return the version, or NULL if the plugin wasn't loaded from a jar
+     */
+    public static synchronized String getPluginVersion()
+    {
+        if (pluginVersion == null)
+            pluginVersion = getJarVersion(CacheFiles.class);
+        return pluginVersion;
+    }
+
+    /**
+     * @param cls a class loaded from a jar
+     * @return the version of the jar along with its hash, or NULL if the class wasn't loaded from a jar
+     */
+    public static String getJarVersion(Class<?> cls)
+    {
+        try
+        {
+            CodeSource source = cls.getProtectionDomain().getCodeSource();
+            File jar = source == null ? null : new File(source.getLocation().toURI());
+            if (jar == null || !jar.isFile())
+                return null;
+
+            return cls.getPackage().getImplementationVersion() + "-" + Constants.hash(jar);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @param project the project to read the {@value ArtifactStore#PROP_MAX_SIZE} property of
+     * @return the most bytes a single cache may take up
+     */
+    public static long getMaxSize(Project project)
+    {
+        long maxMb = DEFAULT_MAX_MB;
+        if (project.hasProperty(ArtifactStore.PROP_MAX_SIZE))
+            maxMb = Long.parseLong(project.property(ArtifactStore.PROP_MAX_SIZE).toString());
+        return maxMb * 1024 * 1024;
+    }
+
+    /**
+     * Writes next to the target and then moves it in place, so another build never reads half a file.
+     * @param target the file to write
+     * @param data the contents
+     * @throws IOException if the file could not be written or moved in place
+     */
+    public static void write(File target, final byte[] data) throws IOException
+    {
+        write(target, new Contents() {
+            @Override
+            public void write(OutputStream out) throws IOException
+            {
+                out.write(data);
+            }
+        });
+    }
+
+    /**
+     * Writes next to the target and then moves it in place, so another build never reads half a file.
+     * @param target the file to write
+     * @param contents writes the contents, the stream is buffered and closed afterwards
+     * @throws IOException if the file could not be written or moved in place
+     */
+    public static void write(File target, Contents contents) throws IOException
+    {
+        target.getParentFile().mkdirs();
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try
+        {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try
+            {
+                contents.write(out);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            try
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Marks a cache entry as recently used, so it is evicted last.
+     * @param entry the entry that was just read
+     */
+    public static void touch(File entry)
+    {
+        entry.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the least recently used files in the cache until it fits in the cap.
+     * @param project the project to read the cap from
+     * @param cacheDir the cache folder, may be NULL
+     */
+    public static void trim(Project project, File cacheDir)
+    {
+        if (cacheDir == null || !cacheDir.isDirectory())
+            return;
+
+        List<File> entries = Lists.newArrayList();
+        listFiles(cacheDir, entries);
+        evict(entries, getMaxSize(project));
+    }
+
+    /**
+     * Deletes the least recently used entries until the rest fit in the cap.
+     * @param entries the files or folders that make up the cache
+     * @param maxSize the cap in bytes
+     */
+    static void evict(List<File> entries, long maxSize)
+    {
+        long total = 0;
+        final long[] sizes = new long[entries.size()];
+        final long[] used = new long[entries.size()];
+        List<Integer> order = Lists.newArrayListWithCapacity(entries.size());
+        for (int i = 0; i < entries.size(); i++)
+        {
+            sizes[i] = sizeOf(entries.get(i));
+            used[i] = entries.get(i).lastModified();
+            total += sizes[i];
+            order.add(i);
+        }
+
+        if (total <= maxSize)
+            return;
+
+        // oldest first
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(used[a], used[b]);
+            }
+        });
+
+        for (int i : order)
+        {
+            if (total <= maxSize)
+                break;
+
+            LOGGER.debug("Evicting {} from the cache", entries.get(i));
+            delete(entries.get(i));
+            total -= sizes[i];
+        }
+    }
+
+    private static void listFiles(File dir, List<File> files)
+    {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        for (File child : children)
+        {
+            if (child.isDirectory())
+                listFiles(child, files);
+            else if (!child.getName().endsWith(".tmp")) // still being written by some build
+                files.add(child);
+        }
+    }
+
+    private static long sizeOf(File file)
+    {
+        if (!file.isDirectory())
+            return file.length();
+
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                size += sizeOf(child);
+        }
+        return size;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
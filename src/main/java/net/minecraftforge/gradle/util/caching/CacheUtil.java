@@ -54,14 +54,35 @@ class CacheUtil
             return new File(file.getParentFile(), file.getName() + ".md5");
     }
 
-    @SuppressWarnings("rawtypes")
     protected static String getHashes(Annotated output, List<Annotated> inputs, ICachableTask task) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException
     {
         // TODO: CONVERT TO CacheFile
         List<String> hashes = Lists.newArrayListWithCapacity(inputs.size() + 5);
 
-        hashes.addAll(Constants.hashAll(task.getProject().file(output.getValue(task))));
+        FileHashIndex index = FileHashIndex.get(task.getProject());
+        hashes.addAll(index.hashAll(task.getProject().file(output.getValue(task))));
+        addInputHashes(hashes, inputs, task, index);
+
+        return Joiner.on(Constants.NEWLINE).join(hashes);
+    }
+
+    /**
+     * Hashes only the inputs of the task, so the result can identify an output before it exists.
+     * @param inputs the inputs of the task
+     * @param task the task
+     * @return the hashes of the inputs, one per line
+     */
+    protected static String getInputHashes(List<Annotated> inputs, ICachableTask task) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException
+    {
+        List<String> hashes = Lists.newArrayListWithCapacity(inputs.size());
+        FileHashIndex index = FileHashIndex.get(task.getProject());
+        addInputHashes(hashes, inputs, task, index);
+        return Joiner.on(Constants.NEWLINE).join(hashes);
+    }
 
+    @SuppressWarnings("rawtypes")
+    private static void addInputHashes(List<String> hashes, List<Annotated> inputs, ICachableTask task, FileHashIndex index) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException
+    {
         for (Annotated input : inputs)
         {
             AnnotatedElement m = input.getElement();
@@ -73,20 +94,20 @@ class CacheUtil
             }
             else if (m.isAnnotationPresent(InputFile.class))
             {
-                hashes.add(Constants.hash(task.getProject().file(input.getValue(task))));
-                LOGGER.debug(Constants.hash(task.getProject().file(input.getValue(task))) + " " + input.getValue(task));
+                hashes.add(index.hash(task.getProject().file(input.getValue(task))));
+                LOGGER.debug(hashes.get(hashes.size() - 1) + " " + input.getValue(task));
             }
             else if (m.isAnnotationPresent(InputDirectory.class))
             {
                 File dir = (File) input.getValue(task);
-                hashes.addAll(Constants.hashAll(dir));
+                hashes.addAll(index.hashAll(dir));
             }
             else if (m.isAnnotationPresent(InputFiles.class))
             {
                 FileCollection files = (FileCollection) input.getValue(task);
                 for (File file : files.getFiles())
                 {
-                    String hash = Constants.hash(file);
+                    String hash = index.hash(file);
                     hashes.add(hash);
                     LOGGER.debug(hash + " " + input.getValue(task));
                 }
@@ -113,14 +134,14 @@ class CacheUtil
                         Collections.sort(files);
                         for (File i : files)
                         {
-                            hashes.add(Constants.hash(i));
-                            LOGGER.debug(Constants.hash(i) + " " + i);
+                            hashes.add(index.hash(i));
+                            LOGGER.debug(hashes.get(hashes.size() - 1) + " " + i);
                         }
                     }
                     else
                     {
-                        hashes.add(Constants.hash(file));
-                        LOGGER.debug(Constants.hash(file) + " " + file);
+                        hashes.add(index.hash(file));
+                        LOGGER.debug(hashes.get(hashes.size() - 1) + " " + file);
                     }
                 }
                 else if (obj instanceof PatternSet)
@@ -141,7 +162,5 @@ class CacheUtil
                 }
             }
         }
-
-        return Joiner.on(Constants.NEWLINE).join(hashes);
     }
 }
@@ -0,0 +1,295 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.services.BuildServiceSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Remembers the hashes of files by their size, modification time and file key (the inode where the OS has one),
+ * so unchanged inputs are only stat'ed instead of read again on every up-to-date check.
+ * The index lives in memory for the life of the daemon and is written to the Gradle user home once, when the build
+ * finishes. Writing merges with whatever other daemons saved in the meantime, and forgets files that are gone.
+ */
+class FileHashIndex
+{
+    private static final Logger                     LOGGER  = LoggerFactory.getLogger(FileHashIndex.class);
+    private static final Map<File, FileHashIndex>   INDEXES = Maps.newHashMap();
+
+    /**
+     * Files changed this recently could still change again within the same timestamp tick,
+     * so their hashes are not remembered.
+     */
+    private static final long                       RACY_MS = 2000;
+
+    private final File                              indexFile;
+    private final Map<String, Entry>                entries = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean                        dirty   = false;
+
+    private FileHashIndex(File indexFile)
+    {
+        this.indexFile = indexFile;
+        load();
+    }
+
+    public static FileHashIndex get(Project project)
+    {
+        File file = new File(project.getGradle().getGradleUserHomeDir(), "caches/minecraft/fileHashes.txt");
+
+        FileHashIndex index;
+        synchronized (INDEXES)
+        {
+            index = INDEXES.get(file);
+            if (index == null)
+            {
+                index = new FileHashIndex(file);
+                INDEXES.put(file, index);
+            }
+        }
+
+        // the service is closed when the build finishes, which saves the index
+        project.getGradle().getSharedServices().registerIfAbsent(SaveOnFinish.NAME, SaveOnFinish.class, new Action<BuildServiceSpec<BuildServiceParameters.None>>() {
+            @Override
+            public void execute(BuildServiceSpec<BuildServiceParameters.None> spec)
+            {
+                // no parameters
+            }
+        }).get();
+
+        return index;
+    }
+
+    /**
+     * Same as {@link Constants#hash(File)}, but only reads the file if it changed since it was last hashed.
+     * @param file file to hash
+     * @return the hash of the file
+     */
+    public String hash(File file)
+    {
+        String path = file.getAbsolutePath();
+        BasicFileAttributes attrs;
+        try
+        {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        }
+        catch (IOException e)
+        {
+            entries.remove(path);
+            return Constants.hash(file);
+        }
+
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        String key = attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+
+        Entry entry = entries.get(path);
+        if (entry != null && entry.matches(size, modified, key))
+            return entry.hash;
+
+        String hash = Constants.hash(file);
+        if (hash != null && System.currentTimeMillis() - modified > RACY_MS)
+        {
+            entries.put(path, new Entry(size, modified, key, hash));
+            dirty = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Same as {@link Constants#hashAll(File)}, backed by the index.
+     * @param file file or directory to hash
+     * @return the hashes of all the files
+     */
+    public List<String> hashAll(File file)
+    {
+        LinkedList<String> list = new LinkedList<String>();
+
+        if (file.isDirectory())
+        {
+            for (File f : file.listFiles())
+                list.addAll(hashAll(f));
+        }
+        else if (!file.getName().equals(".cache"))
+            list.add(hash(file));
+
+        return list;
+    }
+
+    /**
+     * Writes the index out if anything changed since it was loaded.
+     * What is on disk is read again first, under a lock, so hashes other daemons saved are kept.
+     * Files that no longer exist are dropped.
+     */
+    public synchronized void save()
+    {
+        if (!dirty)
+            return;
+        dirty = false;
+
+        try
+        {
+            indexFile.getParentFile().mkdirs();
+            RandomAccessFile lockFile = new RandomAccessFile(new File(indexFile.getPath() + ".lock"), "rw");
+            try
+            {
+                FileLock lock = lockFile.getChannel().lock();
+                try
+                {
+                    for (Map.Entry<String, Entry> e : read().entrySet())
+                    {
+                        if (!entries.containsKey(e.getKey()))
+                            entries.put(e.getKey(), e.getValue());
+                    }
+
+                    Iterator<String> it = entries.keySet().iterator();
+                    while (it.hasNext())
+                    {
+                        if (!new File(it.next()).isFile())
+                            it.remove();
+                    }
+
+                    write();
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                lockFile.close();
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.debug("Could not save the file hash index", e);
+        }
+    }
+
+    private void write() throws IOException
+    {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            Entry entry = e.getValue();
+            out.append(entry.hash).append('\t').append(entry.size).append('\t').append(entry.modified).append('\t').append(entry.key).append('\t').append(e.getKey());
+            out.append(Constants.NEWLINE);
+        }
+
+        CacheFiles.write(indexFile, out.toString().getBytes(Constants.CHARSET));
+    }
+
+    private void load()
+    {
+        entries.putAll(read());
+    }
+
+    private Map<String, Entry> read()
+    {
+        Map<String, Entry> read = Maps.newHashMap();
+        if (!indexFile.exists())
+            return read;
+
+        try
+        {
+            for (String line : Files.readAllLines(indexFile.toPath(), Constants.CHARSET))
+            {
+                String[] pts = line.split("\t", 5);
+                if (pts.length != 5)
+                    continue;
+
+                read.put(pts[4], new Entry(Long.parseLong(pts[1]), Long.parseLong(pts[2]), pts[3], pts[0]));
+            }
+        }
+        catch (Exception e)
+        {
+            // a broken index just means hashing everything again.
+            LOGGER.debug("Could not read the file hash index", e);
+            read.clear();
+        }
+        return read;
+    }
+
+    /**
+     * Saves every index when the build finishes, when Gradle closes its build services.
+     */
+    public abstract static class SaveOnFinish implements BuildService<BuildServiceParameters.None>, AutoCloseable
+    {
+        static final String NAME = "forgeGradleFileHashIndex";
+
+        @Override
+        public void close()
+        {
+            List<FileHashIndex> indexes;
+            synchronized (INDEXES)
+            {
+                indexes = Lists.newArrayList(INDEXES.values());
+            }
+
+            for (FileHashIndex index : indexes)
+            {
+                index.save();
+            }
+        }
+    }
+
+    private static class Entry
+    {
+        final long   size;
+        final long   modified;
+        final String key;
+        final String hash;
+
+        Entry(long size, long modified, String key, String hash)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.key = key;
+            this.hash = hash;
+        }
+
+        boolean matches(long size, long modified, String key)
+        {
+            return this.size == size && this.modified == modified && this.key.equals(key);
+        }
+    }
+}
@@ -59,6 +59,12 @@ public class WriteCacheAction implements Action<Task>
             {
                 File hashFile = CacheUtil.getHashFile(outFile);
                 Files.write(CacheUtil.getHashes(annot, inputs, task), hashFile, Constants.CHARSET);
+
+                ArtifactStore store = ArtifactStore.get(task.getProject());
+                if (store != null && outFile.isFile())
+                {
+                    store.publish(ArtifactStore.getKey(task, annot, inputs), outFile);
+                }
             }
         }
         // error? spit it and do the task.
@@ -0,0 +1,1104 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import net.minecraftforge.gradle.common.Constants;
+
+/**
+ * The text fixes of {@link FFPatcher} and {@link McpCleanup}. Each of them is a single pass over the file.
+ * <p>
+ * Every rule is a {@link Stage} that gets the characters the rule before it let through, and only holds back what it
+ * can not decide on yet, like whitespace that may turn out to be trailing. The stages are chained in the order the
+ * rules used to run in, and the last one writes to the output buffer. Every stage does exactly what the regex noted
+ * on it did to the whole file, so the output is the same as running the regexes one after another.
+ */
+final class CleanupPipeline
+{
+    private CleanupPipeline()
+    {
+    }
+
+    /**
+     * Removes trailing whitespace and collapses repeated blank lines.
+     */
+    static String trimLines(String text)
+    {
+        Sink sink = new Sink(text.length());
+        Stage first = new TrailingWhitespace(new BlankLines(sink));
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            first.put(text.charAt(i));
+        }
+        first.end();
+
+        return sink.toString();
+    }
+
+    /**
+     * Strips comments, then removes trailing whitespace and collapses repeated blank lines.
+     */
+    static String stripComments(String text)
+    {
+        Sink sink = new Sink(text.length());
+        Stage out = new TrailingWhitespace(new BlankLines(sink));
+
+        int pos = 0;
+        int length = text.length();
+        boolean inComment = false;
+        boolean inString = false;
+
+        // the same lexer as always, quirks and all. Reading past the end gives (char) -1, like the StringReader did.
+        while (pos < length)
+        {
+            char c = text.charAt(pos++);
+            switch (c)
+                {
+                    case '\\':
+                        out.put(c);
+                        out.put(pos < length ? text.charAt(pos++) : (char) -1); // skip escaped chars
+                        break;
+                    case '"':
+                        if (!inComment)
+                        {
+                            out.put(c);
+                            inString = !inString;
+                        }
+                        break;
+                    case '\'':
+                        if (!inComment)
+                        {
+                            out.put(c);
+                            out.put(pos < length ? text.charAt(pos++) : (char) -1);
+                            out.put(pos < length ? text.charAt(pos++) : (char) -1);
+                        }
+                        break;
+                    case '*':
+                        {
+                            char c2 = pos < length ? text.charAt(pos++) : (char) -1;
+                            if (inComment && c2 == '/')
+                            {
+                                inComment = false;
+                                out.put(' '); // allows int x = 3; int y = -/**/-x; to work
+                            }
+                            else
+                            {
+                                out.put(c);
+                                out.put(c2);
+                            }
+                            break;
+                        }
+                    case '/':
+                        if (inString)
+                        {
+                            out.put(c);
+                            break;
+                        }
+
+                        char c2 = pos < length ? text.charAt(pos++) : (char) -1;
+                        if (c2 == '/')
+                        {
+                            // keep the newline, a comment at the very end of the file just goes
+                            while (pos < length)
+                            {
+                                char c3 = text.charAt(pos++);
+                                if (c3 == '\n' || c3 == '\r')
+                                {
+                                    out.put(c3);
+                                    break;
+                                }
+                            }
+                        }
+                        else if (c2 == '*')
+                        {
+                            inComment = true;
+                        }
+                        else
+                        {
+                            out.put(c);
+                            out.put(c2);
+                        }
+                        break;
+                    default:
+                        if (!inComment)
+                        {
+                            out.put(c);
+                        }
+                        break;
+                }
+        }
+        out.end();
+
+        return sink.toString();
+    }
+
+    /**
+     * Tidies up whitespace and blocks, and turns constants back into what they were written as.
+     */
+    static String cleanup(String text)
+    {
+        Literals literals = new Literals(text.length());
+        Stage first = new LeadingWhitespace(
+                new EndWhitespace(
+                        new TrailingWhitespace(
+                                new BlankLinesAfterWhitespace(
+                                        new IfStarts(
+                                                new BlockStarts(
+                                                        new BlockEnds(
+                                                                new GlComments(literals))))))));
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            first.put(text.charAt(i));
+        }
+        first.end();
+
+        return literals.toString();
+    }
+
+    /** Anything the regexes took as the end of a line. */
+    private static boolean isLineEnd(char c)
+    {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /** \s in a regex */
+    private static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isNewline(char c)
+    {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private abstract static class Stage
+    {
+        protected final Stage next;
+
+        Stage(Stage next)
+        {
+            this.next = next;
+        }
+
+        abstract void put(char c);
+
+        /**
+         * Called after the last character, to let through whatever is still held back.
+         */
+        void end()
+        {
+            next.end();
+        }
+
+        protected void emit(CharSequence text, int start)
+        {
+            for (int i = start; i < text.length(); i++)
+            {
+                next.put(text.charAt(i));
+            }
+        }
+    }
+
+    private static final class Sink extends Stage
+    {
+        private final StringBuilder out;
+
+        Sink(int capacity)
+        {
+            super(null);
+            out = new StringBuilder(capacity);
+        }
+
+        @Override
+        void put(char c)
+        {
+            out.append(c);
+        }
+
+        @Override
+        void end()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return out.toString();
+        }
+    }
+
+    /**
+     * {@code (?m)[ \t]+$} to nothing
+     */
+    private static final class TrailingWhitespace extends Stage
+    {
+        private final StringBuilder pending = new StringBuilder();
+
+        TrailingWhitespace(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (c == ' ' || c == '\t')
+            {
+                pending.append(c);
+                return;
+            }
+
+            if (pending.length() > 0)
+            {
+                if (!isLineEnd(c))
+                    emit(pending, 0);
+                pending.setLength(0);
+            }
+            next.put(c);
+        }
+
+        @Override
+        void end()
+        {
+            pending.setLength(0);
+            next.end();
+        }
+    }
+
+    /**
+     * {@code (?m)^(?:\r\n|\r|\n){2,}} to a single newline
+     */
+    private static final class BlankLines extends Stage
+    {
+        private final StringBuilder run       = new StringBuilder();
+        private boolean             lineStart = true;
+
+        BlankLines(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (isNewline(c))
+            {
+                run.append(c);
+                return;
+            }
+
+            flush();
+            next.put(c);
+            lineStart = isLineEnd(c);
+        }
+
+        @Override
+        void end()
+        {
+            flush();
+            next.end();
+        }
+
+        private void flush()
+        {
+            if (run.length() == 0)
+                return;
+
+            // the first line start in the run, ^ never matches between \r and \n
+            int start = lineStart ? 0 : 1;
+            while (start > 0 && start < run.length() && run.charAt(start - 1) == '\r' && run.charAt(start) == '\n')
+            {
+                start++;
+            }
+
+            if (run.length() - start >= 2)
+            {
+                for (int i = 0; i < start; i++)
+                {
+                    next.put(run.charAt(i));
+                }
+                emit(Constants.NEWLINE, 0);
+            }
+            else
+            {
+                emit(run, 0);
+            }
+
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * {@code ^\s+} to nothing
+     */
+    private static final class LeadingWhitespace extends Stage
+    {
+        private boolean started;
+
+        LeadingWhitespace(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (!started)
+            {
+                if (isSpace(c))
+                    return;
+                started = true;
+            }
+            next.put(c);
+        }
+    }
+
+    /**
+     * {@code \s+$} to nothing
+     */
+    private static final class EndWhitespace extends Stage
+    {
+        private final StringBuilder pending = new StringBuilder();
+        private char                held;
+
+        EndWhitespace(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (held != 0)
+            {
+                emit(pending, 0);
+                pending.setLength(0);
+                next.put(held);
+                held = 0;
+            }
+
+            if (isSpace(c))
+            {
+                pending.append(c);
+            }
+            else if (pending.length() > 0 && isLineEnd(c))
+            {
+                // $ also matches before a line end that is the last char of the file
+                held = c;
+            }
+            else
+            {
+                emit(pending, 0);
+                pending.setLength(0);
+                next.put(c);
+            }
+        }
+
+        @Override
+        void end()
+        {
+            if (held != 0)
+                next.put(held);
+            next.end();
+        }
+    }
+
+    /**
+     * {@code (?m)^\s*(?:\r\n|\r|\n){2,}} to a single newline
+     */
+    private static final class BlankLinesAfterWhitespace extends Stage
+    {
+        private final StringBuilder run       = new StringBuilder();
+        private boolean             lineStart = true;
+
+        BlankLinesAfterWhitespace(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (isSpace(c))
+            {
+                run.append(c);
+                return;
+            }
+
+            flush();
+            next.put(c);
+            lineStart = isLineEnd(c);
+        }
+
+        @Override
+        void end()
+        {
+            flush();
+            next.end();
+        }
+
+        private void flush()
+        {
+            if (run.length() == 0)
+                return;
+
+            // the first line start in the run
+            int start = 0;
+            if (!lineStart)
+            {
+                start = -1;
+                for (int i = 1; i < run.length(); i++)
+                {
+                    char prev = run.charAt(i - 1);
+                    if (isNewline(prev) && !(prev == '\r' && run.charAt(i) == '\n'))
+                    {
+                        start = i;
+                        break;
+                    }
+                }
+            }
+
+            // everything up to the end of the last two or more newlines in a row goes
+            int end = -1;
+            if (start >= 0)
+            {
+                int newlines = 0;
+                for (int i = start; i < run.length(); i++)
+                {
+                    newlines = isNewline(run.charAt(i)) ? newlines + 1 : 0;
+                    if (newlines >= 2 && (i + 1 == run.length() || !isNewline(run.charAt(i + 1))))
+                        end = i + 1;
+                }
+            }
+
+            if (end < 0)
+            {
+                emit(run, 0);
+            }
+            else
+            {
+                for (int i = 0; i < start; i++)
+                {
+                    next.put(run.charAt(i));
+                }
+                emit(Constants.NEWLINE, 0);
+                emit(run, end);
+            }
+
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * {@code (?m)(^(?![\s{}]*$).+(?:\r\n|\r|\n))((?:[ \t]+)if.*)} to {@code $1 NEWLINE $2}
+     * <p>
+     * So a blank line before every if, unless the line before is blank or only braces.
+     * An if that got its blank line can not be the first line of another match.
+     */
+    private static final class IfStarts extends Stage
+    {
+        private StringBuilder line     = new StringBuilder();
+        private String        lineEnd;
+        private StringBuilder held     = new StringBuilder();
+        private String        heldEnd;
+        private boolean       holding;
+        private boolean       pendingCR;
+
+        IfStarts(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (pendingCR)
+            {
+                pendingCR = false;
+                if (c == '\n')
+                {
+                    endLine("\r\n");
+                    return;
+                }
+                endLine("\r");
+            }
+
+            if (c == '\r')
+                pendingCR = true;
+            else if (isLineEnd(c))
+                endLine(String.valueOf(c));
+            else
+                line.append(c);
+        }
+
+        @Override
+        void end()
+        {
+            if (pendingCR)
+                endLine("\r");
+            else if (line.length() > 0)
+                endLine("");
+
+            if (holding)
+                emitLine(held, heldEnd);
+            next.end();
+        }
+
+        private void endLine(String end)
+        {
+            lineEnd = end;
+
+            if (holding && isCode(held) && heldEnd.length() > 0 && isNewline(heldEnd.charAt(0)) && isIf(line))
+            {
+                emitLine(held, heldEnd);
+                emit(Constants.NEWLINE, 0);
+                emitLine(line, lineEnd);
+                holding = false;
+                line.setLength(0);
+                return;
+            }
+
+            if (holding)
+                emitLine(held, heldEnd);
+
+            StringBuilder swap = held;
+            held = line;
+            heldEnd = lineEnd;
+            holding = true;
+            line = swap;
+            line.setLength(0);
+        }
+
+        private void emitLine(StringBuilder text, String end)
+        {
+            emit(text, 0);
+            emit(end, 0);
+        }
+
+        private static boolean isCode(CharSequence text)
+        {
+            for (int i = 0; i < text.length(); i++)
+            {
+                char c = text.charAt(i);
+                if (!isSpace(c) && c != '{' && c != '}')
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean isIf(CharSequence text)
+        {
+            int i = 0;
+            while (i < text.length() && (text.charAt(i) == ' ' || text.charAt(i) == '\t'))
+            {
+                i++;
+            }
+            return i > 0 && i + 1 < text.length() && text.charAt(i) == 'i' && text.charAt(i + 1) == 'f';
+        }
+    }
+
+    /**
+     * {@code (?m)(?<=\{)\s+(?=(?:\r\n|\r|\n)[ \t]*\S)} to nothing
+     */
+    private static final class BlockStarts extends Stage
+    {
+        private final StringBuilder run = new StringBuilder();
+        private boolean             afterBrace;
+
+        BlockStarts(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (afterBrace && isSpace(c))
+            {
+                run.append(c);
+                return;
+            }
+
+            if (run.length() > 0)
+            {
+                int last = lastNewline(run);
+                boolean indentOnly = last > 0;
+                for (int i = last + 1; indentOnly && i < run.length(); i++)
+                {
+                    indentOnly = run.charAt(i) == ' ' || run.charAt(i) == '\t';
+                }
+
+                emit(run, indentOnly ? last : 0);
+                run.setLength(0);
+            }
+
+            afterBrace = c == '{';
+            next.put(c);
+        }
+
+        @Override
+        void end()
+        {
+            emit(run, 0);
+            next.end();
+        }
+    }
+
+    /**
+     * {@code (?m)(?<=[;}])\s+(?=(?:\r\n|\r|\n)\s*})} to nothing
+     */
+    private static final class BlockEnds extends Stage
+    {
+        private final StringBuilder run = new StringBuilder();
+        private boolean             afterEnd;
+
+        BlockEnds(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            if (afterEnd && isSpace(c))
+            {
+                run.append(c);
+                return;
+            }
+
+            if (run.length() > 0)
+            {
+                int last = c == '}' ? lastNewline(run) : -1;
+                emit(run, last > 0 ? last : 0);
+                run.setLength(0);
+            }
+
+            afterEnd = c == ';' || c == '}';
+            next.put(c);
+        }
+
+        @Override
+        void end()
+        {
+            emit(run, 0);
+            next.end();
+        }
+    }
+
+    private static int lastNewline(CharSequence text)
+    {
+        for (int i = text.length() - 1; i >= 0; i--)
+        {
+            if (isNewline(text.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * {@code \s*\/\*\s*GL_[^*]+\*\/\s*} to nothing
+     */
+    private static final class GlComments extends Stage
+    {
+        private static final int   NONE       = 0;
+        private static final int   SPACE      = 1;
+        private static final int   SLASH      = 2;
+        private static final int   OPEN       = 3;
+        private static final int   G          = 4;
+        private static final int   GL         = 5;
+        private static final int   GL_        = 6;
+        private static final int   BODY       = 7;
+        private static final int   STAR       = 8;
+        private static final int   TRAILING   = 9;
+
+        private final StringBuilder candidate = new StringBuilder();
+        private final StringBuilder input     = new StringBuilder();
+        private int                 pos;
+        private int                 spaces;
+        private int                 state     = NONE;
+
+        GlComments(Stage next)
+        {
+            super(next);
+        }
+
+        @Override
+        void put(char c)
+        {
+            input.append(c);
+            drain();
+        }
+
+        @Override
+        void end()
+        {
+            while (state >= SLASH && state <= STAR)
+            {
+                fail();
+                drain();
+            }
+
+            if (state == SPACE)
+                emit(candidate, 0);
+            next.end();
+        }
+
+        private void drain()
+        {
+            while (pos < input.length())
+            {
+                accept(input.charAt(pos++));
+            }
+            input.setLength(0);
+            pos = 0;
+        }
+
+        private void accept(char c)
+        {
+            switch (state)
+                {
+                    case TRAILING:
+                        if (isSpace(c))
+                            return;
+                        state = NONE;
+                        // fall through
+                    case NONE:
+                        if (isSpace(c))
+                        {
+                            candidate.append(c);
+                            state = SPACE;
+                        }
+                        else if (c == '/')
+                        {
+                            spaces = 0;
+                            candidate.append(c);
+                            state = SLASH;
+                        }
+                        else
+                        {
+                            next.put(c);
+                        }
+                        return;
+                    case SPACE:
+                        if (isSpace(c))
+                        {
+                            candidate.append(c);
+                        }
+                        else if (c == '/')
+                        {
+                            spaces = candidate.length();
+                            candidate.append(c);
+                            state = SLASH;
+                        }
+                        else
+                        {
+                            emit(candidate, 0);
+                            candidate.setLength(0);
+                            state = NONE;
+                            next.put(c);
+                        }
+                        return;
+                    case SLASH:
+                        advance(c, c == '*', OPEN);
+                        return;
+                    case OPEN:
+                        if (isSpace(c))
+                            candidate.append(c);
+                        else
+                            advance(c, c == 'G', G);
+                        return;
+                    case G:
+                        advance(c, c == 'L', GL);
+                        return;
+                    case GL:
+                        advance(c, c == '_', GL_);
+                        return;
+                    case GL_:
+                        advance(c, c != '*', BODY);
+                        return;
+                    case BODY:
+                        candidate.append(c);
+                        if (c == '*')
+                            state = STAR;
+                        return;
+                    case STAR:
+                        if (c == '/')
+                        {
+                            candidate.setLength(0);
+                            state = TRAILING;
+                        }
+                        else
+                        {
+                            pos--;
+                            fail();
+                        }
+                        return;
+                }
+        }
+
+        private void advance(char c, boolean matches, int nextState)
+        {
+            if (matches)
+            {
+                candidate.append(c);
+                state = nextState;
+            }
+            else
+            {
+                pos--;
+                fail();
+            }
+        }
+
+        /**
+         * No comment here after all. Starting anywhere in the whitespace before it would fail the same way,
+         * so that and the slash go through, and the rest is looked at again.
+         */
+        private void fail()
+        {
+            for (int i = 0; i <= spaces; i++)
+            {
+                next.put(candidate.charAt(i));
+            }
+            input.insert(pos, candidate, spaces + 1, candidate.length());
+            candidate.setLength(0);
+            state = NONE;
+        }
+    }
+
+    /**
+     * The constant fixes, in the order they used to run in:
+     * <ol>
+     * <li>{@code 1\.7976[0-9]*[Ee]\+308[Dd]} to Double.MAX_VALUE</li>
+     * <li>{@code '\\u([0-9a-fA-F]{4})'} above 255 to the int value</li>
+     * <li>{@code Character\.valueOf\(('.')\)} to {@code $1}</li>
+     * <li>multiples of pi, see {@link #PI}</li>
+     * </ol>
+     * Every fix is checked when the last char it could match is written, against the end of the output. A fix can
+     * only see what the fixes before it wrote, and each fix never matches over its own replacements.
+     */
+    private static final class Literals extends Stage
+    {
+        private static final int      MAX_D    = 0;
+        private static final int      UNICODE  = 1;
+        private static final int      CHARVAL  = 2;
+        private static final int      PI_FIX   = 3;
+
+        private static final String   CHARVAL_START = "Character.valueOf('";
+
+        // digits before the dot, digits after it, replacement for D, replacement for F
+        private static final String[][] PI = {
+                { "3", "1415", "Math.PI", "(float)Math.PI" },
+                { "6", "2831", "(Math.PI * 2D)", "((float)Math.PI * 2F)" },
+                { "1", "5707", "(Math.PI / 2D)", "((float)Math.PI / 2F)" },
+                { "4", "7123", "(Math.PI * 3D / 2D)", "((float)Math.PI * 3F / 2F)" },
+                { "0", "7853", "(Math.PI / 4D)", "((float)Math.PI / 4F)" },
+                { "0", "6283", "(Math.PI / 5D)", "((float)Math.PI / 5F)" },
+                { "57", "295", "(180D / Math.PI)", "(180F / (float)Math.PI)" },
+                { "0", "6981", "(Math.PI * 2D / 9D)", "((float)Math.PI * 2F / 9F)" },
+                { "0", "3141", "(Math.PI / 10D)", "((float)Math.PI / 10F)" },
+                { "1", "2566", "(Math.PI * 2D / 5D)", "((float)Math.PI * 2F / 5F)" },
+                { "0", "21991", "(Math.PI * 7D / 100D)", "((float)Math.PI * 7F / 100F)" },
+                { "5", "8119", "(Math.PI * 185D / 100D)", null },
+                // the F one never did match 5.8119
+                { "0", "8119", null, "((float)Math.PI * 185F / 100F)" },
+        };
+
+        private final StringBuilder out;
+        // per fix, where in the output it may start matching again
+        private final int[]         barrier  = new int[4];
+
+        Literals(int capacity)
+        {
+            super(null);
+            out = new StringBuilder(capacity);
+        }
+
+        @Override
+        void put(char c)
+        {
+            out.append(c);
+            check(c, MAX_D);
+        }
+
+        @Override
+        void end()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return out.toString();
+        }
+
+        private void check(char c, int first)
+        {
+            switch (c)
+                {
+                    case 'D':
+                    case 'd':
+                        if (first <= MAX_D && maxDouble())
+                            return;
+                        if (first <= PI_FIX)
+                            pi(true);
+                        return;
+                    case 'F':
+                    case 'f':
+                        if (first <= PI_FIX)
+                            pi(false);
+                        return;
+                    case '\'':
+                        if (first <= UNICODE)
+                            unicode();
+                        return;
+                    case ')':
+                        if (first <= CHARVAL)
+                            charval();
+                        return;
+                }
+        }
+
+        /**
+         * Swaps the end of the output for the replacement. The fixes after this one get to see it.
+         */
+        private void replace(int start, String with, int fix)
+        {
+            out.setLength(start);
+            for (int i = 0; i < with.length(); i++)
+            {
+                out.append(with.charAt(i));
+                check(with.charAt(i), fix + 1);
+            }
+
+            for (int i = 0; i <= fix; i++)
+            {
+                barrier[i] = out.length();
+            }
+        }
+
+        private boolean maxDouble()
+        {
+            int end = out.length() - 1;
+            if (end < 11 || out.charAt(end - 1) != '8' || out.charAt(end - 2) != '0' || out.charAt(end - 3) != '3' || out.charAt(end - 4) != '+')
+                return false;
+
+            char e = out.charAt(end - 5);
+            if (e != 'E' && e != 'e')
+                return false;
+
+            int dot = end - 6;
+            while (dot >= 0 && isDigit(out.charAt(dot)))
+            {
+                dot--;
+            }
+
+            int start = dot - 1;
+            if (start < barrier[MAX_D] || end - 5 - (dot + 1) < 4 || out.charAt(dot) != '.' || out.charAt(start) != '1' || !startsWith(dot + 1, "7976"))
+                return false;
+
+            replace(start, "Double.MAX_VALUE", MAX_D);
+            return true;
+        }
+
+        private void unicode()
+        {
+            int start = out.length() - 8;
+            if (start < barrier[UNICODE] || out.charAt(start) != '\'' || out.charAt(start + 1) != '\\' || out.charAt(start + 2) != 'u')
+                return;
+
+            int val = 0;
+            for (int i = start + 3; i < start + 7; i++)
+            {
+                char c = out.charAt(i);
+                if (c >= '0' && c <= '9')
+                    val = val * 16 + c - '0';
+                else if (c >= 'a' && c <= 'f')
+                    val = val * 16 + c - 'a' + 10;
+                else if (c >= 'A' && c <= 'F')
+                    val = val * 16 + c - 'A' + 10;
+                else
+                    return;
+            }
+
+            // work around the replace('\u00a7', '$') call in MinecraftServer and a couple of '\u0000'
+            if (val > 255)
+                replace(start, Integer.toString(val), UNICODE);
+            else
+                barrier[UNICODE] = out.length();
+        }
+
+        private void charval()
+        {
+            int start = out.length() - CHARVAL_START.length() - 3;
+            if (start < barrier[CHARVAL] || !startsWith(start, CHARVAL_START))
+                return;
+
+            char value = out.charAt(out.length() - 3);
+            if (isLineEnd(value) || out.charAt(out.length() - 2) != '\'')
+                return;
+
+            replace(start, "'" + value + "'", CHARVAL);
+        }
+
+        private void pi(boolean isDouble)
+        {
+            int end = out.length() - 1;
+            int dot = end - 1;
+            while (dot >= 0 && isDigit(out.charAt(dot)))
+            {
+                dot--;
+            }
+            if (dot < 1 || out.charAt(dot) != '.')
+                return;
+
+            for (String[] fix : PI)
+            {
+                String with = fix[isDouble ? 2 : 3];
+                int start = dot - fix[0].length();
+                if (with != null && start >= barrier[PI_FIX] && end - (dot + 1) >= fix[1].length() && startsWith(start, fix[0]) && startsWith(dot + 1, fix[1]))
+                {
+                    replace(start, with, PI_FIX);
+                    return;
+                }
+            }
+        }
+
+        private boolean startsWith(int start, String text)
+        {
+            if (start < 0 || start + text.length() > out.length())
+                return false;
+
+            for (int i = 0; i < text.length(); i++)
+            {
+                if (out.charAt(start + i) != text.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -22,8 +22,6 @@ package net.minecraftforge.gradle.util.mcp;
 import java.util.Arrays;
 import java.util.List;
 
-import net.minecraftforge.gradle.common.Constants;
-
 import com.google.code.regexp.Matcher;
 import com.google.code.regexp.Pattern;
 import com.google.common.base.Joiner;
@@ -38,11 +36,6 @@ public class FFPatcher
     //private static final Pattern TYPECAST = Pattern.compile("\\([\\w\\.]+\\)");
     private static final Pattern ABSTRACT = Pattern.compile("(?m)^(?<indent>[ \\t\\f\\v]*)(?<modifiers>(?:(?:" + MODIFIERS + ") )*)(?<return>[^ ]+) (?<method>func_(?<number>\\d+)_[a-zA-Z_]+)\\((?<arguments>([^ ,]+ (\\.\\.\\. )?var\\d+,? ?)*)\\)(?: throws (?:[\\w$.]+,? ?)+)?;$");
 
-    // Remove TRAILING whitespace
-    private static final String TRAILING = "(?m)[ \\t]+$";
-
-    //Remove repeated blank lines
-    private static final String NEWLINES = "(?m)^(\\r\\n|\\r|\\n){2,}";
     private static final String EMPTY_SUPER = "(?m)^[ \t]+super\\(\\);(\\r\\n|\\n|\\r)";
 
     // strip TRAILING 0 from doubles and floats to fix decompile differences on OSX
@@ -68,7 +61,8 @@ public class FFPatcher
 //        m.appendTail(out);
 //        text = out.toString();
 //
-        text = text.replaceAll(TRAILING, "");
+        // trailing whitespace and repeated blank lines, in one pass
+        text = CleanupPipeline.trimLines(text);
 //
 //        text = text.replaceAll(TRAILINGZERO, "$1$2");
 //
@@ -77,7 +71,6 @@ public class FFPatcher
 //        processClass(lines, "", 0, "", ""); // mutates the list
 //        text = Joiner.on(Constants.NEWLINE).join(lines);
 //
-        text = text.replaceAll(NEWLINES, Constants.NEWLINE);
         return text;
 //        text = text.replaceAll(EMPTY_SUPER, "");
 //
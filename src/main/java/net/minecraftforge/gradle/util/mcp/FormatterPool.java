@@ -0,0 +1,200 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.github.abrarsyed.jastyle.ASFormatter;
+import com.github.abrarsyed.jastyle.OptParser;
+import com.google.common.base.Throwables;
+
+/**
+ * Formats sources with astyle from any number of threads.
+ * <p>
+ * An ASFormatter keeps state while it formats, so every format call borrows one from the pool and gives it back
+ * when done. There are only ever as many formatters as there were threads formatting at once. Each formatter keeps
+ * its reader and output buffer, so after the first few files formatting hardly makes any garbage.
+ */
+public class FormatterPool
+{
+    private static final int      BUFFER_SIZE = 64 * 1024;
+
+    private final File            config;
+    private final Queue<Instance> idle        = new ConcurrentLinkedQueue<Instance>();
+
+    /**
+     * @param config the astyle config file. It is read right away, so a broken config fails here.
+     */
+    public FormatterPool(File config)
+    {
+        this.config = config;
+        idle.add(new Instance());
+    }
+
+    /**
+     * @param source the full source file
+     * @return the formatted file
+     * @throws IOException if the formatter fails
+     */
+    public String format(String source) throws IOException
+    {
+        Instance instance = idle.poll();
+        if (instance == null)
+            instance = new Instance();
+
+        // one that failed may be stuck halfway through a file, so it is dropped
+        String formatted = instance.format(source);
+        idle.add(instance);
+        return formatted;
+    }
+
+    private class Instance
+    {
+        private final ASFormatter  formatter = new ASFormatter();
+        private final SourceReader reader    = new SourceReader();
+        private final BufferWriter writer    = new BufferWriter();
+
+        Instance()
+        {
+            try
+            {
+                formatter.setUseProperInnerClassIndenting(false);
+                OptParser parser = new OptParser(formatter);
+                parser.parseOptionFile(config);
+            }
+            catch (Exception e)
+            {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        String format(String source) throws IOException
+        {
+            reader.reset(source);
+            writer.buffer.setLength(0);
+            try
+            {
+                formatter.format(reader, writer);
+                return writer.buffer.toString();
+            }
+            finally
+            {
+                reader.reset(null);
+                // don't hang on to the space of one giant file
+                if (writer.buffer.capacity() > BUFFER_SIZE * 16)
+                    writer.buffer = new StringBuilder(BUFFER_SIZE);
+            }
+        }
+    }
+
+    /**
+     * A StringReader that can be pointed at another string.
+     */
+    private static final class SourceReader extends Reader
+    {
+        private String text;
+        private int    pos;
+
+        void reset(String text)
+        {
+            this.text = text;
+            this.pos = 0;
+        }
+
+        @Override
+        public int read()
+        {
+            return pos < text.length() ? text.charAt(pos++) : -1;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len)
+        {
+            if (len == 0)
+                return 0;
+            if (pos >= text.length())
+                return -1;
+
+            int n = Math.min(len, text.length() - pos);
+            text.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public boolean ready()
+        {
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * A StringWriter that is not synchronized, and whose buffer is kept between files.
+     */
+    private static final class BufferWriter extends Writer
+    {
+        private StringBuilder buffer = new StringBuilder(BUFFER_SIZE);
+
+        @Override
+        public void write(int c)
+        {
+            buffer.append((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len)
+        {
+            buffer.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len)
+        {
+            buffer.append(str, off, off + len);
+        }
+
+        @Override
+        public Writer append(CharSequence csq)
+        {
+            buffer.append(csq);
+            return this;
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -31,9 +31,12 @@ import net.minecraftforge.gradle.util.json.GLConstantGroup;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
 import com.google.gson.reflect.TypeToken;
 
+import gnu.trove.TIntObjectHashMap;
+
 public class GLConstantFixer
 {
     //@formatter:off
@@ -52,9 +55,10 @@ public class GLConstantFixer
     };
     //@formatter:on
 
-    private final List<GLConstantGroup> json;
+    /** package -> method -> literal -> constant, compiled from gl.json */
+    private final Map<String, Map<String, TIntObjectHashMap<String>>> constants = Maps.newHashMap();
+
     private static final Pattern        CALL_REGEX     = Pattern.compile("(" + Joiner.on("|").join(PACKAGES) + ")\\.([\\w]+)\\(.+\\)");
-    private static final Pattern        CONSTANT_REGEX = Pattern.compile("(?<![-.\\w])\\d+(?![.\\w])");
     private static final String         ADD_AFTER      = "org.lwjgl.opengl.GL11";
     private static final String         CHECK          = "org.lwjgl.opengl.";
     private static final String         IMPORT_CHECK   = "import " + CHECK;
@@ -63,7 +67,39 @@ public class GLConstantFixer
     public GLConstantFixer() throws IOException
     {
         String text = Resources.toString(Resources.getResource(GLConstantFixer.class, "gl.json"), Charset.defaultCharset());
-        json = JsonFactory.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {}.getType());
+        List<GLConstantGroup> json = JsonFactory.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {}.getType());
+
+        // later groups and constant classes win, like they did when the json was searched for every literal.
+        for (GLConstantGroup group : json)
+        {
+            for (Map.Entry<String, List<String>> function : group.functions.entrySet())
+            {
+                Map<String, TIntObjectHashMap<String>> methods = constants.get(function.getKey());
+                if (methods == null)
+                {
+                    methods = Maps.newHashMap();
+                    constants.put(function.getKey(), methods);
+                }
+
+                for (String method : function.getValue())
+                {
+                    TIntObjectHashMap<String> table = methods.get(method);
+                    if (table == null)
+                    {
+                        table = new TIntObjectHashMap<String>();
+                        methods.put(method, table);
+                    }
+
+                    for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet())
+                    {
+                        for (Map.Entry<String, String> constant : entry.getValue().entrySet())
+                        {
+                            table.put(Integer.parseInt(constant.getKey()), entry.getKey() + "." + constant.getValue());
+                        }
+                    }
+                }
+            }
+        }
     }
 
     public String fixOGL(String text)
@@ -76,90 +112,144 @@ public class GLConstantFixer
 
         text = annotateConstants(text);
 
-        for (String pack : PACKAGES)
+        // every package used needs its import. each one used to be added right after GL11, so the last comes first.
+        StringBuilder imports = new StringBuilder();
+        boolean[] used = findUsedPackages(text);
+        for (int i = 0; i < PACKAGES.length; i++)
         {
-            if (text.contains(pack + "."))
+            String imp = "import " + CHECK + PACKAGES[i] + ";";
+            if (used[i] && !text.contains(imp))
             {
-                text = updateImports(text, CHECK + pack);
+                imports.insert(0, Constants.NEWLINE + imp);
             }
         }
 
+        if (imports.length() > 0)
+        {
+            text = text.replace(IMPORT_REPLACE, IMPORT_REPLACE + imports);
+        }
+
         return text;
     }
 
+    /**
+     * @return for every package, whether the text has its name followed by a dot anywhere
+     */
+    private static boolean[] findUsedPackages(String text)
+    {
+        boolean[] used = new boolean[PACKAGES.length];
+        for (int dot = text.indexOf('.'); dot >= 0; dot = text.indexOf('.', dot + 1))
+        {
+            for (int i = 0; i < PACKAGES.length; i++)
+            {
+                int start = dot - PACKAGES[i].length();
+                if (!used[i] && start >= 0 && text.regionMatches(start, PACKAGES[i], 0, PACKAGES[i].length()))
+                {
+                    used[i] = true;
+                }
+            }
+        }
+        return used;
+    }
+
     private String annotateConstants(String text)
     {
         Matcher rootMatch = CALL_REGEX.matcher(text);
-        String pack, method, fullCall;
-        StringBuffer out = new StringBuffer(text.length());
-        StringBuffer innerOut;
+        StringBuffer out = null;
 
         // search with regex.
         while (rootMatch.find())
         {
-            // helper variables
-            fullCall = rootMatch.group();
-            pack = rootMatch.group(1);
-            method = rootMatch.group(2);
+            Map<String, TIntObjectHashMap<String>> methods = constants.get(rootMatch.group(1));
+            TIntObjectHashMap<String> table = methods == null ? null : methods.get(rootMatch.group(2));
+            if (table == null)
+            {
+                continue;
+            }
 
-            Matcher constantMatcher = CONSTANT_REGEX.matcher(fullCall);
-            innerOut = new StringBuffer(fullCall.length());
+            if (out == null)
+            {
+                out = new StringBuffer(text.length() + 1024);
+            }
 
-            // search for hardcoded numbers
-            while (constantMatcher.find())
+            rootMatch.appendReplacement(out, "");
+            replaceConstants(text, rootMatch.start(), rootMatch.end(), table, out);
+        }
+
+        if (out == null)
+        {
+            return text;
+        }
+
+        rootMatch.appendTail(out);
+        return out.toString();
+    }
+
+    /**
+     * Copies the call to the output, with every integer literal that is a known constant replaced by its name.
+     * A literal is a run of digits that is not part of a word, a decimal or a negative number.
+     */
+    private static void replaceConstants(String text, int start, int end, TIntObjectHashMap<String> table, StringBuffer out)
+    {
+        int copied = start;
+        int i = start;
+        while (i < end)
+        {
+            if (!isDigit(text.charAt(i)))
             {
-                // helper variables and return variable.
-                String constant = constantMatcher.group();
-                String answer = null;
+                i++;
+                continue;
+            }
 
-                // iterrate over the JSON
-                for (GLConstantGroup group : json)
-                {
+            int digits = i;
+            while (i < end && isDigit(text.charAt(i)))
+            {
+                i++;
+            }
 
-                    // ensure that the package and method are defined
-                    if (group.functions.containsKey(pack) && group.functions.get(pack).contains(method))
-                    {
-                        // itterrate through the map.
-                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet())
-                        {
-                            // find the actual constant for the number from the regex
-                            if (entry.getValue().containsKey(constant))
-                            {
-                                // construct the final line
-                                answer = entry.getKey() + "." + entry.getValue().get(constant);
-                            }
-                        }
-                    }
+            if (digits > start)
+            {
+                char before = text.charAt(digits - 1);
+                if (before == '-' || before == '.' || isWordChar(before))
+                    continue;
+            }
+            if (i < end)
+            {
+                char after = text.charAt(i);
+                if (after == '.' || isWordChar(after))
+                    continue;
+            }
 
-                }
+            // gl.json only has plain ints, so nothing else can be a constant
+            int length = i - digits;
+            if (length > 9 || (length > 1 && text.charAt(digits) == '0'))
+                continue;
 
-                // replace the final line.
-                if (answer != null)
-                {
-                    constantMatcher.appendReplacement(innerOut, Matcher.quoteReplacement(answer));
-                }
+            int value = 0;
+            for (int j = digits; j < i; j++)
+            {
+                value = value * 10 + (text.charAt(j) - '0');
             }
-            constantMatcher.appendTail(innerOut);
 
-            // replace the final line.
-            if (fullCall != null)
+            String constant = table.get(value);
+            if (constant != null)
             {
-                rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
+                out.append(text, copied, digits);
+                out.append(constant);
+                copied = i;
             }
         }
-        rootMatch.appendTail(out);
-
-        return out.toString();
+        out.append(text, copied, end);
     }
 
-    private static String updateImports(String text, String imp)
+    private static boolean isDigit(char c)
     {
-        if (!text.contains("import " + imp + ";"))
-        {
-            text = text.replace(IMPORT_REPLACE, IMPORT_REPLACE + Constants.NEWLINE + "import " + imp + ";");
-        }
+        return c >= '0' && c <= '9';
+    }
 
-        return text;
+    private static boolean isWordChar(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
     }
 
 }
@@ -0,0 +1,253 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.CacheFiles;
+
+import org.gradle.api.Project;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * Reads the MCP mapping CSVs (methods.csv, fields.csv and params.csv) once, and shares them with every task that
+ * needs them for as long as the daemon runs.
+ * <p>
+ * Mappings are kept by the hash of the CSV, so tasks that read the same CSV from different places still share
+ * them. The first time a CSV is read it is also compiled into a small binary file in the store folder, which later
+ * builds map and read instead of parsing the CSV again. The returned mappings must not be changed.
+ */
+public final class MappingStore
+{
+    private static final int                     MAGIC  = 0x4D435331; // MCS1
+    private static final Cache<String, Mappings> LOADED = CacheBuilder.newBuilder().softValues().build();
+
+    private MappingStore()
+    {
+    }
+
+    /**
+     * Finds the folder compiled CSVs are kept in, and trims it down to the cache size cap.
+     * @param project the project to find the Gradle user home of
+     * @return the folder compiled CSVs are kept in
+     */
+    public static File getStoreDir(Project project)
+    {
+        File storeDir = CacheFiles.getCacheDir(project, null, "mappingStore");
+        CacheFiles.trim(project, storeDir);
+        return storeDir;
+    }
+
+    /**
+     * @param csv an MCP mapping CSV, with the SRG names in the first column and the MCP names in the second
+     * @param storeDir the folder to keep compiled CSVs in, or NULL to only keep them in memory
+     * @return the mappings in the CSV
+     * @throws IOException if the CSV could not be read
+     */
+    public static Mappings read(final File csv, final File storeDir) throws IOException
+    {
+        final String hash = Constants.hash(csv, "SHA-1");
+        if (hash == null)
+            throw new IOException("Could not read " + csv);
+
+        try
+        {
+            return LOADED.get(hash, new Callable<Mappings>() {
+                @Override
+                public Mappings call() throws IOException
+                {
+                    return load(csv, storeDir == null ? null : new File(storeDir, hash + ".bin"));
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static Mappings load(File csv, File compiled) throws IOException
+    {
+        if (compiled != null && compiled.isFile())
+        {
+            try
+            {
+                Mappings mappings = readCompiled(compiled);
+                CacheFiles.touch(compiled);
+                return mappings;
+            }
+            catch (IOException e)
+            {
+                // broken somehow, just compile it again.
+                compiled.delete();
+            }
+        }
+
+        Map<String, String> names = Maps.newHashMap();
+        Map<String, String> docs = Maps.newHashMap();
+
+        CSVReader reader = Constants.getReader(csv);
+        List<String[]> lines = reader.readAll();
+        reader.close();
+
+        for (String[] s : lines)
+        {
+            names.put(s[0], s[1]);
+            // a later row without a comment keeps the javadoc of an earlier one, like RemapSources did
+            if (s.length > 3 && !Strings.isNullOrEmpty(s[3]))
+                docs.put(s[0], s[3]);
+        }
+
+        if (compiled != null)
+            writeCompiled(compiled, names, docs);
+
+        return new Mappings(names, docs);
+    }
+
+    private static Mappings readCompiled(File compiled) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(compiled, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buf.getInt() != MAGIC)
+                throw new IOException("Not a compiled mapping CSV: " + compiled);
+
+            int count = buf.getInt();
+            Map<String, String> names = Maps.newHashMapWithExpectedSize(count);
+            Map<String, String> docs = Maps.newHashMap();
+            for (int i = 0; i < count; i++)
+            {
+                String srg = readString(buf);
+                names.put(srg, readString(buf));
+
+                String doc = readString(buf);
+                if (!doc.isEmpty())
+                    docs.put(srg, doc);
+            }
+
+            return new Mappings(names, docs);
+        }
+        catch (BufferUnderflowException | NegativeArraySizeException e)
+        {
+            throw new IOException("Truncated compiled mapping CSV: " + compiled, e);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private static String readString(ByteBuffer buf)
+    {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, Constants.CHARSET);
+    }
+
+    private static void writeCompiled(File compiled, final Map<String, String> names, final Map<String, String> docs)
+    {
+        try
+        {
+            CacheFiles.write(compiled, new CacheFiles.Contents() {
+                @Override
+                public void write(OutputStream stream) throws IOException
+                {
+                    DataOutputStream out = new DataOutputStream(stream);
+                    out.writeInt(MAGIC);
+                    out.writeInt(names.size());
+                    for (Map.Entry<String, String> e : names.entrySet())
+                    {
+                        writeString(out, e.getKey());
+                        writeString(out, e.getValue());
+                        writeString(out, Strings.nullToEmpty(docs.get(e.getKey())));
+                    }
+                    out.flush();
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            // not stored then, the CSV is just parsed again next time.
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        byte[] bytes = str.getBytes(Constants.CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The names and javadocs of one CSV, by SRG name.
+     */
+    public static final class Mappings
+    {
+        private final Map<String, String> names;
+        private final Map<String, String> docs;
+
+        private Mappings(Map<String, String> names, Map<String, String> docs)
+        {
+            this.names = Collections.unmodifiableMap(names);
+            this.docs = Collections.unmodifiableMap(docs);
+        }
+
+        /**
+         * @return the MCP names, by SRG name
+         */
+        public Map<String, String> getNames()
+        {
+            return names;
+        }
+
+        /**
+         * @param srg the SRG name
+         * @return the javadoc of the name, or NULL if it has none
+         */
+        public String getDoc(String srg)
+        {
+            return docs.get(srg);
+        }
+    }
+}
@@ -118,18 +118,8 @@ public class ReobfExceptor
         for (File f : csvs)
         {
             if (f == null) continue;
-           
-            Files.readLines(f, Charset.defaultCharset(), new LineProcessor<Object>()
-            {
-                @Override
-                public boolean processLine(String line) throws IOException
-                {
-                    String[] s = line.split(",");
-                    csvData.put(s[0], s[1]);
-                    return true;
-                }
-                @Override public Object getResult() { return null; }
-            });
+
+            csvData.putAll(MappingStore.read(f, null).getNames());
         }
         
         return csvData;
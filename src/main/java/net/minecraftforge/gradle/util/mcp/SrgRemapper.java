@@ -0,0 +1,492 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+import gnu.trove.TIntObjectHashMap;
+
+/**
+ * Replaces SRG names (func_N_x, field_N_x and p_N_M_) in source files with their MCP names, and optionally adds the
+ * MCP javadocs above the methods and fields they belong to.
+ * <p>
+ * Each file is scanned once, character by character, and names are found by their prefix and looked up by their
+ * numeric id. This gives exactly the same output as matching
+ * <pre>func_[0-9]+_[a-zA-Z_]+|field_[0-9]+_[a-zA-Z_]+|p_[\w]+_\d+_\b</pre>
+ * on every line, with the lines joined back together with {@link Constants#NEWLINE}.
+ * <p>
+ * The names must all be added before the remapper is used. After that it may be used from several threads at once.
+ */
+public final class SrgRemapper
+{
+    private final NameTable methods = new NameTable();
+    private final NameTable fields  = new NameTable();
+    private final NameTable params  = new NameTable();
+
+    /**
+     * @param srg the SRG name of the method
+     * @param name the MCP name of the method
+     * @param javadoc the javadoc of the method, may be NULL or empty
+     */
+    public void addMethod(String srg, String name, String javadoc)
+    {
+        methods.put(srg, name, javadoc);
+    }
+
+    /**
+     * @param srg the SRG name of the field
+     * @param name the MCP name of the field
+     * @param javadoc the javadoc of the field, may be NULL or empty
+     */
+    public void addField(String srg, String name, String javadoc)
+    {
+        fields.put(srg, name, javadoc);
+    }
+
+    /**
+     * @param srg the SRG name of the parameter
+     * @param name the MCP name of the parameter
+     */
+    public void addParam(String srg, String name)
+    {
+        params.put(srg, name, null);
+    }
+
+    /**
+     * @param text the source file
+     * @param javadocs whether to add the javadocs of methods and fields
+     * @return the remapped source, with all line endings changed to {@link Constants#NEWLINE}
+     */
+    public String remap(String text, boolean javadocs)
+    {
+        char[] buf = text.toCharArray();
+        Output out = new Output(buf.length);
+
+        int pos = 0;
+        while (pos < buf.length)
+        {
+            int end = pos;
+            while (end < buf.length && buf[end] != '\n' && buf[end] != '\r')
+                end++;
+
+            if (javadocs)
+                injectJavadoc(buf, pos, end, out);
+
+            out.startLine();
+            remapLine(buf, pos, end, out.builder);
+
+            // \n, \r\n or \r
+            pos = end + 1;
+            if (end < buf.length && buf[end] == '\r' && pos < buf.length && buf[pos] == '\n')
+                pos++;
+        }
+
+        return out.builder.toString();
+    }
+
+    private void remapLine(char[] buf, int start, int end, StringBuilder out)
+    {
+        int copied = start;
+        int i = start;
+        while (i < end)
+        {
+            NameTable table = null;
+            int tokenEnd = -1;
+
+            char c = buf[i];
+            if (c == 'f')
+            {
+                if (startsWith(buf, i, end, "func_"))
+                {
+                    table = methods;
+                    tokenEnd = matchName(buf, i + 5, end);
+                }
+                else if (startsWith(buf, i, end, "field_"))
+                {
+                    table = fields;
+                    tokenEnd = matchName(buf, i + 6, end);
+                }
+            }
+            else if (c == 'p' && i + 1 < end && buf[i + 1] == '_')
+            {
+                table = params;
+                tokenEnd = matchParam(buf, i, end);
+            }
+
+            if (tokenEnd < 0)
+            {
+                i++;
+                continue;
+            }
+
+            Name name = table.get(buf, i, tokenEnd);
+            if (name != null)
+            {
+                out.append(buf, copied, i - copied);
+                out.append(name.name);
+                copied = tokenEnd;
+            }
+            i = tokenEnd;
+        }
+        out.append(buf, copied, end - copied);
+    }
+
+    /**
+     * Looks for a method or field declaration on the line, and adds its javadoc above the line and any annotations
+     * on the lines before it. A declaration is an indent of tabs or groups of 4 spaces, one or more words each
+     * followed by a single space, then the SRG name followed by "(" for methods or by "=" or ";" for fields.
+     */
+    private void injectJavadoc(char[] buf, int start, int end, Output out)
+    {
+        int indentEnd = start;
+        if (start < end && buf[start] == '\t')
+        {
+            while (indentEnd < end && buf[indentEnd] == '\t')
+                indentEnd++;
+        }
+        else
+        {
+            while (indentEnd < end && buf[indentEnd] == ' ')
+                indentEnd++;
+
+            if ((indentEnd - start) % 4 != 0)
+                return;
+        }
+
+        if (indentEnd == start)
+            return;
+
+        int pos = indentEnd;
+        while (true)
+        {
+            // a word followed by a single space
+            int wordEnd = pos;
+            while (wordEnd < end && isTypeChar(buf[wordEnd]))
+                wordEnd++;
+
+            if (wordEnd == pos || wordEnd >= end || buf[wordEnd] != ' ')
+                return;
+
+            pos = wordEnd + 1;
+
+            if (startsWith(buf, pos, end, "func_"))
+            {
+                int nameEnd = matchName(buf, pos + 5, end);
+                if (nameEnd >= 0 && nameEnd < end && buf[nameEnd] == '(')
+                {
+                    addJavadoc(methods.get(buf, pos, nameEnd), new String(buf, start, indentEnd - start), true, out);
+                    return;
+                }
+            }
+            else if (startsWith(buf, pos, end, "field_"))
+            {
+                int nameEnd = matchName(buf, pos + 6, end);
+                if (nameEnd >= 0)
+                {
+                    int after = nameEnd;
+                    while (after < end && buf[after] == ' ')
+                        after++;
+
+                    if (after < end && (buf[after] == '=' || buf[after] == ';'))
+                    {
+                        addJavadoc(fields.get(buf, pos, nameEnd), new String(buf, start, indentEnd - start), false, out);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addJavadoc(Name name, String indent, boolean isMethod, Output out)
+    {
+        if (name == null || Strings.isNullOrEmpty(name.javadoc))
+            return;
+
+        String javadoc = JavadocAdder.buildJavadoc(indent, name.javadoc, isMethod);
+
+        int index = out.lines;
+        while (index > 0 && out.isAnnotation(index - 1))
+        {
+            index--;
+        }
+        out.insertLine(index, javadoc);
+    }
+
+    /**
+     * @param from index just after the "func_" or "field_" prefix
+     * @return the end of the name, or -1 if there is no name here
+     */
+    private static int matchName(char[] buf, int from, int end)
+    {
+        int i = from;
+        while (i < end && isDigit(buf[i]))
+            i++;
+
+        if (i == from || i >= end || buf[i] != '_')
+            return -1;
+
+        int suffix = ++i;
+        while (i < end && isNameChar(buf[i]))
+            i++;
+
+        return i == suffix ? -1 : i;
+    }
+
+    /**
+     * Matches p_[\w]+_\d+_\b starting at the "p_".
+     * @return the end of the parameter name, or -1 if there is none here
+     */
+    private static int matchParam(char[] buf, int from, int end)
+    {
+        int wordEnd = from + 2;
+        while (wordEnd < end && isWordChar(buf[wordEnd]))
+            wordEnd++;
+
+        // the name has to end at a word boundary, and the last character before it has to be the last _
+        if (wordEnd < end && (Character.isLetterOrDigit(buf[wordEnd]) || buf[wordEnd] == '_'))
+            return -1;
+        if (buf[wordEnd - 1] != '_')
+            return -1;
+
+        int last = wordEnd - 1;
+        int digits = last;
+        while (digits > from + 2 && isDigit(buf[digits - 1]))
+            digits--;
+
+        // at least one digit, and something between the p_ and the _ before the digits
+        if (digits == last || digits - 1 < from + 3 || buf[digits - 1] != '_')
+            return -1;
+
+        return wordEnd;
+    }
+
+    private static boolean startsWith(char[] buf, int from, int end, String prefix)
+    {
+        if (end - from < prefix.length())
+            return false;
+
+        for (int i = 0; i < prefix.length(); i++)
+        {
+            if (buf[from + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameChar(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isWordChar(char c)
+    {
+        return isNameChar(c) || isDigit(c);
+    }
+
+    private static boolean isTypeChar(char c)
+    {
+        return isWordChar(c) || c == '$' || c == '.' || c == '[' || c == ']';
+    }
+
+    /**
+     * The number in an SRG name, used to look it up. The first run of digits is the method or field id,
+     * and the method id for parameters.
+     * @return the id, or -1 if there is none or it does not fit in an int
+     */
+    private static int idOf(char[] buf, int from, int to)
+    {
+        int i = from;
+        while (i < to && !isDigit(buf[i]))
+            i++;
+
+        int start = i;
+        int id = 0;
+        while (i < to && isDigit(buf[i]))
+        {
+            if (i - start >= 9)
+                return -1;
+            id = id * 10 + (buf[i] - '0');
+            i++;
+        }
+
+        return i == start ? -1 : id;
+    }
+
+    private static class Name
+    {
+        final String srg;
+        String       name;
+        String       javadoc;
+        Name         next;
+
+        Name(String srg)
+        {
+            this.srg = srg;
+        }
+
+        boolean matches(char[] buf, int from, int to)
+        {
+            if (srg.length() != to - from)
+                return false;
+
+            for (int i = 0; i < srg.length(); i++)
+            {
+                if (srg.charAt(i) != buf[from + i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * SRG names by their id. Names with the same id (like the parameters of one method) are chained together.
+     * The few names without a usable id are kept by name.
+     */
+    private static class NameTable
+    {
+        private final TIntObjectHashMap<Name> byId   = new TIntObjectHashMap<Name>();
+        private final Map<String, Name>       byName = Maps.newHashMap();
+
+        void put(String srg, String name, String javadoc)
+        {
+            Name entry;
+            int id = idOf(srg.toCharArray(), 0, srg.length());
+            if (id < 0)
+            {
+                entry = byName.get(srg);
+                if (entry == null)
+                {
+                    entry = new Name(srg);
+                    byName.put(srg, entry);
+                }
+            }
+            else
+            {
+                Name head = byId.get(id);
+                entry = head;
+                while (entry != null && !entry.srg.equals(srg))
+                    entry = entry.next;
+
+                if (entry == null)
+                {
+                    entry = new Name(srg);
+                    entry.next = head;
+                    byId.put(id, entry);
+                }
+            }
+
+            entry.name = name;
+
+            // a later line without a javadoc keeps the earlier one
+            if (!Strings.isNullOrEmpty(javadoc))
+                entry.javadoc = javadoc;
+        }
+
+        Name get(char[] buf, int from, int to)
+        {
+            int id = idOf(buf, from, to);
+            if (id < 0)
+                return byName.get(new String(buf, from, to - from));
+
+            for (Name entry = byId.get(id); entry != null; entry = entry.next)
+            {
+                if (entry.matches(buf, from, to))
+                    return entry;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The output of a file, and where each of its lines starts so javadocs can be put above annotations.
+     * A javadoc counts as a single line, like the list of lines this used to be.
+     */
+    private static class Output
+    {
+        final StringBuilder builder;
+        int[]               starts = new int[256];
+        int                 lines  = 0;
+
+        Output(int size)
+        {
+            builder = new StringBuilder(size + size / 8);
+        }
+
+        /**
+         * Starts a new line at the end of the output.
+         */
+        void startLine()
+        {
+            if (lines > 0)
+                builder.append(Constants.NEWLINE);
+
+            if (lines == starts.length)
+                starts = Arrays.copyOf(starts, lines * 2);
+            starts[lines++] = builder.length();
+        }
+
+        boolean isAnnotation(int line)
+        {
+            int end = line + 1 < lines ? starts[line + 1] - Constants.NEWLINE.length() : builder.length();
+            for (int i = starts[line]; i < end; i++)
+            {
+                char c = builder.charAt(i);
+                if (c > ' ')
+                    return c == '@';
+            }
+            return false;
+        }
+
+        void insertLine(int index, String text)
+        {
+            if (index == lines)
+            {
+                startLine();
+                builder.append(text);
+                return;
+            }
+
+            int at = starts[index];
+            builder.insert(at, text + Constants.NEWLINE);
+
+            if (lines == starts.length)
+                starts = Arrays.copyOf(starts, lines * 2);
+
+            int shift = text.length() + Constants.NEWLINE.length();
+            for (int i = lines; i > index; i--)
+            {
+                starts[i] = starts[i - 1] + shift;
+            }
+            starts[index] = at;
+            lines++;
+        }
+    }
+}
@@ -42,11 +42,14 @@ package net.minecraftforge.gradle.util.patching;
 
 import com.cloudbees.diff.Hunk;
 import com.cloudbees.diff.PatchException;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -70,6 +73,7 @@ public final class ContextualPatch
     private final Pattern normalChangeRangePattern = Pattern.compile("(\\d+),(\\d+)c(\\d+),(\\d+)");
     private final Pattern normalAddRangePattern = Pattern.compile("(\\d+)a(\\d+),(\\d+)");
     private final Pattern normalDeleteRangePattern = Pattern.compile("(\\d+),(\\d+)d(\\d+)");
+    private static final Pattern WHITESPACE = Pattern.compile("[\t| ]+");
     private final Pattern binaryHeaderPattern = Pattern.compile("MIME: (.*?); encoding: (.*?); length: (-?\\d+?)");
 
     private final File patchFile;
@@ -87,6 +91,8 @@ public final class ContextualPatch
     private String patchLine;
     private boolean patchLineRead;
     private int lastPatchedLine;    // the last line that was successfuly patched
+    private LineIndex lineIndex;    // where the lines of the current target are
+    private int edits;              // how many hunks were applied for real, to tell when lineIndex is out of date
 
     public static ContextualPatch create(File patchFile, File context)
     {
@@ -183,8 +189,39 @@ public final class ContextualPatch
         }
     }
 
+    /**
+     * Reads the patch without applying it.
+     * @return the paths of the files the patch changes, as written in the patch
+     * @throws PatchException for a malformed patch file
+     * @throws IOException because it reads the patch file
+     */
+    public List<String> getTargets() throws PatchException, IOException
+    {
+        List<String> targets = new ArrayList<String>();
+        init();
+        try
+        {
+            patchLine = patchReader.readLine();
+            for (; ; )
+            {
+                SinglePatch patch = getNextPatch();
+                if (patch == null)
+                {
+                    break;
+                }
+                targets.add(patch.targetPath);
+            }
+            return targets;
+        }
+        finally
+        {
+            patchReader.close();
+        }
+    }
+
     private void init() throws IOException
     {
+        patchLineRead = false;
         if (patchString != null)
         {
             //Just read the string as is, without trying to read the magic/encoding as the string shuldn't need encoding!
@@ -443,7 +480,9 @@ public final class ContextualPatch
         {
             return idx;
         }
-        else
+
+        int[] candidates = findCandidates(target, hunk, fuzz);
+        if (candidates == null)
         {
             // try to search for the context
             for (int i = idx - 1; i >= lastPatchedLine; i--)
@@ -461,15 +500,156 @@ public final class ContextualPatch
                 }
             }
         }
+        else
+        {
+            // only try the places the context could match, in the same order as the search above
+            int split = Arrays.binarySearch(candidates, idx);
+            int below = split >= 0 ? split - 1 : -split - 2;
+            int above = split >= 0 ? split + 1 : -split - 1;
+
+            for (int n = below; n >= 0 && candidates[n] >= lastPatchedLine; n--)
+            {
+                if (applyHunk(target, hunk, candidates[n], true, fuzz, hunkID).getStatus().isSuccess())
+                {
+                    return candidates[n];
+                }
+            }
+            for (int n = above; n < candidates.length && candidates[n] < target.size(); n++)
+            {
+                if (applyHunk(target, hunk, candidates[n], true, fuzz, hunkID).getStatus().isSuccess())
+                {
+                    return candidates[n];
+                }
+            }
+        }
         return -1;
     }
 
+    /**
+     * Finds where the hunk could start by looking up one of the lines that has to match in the line index of the target.
+     * @return the sorted 1-based start lines worth trying, or null if no line of the hunk has to match at this fuzz
+     */
+    private int[] findCandidates(List<String> target, Hunk hunk, int fuzz)
+    {
+        // the forward search can start above the last patched line, where the edits so far moved lines around.
+        boolean searchesEdited = hunk.modifiedStart + 1 < lastPatchedLine;
+        if (lineIndex == null || lineIndex.target != target || (searchesEdited && lineIndex.edits != edits))
+        {
+            lineIndex = new LineIndex(target);
+        }
+
+        // the rarest line that has to match exactly gives the fewest places to check
+        List<Integer> anchor = null;
+        int anchorOffset = 0;
+        int offset = 0;
+        for (int hunkIdx = 0; hunkIdx < hunk.lines.size(); hunkIdx++)
+        {
+            String hunkLine = hunk.lines.get(hunkIdx);
+            if (isAdditionLine(hunkLine))
+            {
+                continue;
+            }
+
+            boolean fuzzed = !isRemovalLine(hunkLine) && (hunkIdx < fuzz || hunkIdx >= hunk.lines.size() - fuzz);
+            if (!fuzzed)
+            {
+                List<Integer> positions = lineIndex.get(hunkLine.substring(1));
+                if (anchor == null || positions.size() < anchor.size())
+                {
+                    anchor = positions;
+                    anchorOffset = offset;
+                }
+            }
+            offset++;
+        }
+
+        if (anchor == null)
+        {
+            return null;
+        }
+
+        // every edit since the index was built was above lastPatchedLine,
+        // so the lines from there on only moved by the change in size.
+        boolean exact = lineIndex.edits == edits;
+        int shift = exact ? 0 : target.size() - lineIndex.size;
+        int[] ret = new int[anchor.size()];
+        int count = 0;
+        for (int pos : anchor)
+        {
+            int line = pos + shift;
+            int start = line - anchorOffset + 1;
+            if (start >= 1 && (exact || line >= lastPatchedLine - 1))
+            {
+                ret[count++] = start;
+            }
+        }
+        return Arrays.copyOf(ret, count);
+    }
+
+    /**
+     * Lines of a target file by their canonical form, so a hunk can be located without trying every line.
+     * Lines that are {@link ContextualPatch#similar(String, String, char) similar} always have the same key.
+     */
+    private class LineIndex
+    {
+        private final List<String>                  target;
+        private final int                           size;
+        private final int                           edits;
+        private final ListMultimap<String, Integer> positions = ArrayListMultimap.create();
+
+        LineIndex(List<String> target)
+        {
+            this.target = target;
+            this.size = target.size();
+            this.edits = ContextualPatch.this.edits;
+
+            for (int i = 0; i < size; i++)
+            {
+                positions.put(key(target.get(i)), i);
+            }
+        }
+
+        List<Integer> get(String line)
+        {
+            return positions.get(key(line));
+        }
+
+        private String key(String line)
+        {
+            if (c14nWhitespace)
+            {
+                line = WHITESPACE.matcher(line).replaceAll(" ");
+            }
+
+            if (!c14nAccess)
+            {
+                return line;
+            }
+
+            // modifiers are skipped and any two labels match
+            StringBuilder buf = new StringBuilder(line.length());
+            for (String part : line.split(" "))
+            {
+                if (isAccess(part))
+                {
+                    continue;
+                }
+                buf.append(isLabel(part) ? "\0" : part).append(' ');
+            }
+            return buf.toString();
+        }
+    }
+
     /**
      * @return true if the application succeeded
      */
     private HunkReport applyHunk(List<String> target, Hunk hunk, int idx, boolean dryRun, int fuzz, int hunkID) throws PatchException
     {
         int startIdx = idx;
+        if (!dryRun)
+        {
+            edits++;
+        }
         idx--; // indices in the target list are 0-based
         int hunkIdx = -1;
         for (String hunkLine : hunk.lines)
@@ -1249,8 +1429,8 @@ public final class ContextualPatch
         {
             if (c14nWhitespace)
             {
-                target = target.replaceAll("[\t| ]+", " ");
-                hunk = hunk.replaceAll("[\t| ]+", " ");
+                target = WHITESPACE.matcher(target).replaceAll(" ");
+                hunk = WHITESPACE.matcher(hunk).replaceAll(" ");
             }
             String[] t = target.split(" ");
             String[] h = hunk.split(" ");
@@ -1289,7 +1469,7 @@ public final class ContextualPatch
         }
         if (c14nWhitespace)
         {
-            return target.replaceAll("[\t| ]+", " ").equals(hunk.replaceAll("[\t| ]+", " "));
+            return WHITESPACE.matcher(target).replaceAll(" ").equals(WHITESPACE.matcher(hunk).replaceAll(" "));
         }
         else
         {
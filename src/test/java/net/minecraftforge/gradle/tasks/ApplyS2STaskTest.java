@@ -0,0 +1,146 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Remaps the same sources on one and on several threads, and expects the same jar.
+ */
+public class ApplyS2STaskTest
+{
+    private static final int FILES = 60;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private Project        project;
+    private File           sources;
+    private File           srg;
+    private File           rangeMap;
+
+    @Before
+    public void setup() throws IOException
+    {
+        project = ProjectBuilder.builder().withProjectDir(temp.getRoot()).build();
+
+        sources = temp.newFile("sources.jar");
+        List<String> ranges = Lists.newArrayList();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(sources));
+        try
+        {
+            for (int i = 0; i < FILES; i++)
+            {
+                // spread over a few packages, so the jar isn't in name order
+                String pkg = "a.p" + (i * 7 % 5);
+                String name = "C" + i;
+                String path = pkg.replace('.', '/') + "/" + name + ".java";
+                String text = "package " + pkg + ";\n\npublic class " + name + "\n{\n    private int x" + i + ";\n}\n";
+                out.putNextEntry(new ZipEntry(path));
+                out.write(text.getBytes(Constants.CHARSET));
+                out.closeEntry();
+
+                int start = text.indexOf(name + "\n");
+                ranges.add("startProcessing \"" + path + "\" md5: 0");
+                ranges.add("@|" + path + "|" + start + "|" + (start + name.length()) + "|" + name + "|class|" + pkg + "." + name);
+                ranges.add("endProcessing \"" + path + "\"");
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        srg = temp.newFile("empty.srg");
+        rangeMap = temp.newFile("ranges.txt");
+        Files.write(Joiner.on(Constants.NEWLINE).join(ranges) + Constants.NEWLINE, rangeMap, Constants.CHARSET);
+    }
+
+    @Test
+    public void testThreadsDoNotChangeOutput() throws IOException
+    {
+        Map<String, byte[]> serial = remap("serial", 1);
+        Assert.assertEquals(FILES, serial.size());
+
+        for (int threads : new int[] { 2, 4, 8 })
+        {
+            Map<String, byte[]> parallel = remap("parallel" + threads, threads);
+            Assert.assertEquals(threads + " threads", Lists.newArrayList(serial.keySet()), Lists.newArrayList(parallel.keySet()));
+            for (String path : serial.keySet())
+            {
+                Assert.assertArrayEquals(threads + " threads, " + path, serial.get(path), parallel.get(path));
+            }
+        }
+    }
+
+    private Map<String, byte[]> remap(String name, int threads) throws IOException
+    {
+        File out = new File(temp.getRoot(), name + ".jar");
+
+        ApplyS2STask task = project.getTasks().create(name, ApplyS2STask.class);
+        task.addSource(sources);
+        task.setOut(out);
+        task.addSrg(srg);
+        task.setRangeMap(rangeMap);
+        task.setThreads(threads);
+        task.minBatchWeight = 1;
+        task.doTask();
+
+        Map<String, byte[]> entries = Maps.newLinkedHashMap();
+        ZipInputStream in = new ZipInputStream(new FileInputStream(out));
+        try
+        {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null)
+            {
+                entries.put(entry.getName(), ByteStreams.toByteArray(in));
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Decompiles a jar, changes it, and checks which classes come from the cache.
+ */
+public class DecompileCacheTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File           dir;
+    private int            jars;
+
+    @Before
+    public void setup() throws IOException
+    {
+        dir = temp.newFolder("cache");
+        DecompileCache cache = open("a/A", "a/B", "b/C");
+
+        Map<String, byte[]> sources = Maps.newLinkedHashMap();
+        for (String name : new String[] { "a/A", "a/B", "b/C" })
+        {
+            sources.put(name + ".java", ("// " + name).getBytes(Constants.CHARSET));
+        }
+        cache.storeAll(writeJar(sources));
+    }
+
+    @Test
+    public void testSameJar() throws IOException
+    {
+        DecompileCache cache = open("a/A", "a/B", "b/C");
+        Assert.assertArrayEquals(("// a/A").getBytes(Constants.CHARSET), cache.get("a/A"));
+        Assert.assertNotNull(cache.get("b/C"));
+    }
+
+    @Test
+    public void testClassAddedToPackage() throws IOException
+    {
+        // a new a/List could take the simple name of an imported java.util.List
+        DecompileCache cache = open("a/A", "a/B", "a/List", "b/C");
+        Assert.assertNull(cache.get("a/A"));
+        Assert.assertNull(cache.get("a/B"));
+        Assert.assertNotNull(cache.get("b/C"));
+    }
+
+    @Test
+    public void testClassRenamedInPackage() throws IOException
+    {
+        DecompileCache cache = open("a/A", "a/B", "b/D");
+        Assert.assertNotNull(cache.get("a/A"));
+        Assert.assertNull(cache.get("b/D"));
+    }
+
+    private DecompileCache open(String... names) throws IOException
+    {
+        Map<String, byte[]> classes = Maps.newLinkedHashMap();
+        Map<String, List<String>> groups = Maps.newTreeMap();
+        for (String name : names)
+        {
+            ClassWriter writer = new ClassWriter(0);
+            writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+            writer.visitEnd();
+
+            classes.put(name + ".class", writer.toByteArray());
+            groups.put(name, Lists.newArrayList(name + ".class"));
+        }
+
+        return new DecompileCache(dir, "test", writeJar(classes), groups, Collections.<File> emptyList());
+    }
+
+    private File writeJar(Map<String, byte[]> entries) throws IOException
+    {
+        File jar = new File(temp.getRoot(), "jar" + jars++ + ".jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try
+        {
+            for (Map.Entry<String, byte[]> e : entries.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return jar;
+    }
+}
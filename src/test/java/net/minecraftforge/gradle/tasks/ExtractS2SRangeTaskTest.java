@@ -0,0 +1,179 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+/**
+ * Checks which edits change the declarations of a source, and so make ExtractS2SRangeTask parse everything again, and
+ * that a range map built from a partial extract is the same as a full one.
+ */
+public class ExtractS2SRangeTaskTest
+{
+    private static final String BASE = "package a;\n"
+            + "import b.Base;\n"
+            + "public class A extends Base implements Runnable\n"
+            + "{\n"
+            + "    public static final String NAME = \"{ not a block\";\n"
+            + "    private int x = 1;\n"
+            + "    static { System.out.println('}'); }\n"
+            + "    public void run() { x++; }\n"
+            + "    public class Inner { int y() { return 2; } }\n"
+            + "    enum Kind { ONE { void foo() {} }, TWO }\n"
+            + "}\n";
+
+    @Test
+    public void testBodiesDontCount()
+    {
+        assertSame(BASE, BASE.replace("x++;", "x += 2; /* { */ new Object() { class Local {} }.toString();"));
+        assertSame(BASE, BASE.replace("return 2;", "/* } */ return \"}\".length();"));
+        assertSame(BASE, BASE.replace("'}'", "Base.class"));
+        assertSame(BASE, BASE.replace("void foo() {}", "void foo() { bar(); }"));
+    }
+
+    @Test
+    public void testFormattingDoesntCount()
+    {
+        assertSame(BASE, BASE.replace("\n", "\r\n"));
+        assertSame(BASE, BASE.replace("    ", "\t").replace("{\n", "{ // opens\n"));
+        assertSame(BASE, "/** doc */\n" + BASE);
+    }
+
+    @Test
+    public void testDeclarationsCount()
+    {
+        assertChanged(BASE, BASE.replace("extends Base", "extends Object"));
+        assertChanged(BASE, BASE.replace("implements Runnable", ""));
+        assertChanged(BASE, BASE.replace("public void run()", "public void run(int i)"));
+        assertChanged(BASE, BASE.replace("private int x", "protected int x"));
+        assertChanged(BASE, BASE.replace("int y()", "long y()"));
+        assertChanged(BASE, BASE.replace("TWO", "TWO, THREE"));
+        assertChanged(BASE, BASE.replace("import b.Base;", "import c.Base;"));
+        assertChanged(BASE, BASE.replace("}\n}\n", "}\n    void added() {}\n}\n"));
+        assertChanged(BASE, BASE + "class Second {}\n");
+    }
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private int tasks;
+
+    @Test
+    public void testEditUsingOtherSource() throws IOException
+    {
+        // User uses Base, which is only resolved if Base is parsed along with it
+        assertSameAsFull("a/User.java", "return new Base().value() + 1;", "return new Base().value() + 2;");
+    }
+
+    @Test
+    public void testEditStandalone() throws IOException
+    {
+        assertSameAsFull("a/Util.java", "return 1;", "return 2;");
+    }
+
+    @Test
+    public void testCrossReferences()
+    {
+        Set<String> paths = Sets.newHashSet("a/Base.java", "a/User.java", "b/Util.java");
+
+        Assert.assertTrue(hasCrossReferences("a/User.java", "class User { Base base; }", paths));
+        Assert.assertTrue(hasCrossReferences("a/User.java", "class User { Object o = b.Util.get(); }", paths));
+        Assert.assertFalse(hasCrossReferences("a/User.java", "class User { User next; String Basement; }", paths));
+    }
+
+    private static boolean hasCrossReferences(String path, String text, Set<String> paths)
+    {
+        return ExtractS2SRangeTask.hasCrossReferences(Collections.singleton(path), Collections.singletonMap(path, text), paths);
+    }
+
+    /**
+     * Extracts, makes an edit that keeps the declarations, extracts again, and compares to a fresh extract.
+     */
+    private void assertSameAsFull(String path, String from, String to) throws IOException
+    {
+        Project project = ProjectBuilder.builder().withProjectDir(temp.getRoot()).build();
+        File src = temp.newFolder("src");
+        write(src, "a/Base.java", "package a;\npublic class Base\n{\n    public int value() { return 0; }\n}\n");
+        write(src, "a/User.java", "package a;\npublic class User\n{\n    int get() { return new Base().value() + 1; }\n}\n");
+        write(src, "a/Util.java", "package a;\npublic class Util\n{\n    static int get() { return 1; }\n}\n");
+
+        File incremental = extract(project, src);
+        String before = Files.toString(incremental, Constants.CHARSET);
+        Assume.assumeTrue("the extractor writes no ranges", before.contains("@|"));
+
+        File file = new File(src, path);
+        String text = Files.toString(file, Constants.CHARSET);
+        Assert.assertTrue(text.contains(from));
+        Files.write(text.replace(from, to), file, Constants.CHARSET);
+
+        ExtractS2SRangeTask task = (ExtractS2SRangeTask) project.getTasks().getByName("extract0");
+        task.doTask();
+
+        File full = extract(project, src);
+        Assert.assertEquals(Files.toString(full, Constants.CHARSET), Files.toString(incremental, Constants.CHARSET));
+    }
+
+    private File extract(Project project, File src) throws IOException
+    {
+        String name = "extract" + tasks++;
+        File out = new File(temp.getRoot(), name + ".rangemap");
+
+        ExtractS2SRangeTask task = project.getTasks().create(name, ExtractS2SRangeTask.class);
+        task.addSource(src);
+        task.addLibs(project.files());
+        task.setRangeMap(out);
+        task.doTask();
+
+        return out;
+    }
+
+    private static void write(File root, String path, String text) throws IOException
+    {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(text, file, Constants.CHARSET);
+    }
+
+    private static void assertSame(String before, String after)
+    {
+        Assert.assertEquals(after, ExtractS2SRangeTask.getDeclarations(before), ExtractS2SRangeTask.getDeclarations(after));
+    }
+
+    private static void assertChanged(String before, String after)
+    {
+        Assert.assertNotEquals(after, ExtractS2SRangeTask.getDeclarations(before), ExtractS2SRangeTask.getDeclarations(after));
+    }
+}
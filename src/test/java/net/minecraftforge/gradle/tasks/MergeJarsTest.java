@@ -0,0 +1,306 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import groovy.lang.Closure;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InnerClassNode;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Checks the inner class index against the list scan it replaced, and what ends up in the merged jar.
+ */
+public class MergeJarsTest
+{
+    private static final String SIDE      = "net/minecraftforge/fml/relauncher/Side.class";
+    private static final String SIDE_ONLY = "net/minecraftforge/fml/relauncher/SideOnly.class";
+    private static final String SIDE_DESC = "Lnet/minecraftforge/fml/relauncher/SideOnly;";
+
+    @Rule
+    public TemporaryFolder      temp      = new TemporaryFolder();
+
+    private Project             project;
+
+    @Before
+    public void setupProject()
+    {
+        project = ProjectBuilder.builder().withProjectDir(temp.getRoot()).build();
+    }
+
+    @Test
+    public void testInnersMatchListScan()
+    {
+        Random rand = new Random(4321);
+
+        for (int i = 0; i < 5000; i++)
+        {
+            List<InnerClassNode> client = randomInners(rand);
+            List<InnerClassNode> server = randomInners(rand);
+
+            ClassNode cIndexed = withInners(client);
+            ClassNode sIndexed = withInners(server);
+            MergeJars.processInners(cIndexed, sIndexed);
+
+            ClassNode cScanned = withInners(client);
+            ClassNode sScanned = withInners(server);
+            oldProcessInners(cScanned, sScanned);
+
+            Assert.assertEquals("client, round " + i, cScanned.innerClasses, cIndexed.innerClasses);
+            Assert.assertEquals("server, round " + i, sScanned.innerClasses, sIndexed.innerClasses);
+        }
+    }
+
+    @Test
+    public void testSideOnlyClasses() throws IOException
+    {
+        Map<String, byte[]> client = Maps.newHashMap();
+        client.put("a/Both.class", classBytes("a/Both"));
+        client.put("a/Client.class", classBytes("a/Client"));
+        client.put("assets/lang.txt", new byte[] { 1 });
+
+        Map<String, byte[]> server = Maps.newHashMap();
+        server.put("a/Both.class", classBytes("a/Both"));
+        server.put("a/Server.class", classBytes("a/Server"));
+        server.put("assets/lang.txt", new byte[] { 2 });
+
+        Map<String, byte[]> merged = merge(client, server, 4);
+
+        Assert.assertEquals(Lists.newArrayList("a/Both.class", "a/Client.class", "a/Server.class", "assets/lang.txt", SIDE, SIDE_ONLY), Lists.newArrayList(merged.keySet()));
+        Assert.assertNull(getSide(merged.get("a/Both.class")));
+        Assert.assertEquals("CLIENT", getSide(merged.get("a/Client.class")));
+        Assert.assertEquals("SERVER", getSide(merged.get("a/Server.class")));
+
+        // the client jar wins for resources
+        Assert.assertArrayEquals(new byte[] { 1 }, merged.get("assets/lang.txt"));
+    }
+
+    @Test
+    public void testSideClassFromServerJar() throws IOException
+    {
+        // a server jar that already has the Side class must not end up with a second one
+        Map<String, byte[]> client = ImmutableMap.of("a/Client.class", classBytes("a/Client"));
+        Map<String, byte[]> server = ImmutableMap.of(SIDE, classBytes("net/minecraftforge/fml/relauncher/Side"));
+
+        Map<String, byte[]> merged = merge(client, server, 4);
+
+        Assert.assertEquals(Lists.newArrayList("a/Client.class", SIDE, SIDE_ONLY), Lists.newArrayList(merged.keySet()));
+        Assert.assertEquals("SERVER", getSide(merged.get(SIDE)));
+    }
+
+    @Test
+    public void testThreadsDoNotChangeOutput() throws IOException
+    {
+        Map<String, byte[]> client = Maps.newHashMap();
+        Map<String, byte[]> server = Maps.newHashMap();
+        for (int i = 0; i < 200; i++)
+        {
+            String name = "a/C" + i;
+            if (i % 3 != 1)
+                client.put(name + ".class", classBytes(name));
+            if (i % 3 != 2)
+                server.put(name + ".class", classBytes(name));
+        }
+
+        File single = mergeToFile(client, server, 1);
+        File multi = mergeToFile(client, server, 8);
+
+        Assert.assertArrayEquals(Files.toByteArray(single), Files.toByteArray(multi));
+    }
+
+    private Map<String, byte[]> merge(Map<String, byte[]> client, Map<String, byte[]> server, int threads) throws IOException
+    {
+        return readJar(mergeToFile(client, server, threads));
+    }
+
+    private File mergeToFile(Map<String, byte[]> client, Map<String, byte[]> server, int threads) throws IOException
+    {
+        final File clientJar = writeJar(client);
+        final File serverJar = writeJar(server);
+        final File outJar = temp.newFile();
+
+        MergeJars task = project.getTasks().create("mergeJars" + outJar.getName(), MergeJars.class);
+        task.setClient(fileClosure(clientJar));
+        task.setServer(fileClosure(serverJar));
+        task.setOutJar(fileClosure(outJar));
+        task.setThreads(threads);
+        task.doTask();
+
+        return outJar;
+    }
+
+    private Closure<File> fileClosure(final File file)
+    {
+        return new Closure<File>(MergeJarsTest.class) {
+            @Override
+            public File call()
+            {
+                return file;
+            }
+        };
+    }
+
+    private File writeJar(Map<String, byte[]> entries) throws IOException
+    {
+        File jar = temp.newFile();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try
+        {
+            for (Map.Entry<String, byte[]> e : entries.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static Map<String, byte[]> readJar(File jar) throws IOException
+    {
+        Map<String, byte[]> entries = Maps.newLinkedHashMap();
+        ZipFile zip = new ZipFile(jar);
+        try
+        {
+            for (ZipEntry e : Collections.list(zip.entries()))
+            {
+                entries.put(e.getName(), ByteStreams.toByteArray(zip.getInputStream(e)));
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        return entries;
+    }
+
+    private static byte[] classBytes(String name)
+    {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static String getSide(byte[] data)
+    {
+        ClassNode node = new ClassNode();
+        new ClassReader(data).accept(node, 0);
+
+        if (node.visibleAnnotations == null)
+            return null;
+
+        for (AnnotationNode ann : node.visibleAnnotations)
+        {
+            if (SIDE_DESC.equals(ann.desc))
+                return ((String[]) ann.values.get(1))[1];
+        }
+        return null;
+    }
+
+    private static List<InnerClassNode> randomInners(Random rand)
+    {
+        String[] names = { null, "a/B$1", "a/B$C" };
+        String[] outers = { null, "a/B", "a/D" };
+        String[] inners = { null, "1", "C" };
+
+        List<InnerClassNode> list = Lists.newArrayList();
+        for (int i = rand.nextInt(8); i > 0; i--)
+        {
+            list.add(new InnerClassNode(names[rand.nextInt(3)], outers[rand.nextInt(3)], inners[rand.nextInt(3)], 0));
+        }
+        return list;
+    }
+
+    private static ClassNode withInners(List<InnerClassNode> inners)
+    {
+        ClassNode node = new ClassNode();
+        node.innerClasses = Lists.newArrayList(inners);
+        return node;
+    }
+
+    // the scan MergeJars used before the index, kept as the reference
+
+    private static boolean oldInnerMatches(InnerClassNode o, InnerClassNode o2)
+    {
+        if (o.innerName == null && o2.innerName != null) return false;
+        if (o.innerName != null && !o.innerName.equals(o2.innerName)) return false;
+        if (o.name == null && o2.name != null) return false;
+        if (o.name != null && !o.name.equals(o2.name)) return false;
+        if (o.outerName == null && o2.outerName != null) return false;
+        if (o.outerName != null && o.outerName.equals(o2.outerName)) return false;
+        return true;
+    }
+
+    private static boolean oldContains(List<InnerClassNode> list, InnerClassNode node)
+    {
+        for (InnerClassNode n : list)
+            if (oldInnerMatches(n, node))
+                return true;
+        return false;
+    }
+
+    private static void oldProcessInners(ClassNode cClass, ClassNode sClass)
+    {
+        List<InnerClassNode> cIners = cClass.innerClasses;
+        List<InnerClassNode> sIners = sClass.innerClasses;
+
+        for (InnerClassNode n : cIners)
+        {
+            if (!oldContains(sIners, n))
+                sIners.add(n);
+        }
+        for (InnerClassNode n : sIners)
+        {
+            if (!oldContains(cIners, n))
+                cIners.add(n);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Changes the sources between two compiles, and expects the incrementally compiled classes to be the same as the
+ * ones from compiling everything again.
+ */
+public class IncrementalJavacTest
+{
+    // old enough for the ASM the plugin reads the outlines with
+    private static final List<String> OPTIONS = ImmutableList.of("-source", "1.8", "-target", "1.8", "-g");
+    private static final Logger       LOGGER  = Logging.getLogger(IncrementalJavacTest.class);
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File classes;
+    private File state;
+    private int  jars;
+
+    @Before
+    public void setup() throws IOException
+    {
+        Assume.assumeTrue(IncrementalJavac.isAvailable());
+        classes = temp.newFolder("classes");
+        state = new File(temp.getRoot(), "classes.state");
+    }
+
+    @Test
+    public void testMethodSignatureChange() throws IOException
+    {
+        Map<String, String> sources = Maps.newTreeMap();
+        sources.put("a/A.java", "package a; public class A { public int get() { return 1; } }");
+        sources.put("b/B.java", "package b; public class B { Object x = new a.A().get(); }");
+        sources.put("b/Unrelated.java", "package b; public class Unrelated { int y = 3; }");
+        compile(sources);
+
+        sources.put("a/A.java", "package a; public class A { public long get() { return 1L; } }");
+        compile(sources);
+
+        // B has to call the new get()J, or it fails to link
+        Assert.assertTrue(new String(Files.toByteArray(new File(classes, "b/B.class")), Constants.CHARSET).contains("()J"));
+        assertSameAsClean(sources);
+    }
+
+    @Test
+    public void testConstantChange() throws IOException
+    {
+        Map<String, String> sources = Maps.newTreeMap();
+        sources.put("a/A.java", "package a; public class A { public static final int X = 1234567; }");
+        sources.put("b/B.java", "package b; public class B { int x = a.A.X; }");
+        sources.put("b/C.java", "package b; public class C { String s = \"\" + a.A.X; }");
+        compile(sources);
+
+        // inlined into B and C, which never reference A itself
+        sources.put("a/A.java", "package a; public class A { public static final int X = 7654321; }");
+        compile(sources);
+
+        assertSameAsClean(sources);
+    }
+
+    @Test
+    public void testSuperclassChange() throws IOException
+    {
+        Map<String, String> sources = Maps.newTreeMap();
+        sources.put("a/Base1.java", "package a; public class Base1 { public void foo() {} }");
+        sources.put("a/Base2.java", "package a; public class Base2 { public int foo() { return 2; } }");
+        sources.put("a/A.java", "package a; public class A extends Base1 { }");
+        sources.put("b/C.java", "package b; public class C extends a.A { }");
+        sources.put("b/User.java", "package b; public class User { void run() { new C().foo(); } }");
+        compile(sources);
+
+        // User only sees the change through C, a subclass of the changed class
+        sources.put("a/A.java", "package a; public class A extends Base2 { }");
+        compile(sources);
+
+        assertSameAsClean(sources);
+    }
+
+    @Test
+    public void testRemovedSource() throws IOException
+    {
+        Map<String, String> sources = Maps.newTreeMap();
+        sources.put("a/A.java", "package a; public class A { public static int get() { return 1; } }");
+        sources.put("a/Gone.java", "package a; public class Gone { class Inner {} }");
+        sources.put("b/B.java", "package b; public class B { int x = a.A.get(); }");
+        compile(sources);
+        Assert.assertTrue(new File(classes, "a/Gone$Inner.class").isFile());
+
+        sources.remove("a/Gone.java");
+        compile(sources);
+
+        Assert.assertFalse(new File(classes, "a/Gone.class").exists());
+        Assert.assertFalse(new File(classes, "a/Gone$Inner.class").exists());
+        assertSameAsClean(sources);
+    }
+
+    private void compile(Map<String, String> sources) throws IOException
+    {
+        new IncrementalJavac(classes, state, LOGGER).compile(writeJar(sources), Collections.<File> emptyList(), OPTIONS);
+    }
+
+    private void assertSameAsClean(Map<String, String> sources) throws IOException
+    {
+        File clean = temp.newFolder("clean");
+        new IncrementalJavac(clean, new File(temp.getRoot(), "clean.state"), LOGGER).compile(writeJar(sources), Collections.<File> emptyList(), OPTIONS);
+
+        Map<String, byte[]> expected = readClasses(clean);
+        Map<String, byte[]> actual = readClasses(classes);
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (String name : expected.keySet())
+        {
+            Assert.assertArrayEquals(name, expected.get(name), actual.get(name));
+        }
+    }
+
+    private File writeJar(Map<String, String> sources) throws IOException
+    {
+        File jar = new File(temp.getRoot(), "sources" + jars++ + ".jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try
+        {
+            for (Map.Entry<String, String> e : sources.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue().getBytes(Constants.CHARSET));
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static Map<String, byte[]> readClasses(File dir) throws IOException
+    {
+        Map<String, byte[]> classes = Maps.newTreeMap();
+        for (File file : Files.fileTreeTraverser().preOrderTraversal(dir))
+        {
+            if (file.isFile())
+                classes.put(dir.toURI().relativize(file.toURI()).getPath(), Files.toByteArray(file));
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+
+import net.md_5.specialsource.AccessMap;
+import net.md_5.specialsource.Jar;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import net.md_5.specialsource.RemapperProcessor;
+import net.md_5.specialsource.provider.JarProvider;
+import net.md_5.specialsource.provider.JointProvider;
+
+/**
+ * Remaps the same jar with ParallelJarRemapper and with SpecialSource's own remapJar, the way DeobfuscateJar used to,
+ * and expects the same classes and the same access transformer lines applied. Also checks the order, names and
+ * timestamps of the entries it writes.
+ */
+public class ParallelJarRemapperTest
+{
+    private static final String SRG = Joiner.on('\n').join(
+            "CL: a p/Base",
+            "CL: b p/Child",
+            "CL: c p/Iface",
+            "CL: d p/Impl",
+            "CL: a$a p/Base$Inner",
+            "FD: a/a p/Base/field",
+            "FD: b/a p/Child/other",
+            "MD: a/a ()V p/Base/run ()V",
+            "MD: a/a (I)I p/Base/twice (I)I",
+            "MD: c/a (La;)Lb; p/Iface/make (Lp/Base;)Lp/Child;",
+            "");
+
+    private static final String AT = Joiner.on('\n').join(
+            "public p.Base",
+            "public p.Base field",
+            "public-f p.Child other",
+            "public p.Base run()V",
+            "protected p.Iface make(Lp/Base;)Lp/Child;",
+            "public p.Base$Inner",
+            "public p.Missing",
+            "");
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testSameAsJarRemapper() throws IOException
+    {
+        File inJar = writeJar();
+
+        AccessMap expectedAccess = accessMap();
+        File expectedJar = temp.newFile("expected.jar");
+        JarMapping mapping = mapping();
+        JarRemapper remapper = new JarRemapper(new RemapperProcessor(null, mapping, null), mapping, new RemapperProcessor(null, null, expectedAccess));
+        Jar input = Jar.init(inJar);
+        try
+        {
+            JointProvider inheritance = new JointProvider();
+            inheritance.add(new JarProvider(input));
+            mapping.setFallbackInheritanceProvider(inheritance);
+            remapper.remapJar(input, expectedJar);
+        }
+        finally
+        {
+            input.close();
+        }
+
+        for (int threads : new int[] { 1, 4 })
+        {
+            AccessMap actualAccess = accessMap();
+            File actualJar = temp.newFile("actual" + threads + ".jar");
+            new ParallelJarRemapper(mapping(), actualAccess, threads).remapJar(inJar, actualJar, null);
+
+            Map<String, byte[]> expected = readJar(expectedJar);
+            Map<String, byte[]> actual = readJar(actualJar);
+            Assert.assertEquals(expected.keySet(), actual.keySet());
+            for (String name : expected.keySet())
+            {
+                Assert.assertArrayEquals(name + ", threads " + threads, expected.get(name), actual.get(name));
+            }
+
+            Assert.assertEquals(expectedAccess.getAppliedMaps(), actualAccess.getAppliedMaps());
+        }
+
+        // make sure the jar actually exercised the mapping and the ATs
+        Assert.assertTrue(readJar(expectedJar).containsKey("p/Base$Inner.class"));
+        Assert.assertFalse(readJar(expectedJar).containsKey("META-INF/SIGNED.SF"));
+        Assert.assertFalse(expectedAccess.getAppliedMaps().isEmpty());
+    }
+
+    @Test
+    public void testEntries() throws IOException
+    {
+        File outJar = temp.newFile("out.jar");
+        new ParallelJarRemapper(mapping(), null, 4).remapJar(writeJar(), outJar, null);
+
+        // in the order of the input jar, without the signature, and with no timestamps
+        List<String> names = Lists.newArrayList();
+        ZipFile zip = new ZipFile(outJar);
+        try
+        {
+            for (ZipEntry e : Collections.list(zip.entries()))
+            {
+                names.add(e.getName());
+                Assert.assertEquals(e.getName(), 0L, e.getLastModifiedTime().toMillis());
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        Assert.assertEquals(Lists.newArrayList("p/Base.class", "p/Base$Inner.class", "p/Child.class", "p/Iface.class", "p/Impl.class", "assets/data.txt"), names);
+
+        // methods only named through a parent class or an interface
+        Map<String, byte[]> entries = readJar(outJar);
+        Assert.assertTrue(getMethods(entries.get("p/Child.class")).contains("run()V"));
+        Assert.assertTrue(getMethods(entries.get("p/Impl.class")).contains("make(Lp/Base;)Lp/Child;"));
+    }
+
+    private static Set<String> getMethods(byte[] data)
+    {
+        ClassNode node = new ClassNode();
+        new ClassReader(data).accept(node, 0);
+
+        Set<String> methods = Sets.newHashSet();
+        for (MethodNode method : node.methods)
+        {
+            methods.add(method.name + method.desc);
+        }
+        return methods;
+    }
+
+    private static JarMapping mapping() throws IOException
+    {
+        JarMapping mapping = new JarMapping();
+        mapping.loadMappings(new BufferedReader(new StringReader(SRG)), null, null, false);
+        return mapping;
+    }
+
+    private static AccessMap accessMap() throws IOException
+    {
+        AccessMap map = new AccessMap();
+        map.loadAccessTransformer(new BufferedReader(new StringReader(AT)));
+        return map;
+    }
+
+    private File writeJar() throws IOException
+    {
+        File jar = temp.newFile("in.jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try
+        {
+            put(out, "a.class", base());
+            put(out, "a$a.class", inner());
+            put(out, "b.class", child());
+            put(out, "c.class", iface());
+            put(out, "d.class", impl());
+            put(out, "assets/data.txt", new byte[] { 1, 2, 3 });
+            put(out, "META-INF/SIGNED.SF", new byte[] { 4 });
+        }
+        finally
+        {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static void put(ZipOutputStream out, String name, byte[] data) throws IOException
+    {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+    }
+
+    private static byte[] base()
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, 0, "a", null, "java/lang/Object", null);
+        cw.visitInnerClass("a$a", "a", "a", 0);
+        cw.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(0, "a", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "a", "a", "(I)I", false);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, "a", "a", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(0, "a", "(I)I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.ICONST_2);
+        mv.visitInsn(Opcodes.IMUL);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] inner()
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, 0, "a$a", null, "java/lang/Object", null);
+        cw.visitOuterClass("a", null, null);
+        cw.visitInnerClass("a$a", "a", "a", 0);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] child()
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "b", null, "a", null);
+        cw.visitField(Opcodes.ACC_FINAL, "a", "La;", null, null).visitEnd();
+
+        // overrides a/a ()V, so it should pick up the parent's name through the inheritance map
+        MethodVisitor mv = cw.visitMethod(0, "a", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "a", "a", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] iface()
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "c", null, "java/lang/Object", null);
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "a", "(La;)Lb;", null, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] impl()
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "d", null, "java/lang/Object", new String[] { "c" });
+
+        // implements c/a, only known through the interface
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "a", "(La;)Lb;", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static Map<String, byte[]> readJar(File jar) throws IOException
+    {
+        Map<String, byte[]> entries = Maps.newTreeMap();
+        ZipFile zip = new ZipFile(jar);
+        try
+        {
+            for (ZipEntry e : Collections.list(zip.entries()))
+            {
+                entries.put(e.getName(), ByteStreams.toByteArray(zip.getInputStream(e)));
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.binpatch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.minecraftforge.gradle.util.binpatch.BinPatchCodec.EntryVisitor;
+
+/**
+ * Writes archives with every codec and reads them back.
+ */
+public class BinPatchCodecsTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testDeflateRoundTrip() throws IOException
+    {
+        roundTrip(BinPatchCodecs.DEFLATE, randomEntries(new Random(1), 2 * BlockCodec.BLOCK_SIZE + 12345));
+    }
+
+    @Test
+    public void testLzmaRoundTrip() throws IOException
+    {
+        roundTrip(BinPatchCodecs.LZMA, randomEntries(new Random(2), 2 * BlockCodec.BLOCK_SIZE + 12345));
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        Map<String, byte[]> empty = Maps.newLinkedHashMap();
+        roundTrip(BinPatchCodecs.DEFLATE, empty);
+        roundTrip(BinPatchCodecs.LZMA, empty);
+
+        Map<String, byte[]> emptyEntry = Maps.newLinkedHashMap();
+        emptyEntry.put("binpatch/client/a.binpatch", new byte[0]);
+        roundTrip(BinPatchCodecs.DEFLATE, emptyEntry);
+        roundTrip(BinPatchCodecs.LZMA, emptyEntry);
+    }
+
+    @Test
+    public void testEntryBiggerThanBlock() throws IOException
+    {
+        Random rand = new Random(3);
+        Map<String, byte[]> entries = Maps.newLinkedHashMap();
+        entries.put("binpatch/client/small.binpatch", bytes(rand, 100));
+        entries.put("binpatch/client/huge.binpatch", bytes(rand, 2 * BlockCodec.BLOCK_SIZE + 17));
+        entries.put("binpatch/server/small.binpatch", bytes(rand, 100));
+
+        roundTrip(BinPatchCodecs.DEFLATE, entries);
+        roundTrip(BinPatchCodecs.LZMA, entries);
+    }
+
+    @Test
+    public void testLegacyDetection() throws IOException
+    {
+        // an LZMA stream starts with its properties byte, never with the magic
+        byte[] legacy = { 0x5D, 0, 0, (byte) 0x80, 0, 1, 2, 3 };
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(legacy));
+        Assert.assertEquals(BinPatchCodecs.LEGACY, BinPatchCodecs.readCodec(in).getName());
+        Assert.assertEquals("legacy archives are read from the start", 0x5D, in.read());
+
+        // too short to have a header at all
+        in = new BufferedInputStream(new ByteArrayInputStream(new byte[] { 0x46, 0x47 }));
+        Assert.assertEquals(BinPatchCodecs.LEGACY, BinPatchCodecs.readCodec(in).getName());
+        Assert.assertEquals(0x46, in.read());
+
+        for (String codec : new String[] { BinPatchCodecs.DEFLATE, BinPatchCodecs.LZMA })
+        {
+            File archive = temp.newFile();
+            BinPatchCodecs.write(codec, Maps.<String, byte[]> newLinkedHashMap(), archive);
+
+            in = new BufferedInputStream(new FileInputStream(archive));
+            try
+            {
+                Assert.assertEquals(codec, BinPatchCodecs.readCodec(in).getName());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyRoundTrip() throws IOException
+    {
+        // Pack200 was removed in Java 14
+        boolean hasPack200;
+        try
+        {
+            Class.forName("java.util.jar.Pack200");
+            hasPack200 = true;
+        }
+        catch (ClassNotFoundException e)
+        {
+            hasPack200 = false;
+        }
+        Assume.assumeTrue(hasPack200);
+
+        Map<String, byte[]> entries = Maps.newTreeMap();
+        entries.putAll(randomEntries(new Random(4), 64 * 1024));
+        roundTrip(BinPatchCodecs.LEGACY, entries);
+    }
+
+    private void roundTrip(String codec, Map<String, byte[]> entries) throws IOException
+    {
+        File archive = temp.newFile();
+        BinPatchCodecs.write(codec, entries, archive);
+
+        final Map<String, byte[]> read = Maps.newLinkedHashMap();
+        BinPatchCodecs.read(archive, new EntryVisitor() {
+            @Override
+            public void visit(String name, byte[] data)
+            {
+                Assert.assertNull("duplicate entry " + name, read.put(name, data));
+            }
+        });
+
+        Assert.assertEquals(codec, Lists.newArrayList(entries.keySet()), Lists.newArrayList(read.keySet()));
+        for (Map.Entry<String, byte[]> e : entries.entrySet())
+        {
+            Assert.assertArrayEquals(codec + " " + e.getKey(), e.getValue(), read.get(e.getKey()));
+        }
+    }
+
+    private static Map<String, byte[]> randomEntries(Random rand, int total)
+    {
+        Map<String, byte[]> entries = Maps.newLinkedHashMap();
+        int size = 0;
+        for (int i = 0; size < total; i++)
+        {
+            byte[] data = bytes(rand, rand.nextInt(64 * 1024));
+            entries.put("binpatch/" + (i % 2 == 0 ? "client" : "server") + "/net/minecraft/C" + i + ".binpatch", data);
+            size += data.length;
+        }
+        return entries;
+    }
+
+    private static byte[] bytes(Random rand, int length)
+    {
+        // some repetition, like real patches, so the compressors have something to do
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            data[i] = i > 16 && rand.nextBoolean() ? data[i - 16] : (byte) rand.nextInt(256);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Checks the cache folder settings, the atomic writes and the eviction of the user home caches.
+ */
+public class CacheFilesTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testCacheDir() throws IOException
+    {
+        Project project = ProjectBuilder.builder().withProjectDir(temp.newFolder("project")).withGradleUserHomeDir(temp.newFolder("home")).build();
+        File home = project.getGradle().getGradleUserHomeDir();
+
+        Assert.assertEquals(new File(home, "caches/minecraft/test"), CacheFiles.getCacheDir(project, null, "test"));
+        Assert.assertEquals(new File(home, "caches/minecraft/test"), CacheFiles.getCacheDir(project, true, "test"));
+        Assert.assertNull(CacheFiles.getCacheDir(project, false, "test"));
+        Assert.assertEquals(project.file("other"), CacheFiles.getCacheDir(project, "other", "test"));
+    }
+
+    @Test
+    public void testWrite() throws IOException
+    {
+        File target = new File(temp.getRoot(), "ab/abcdef.bin");
+        CacheFiles.write(target, new byte[] { 1, 2, 3 });
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, Files.toByteArray(target));
+
+        // replaces what was there, and leaves no temp files behind
+        CacheFiles.write(target, new byte[] { 4 });
+        Assert.assertArrayEquals(new byte[] { 4 }, Files.toByteArray(target));
+        Assert.assertEquals(1, target.getParentFile().list().length);
+    }
+
+    @Test
+    public void testEvict() throws IOException
+    {
+        List<File> entries = Lists.newArrayList();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++)
+        {
+            File entry = new File(temp.getRoot(), "entry" + i);
+            Files.write(new byte[100], entry);
+            // entry3 is the oldest, then entry0, entry1...
+            entry.setLastModified(now - (i == 3 ? 100000 : 10000 - i * 1000));
+            entries.add(entry);
+        }
+
+        CacheFiles.evict(entries, 1000);
+        for (File entry : entries)
+            Assert.assertTrue(entry.getName(), entry.exists());
+
+        CacheFiles.evict(entries, 750);
+        for (File entry : entries)
+        {
+            boolean evicted = entry.getName().equals("entry3") || entry.getName().equals("entry0") || entry.getName().equals("entry1");
+            Assert.assertEquals(entry.getName(), !evicted, entry.exists());
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the comment lexer of CleanupPipeline on fixed sources, and the whole pipeline against the regexes FFPatcher
+ * and McpCleanup ran before it, on random token soup.
+ */
+public class CleanupPipelineTest
+{
+    // tokens that poke at every rule: comments, strings, chars, escapes, the constants, blocks, ifs and imports
+    private static final String[] TOKENS = {
+            "/*", "*/", "/**", "//", "/", "*", "\"", "'", "\\", "\\\"", "'a'", "'\\''", "'\\u00a7'", "'\\u2603'", "'\\uFFFF'",
+            "Character.valueOf('x')", "Character.valueOf('\\n')", "/* GL_BLEND */", " /*GL_ONE*/ ", "/* GL_x * y */",
+            "3.141592653589793D", "3.1415927F", "6.283185307179586D", "6.2831855F", "1.5707963267948966D", "1.5707964F",
+            "4.71238898038469D", "4.712389F", "0.7853981633974483D", "0.7853982F", "0.6283185307179586D", "0.62831855F",
+            "57.29577951308232D", "57.295776F", "0.6981317007977318D", "0.6981317F", "0.3141592653589793D", "0.31415927F",
+            "1.2566370614359172D", "1.2566371F", "0.21991148575128552D", "0.21991149F", "5.811946409141117D", "0.8119F",
+            "1.7976931348623157E+308D", "1.7976931348623157e+308d", "13.1415D", "3.1415", "0.78539x",
+            "if (a)", "if(b) {", "else", "{", "}", ";", "};", "(", ")", "=", "return x;", "int", "a", "var1", "super();",
+            "package a.b;", "package a.b.c;", "import a.b.C;", "import a.b.c.D;", "import x.y.Z;",
+            " ", "  ", "   ", "\t", " \t", "\f",
+    };
+    private static final String[] EOL    = { "\n", "\r\n", "\r" };
+    private static final String[] INDENT = { "", "   ", "    ", "      ", "        ", "\t", "\t\t", "  \t" };
+
+    @Test
+    public void testMatchesRegexes() throws IOException
+    {
+        Random rand = new Random(4567);
+
+        for (int round = 0; round < 1000; round++)
+        {
+            String eol = EOL[rand.nextInt(EOL.length)];
+            StringBuilder text = new StringBuilder();
+            for (int line = rand.nextInt(25); line > 0; line--)
+            {
+                text.append(INDENT[rand.nextInt(INDENT.length)]);
+                for (int token = rand.nextInt(7); token > 0; token--)
+                {
+                    text.append(TOKENS[rand.nextInt(TOKENS.length)]);
+                    if (rand.nextBoolean())
+                        text.append(' ');
+                }
+                // mixed line endings too, now and then
+                text.append(rand.nextInt(20) == 0 ? EOL[rand.nextInt(EOL.length)] : eol);
+            }
+
+            String input = text.toString();
+            String message = "round " + round + ": " + input;
+
+            String expected = regexProcessFile(input);
+            String actual = FFPatcher.processFile(input);
+            Assert.assertEquals(message, expected, actual);
+
+            expected = regexStripComments(expected);
+            actual = McpCleanup.stripComments(actual);
+            Assert.assertEquals(message, expected, actual);
+
+            expected = McpCleanup.fixImports(expected);
+            actual = McpCleanup.fixImports(actual);
+
+            Assert.assertEquals(message, regexCleanup(expected), McpCleanup.cleanup(actual));
+        }
+    }
+
+    @Test
+    public void testUnterminated() throws IOException
+    {
+        // the lexer reads past the end of these, the old StringReader gave (char) -1 there
+        for (String input : new String[] { "a\\", "'", "'a", "x *", "/", "\"abc", "/* open", "a /* b * ", "'\\u00a7" })
+        {
+            Assert.assertEquals(input, regexStripComments(input), McpCleanup.stripComments(input));
+            Assert.assertEquals(input, regexCleanup(input), McpCleanup.cleanup(input));
+        }
+    }
+
+    @Test
+    public void testLineCommentAtEnd() throws IOException
+    {
+        // the old lexer spun forever on a line comment at the very end, so there is nothing to compare with
+        Assert.assertEquals("int a;", McpCleanup.stripComments("int a; // done"));
+        Assert.assertEquals("int a;", McpCleanup.stripComments("int a; //"));
+        Assert.assertEquals("", McpCleanup.stripComments("// only"));
+        Assert.assertEquals("a;\n", McpCleanup.stripComments("a;\n// last"));
+    }
+
+    @Test
+    public void testComments() throws IOException
+    {
+        // a block comment leaves a space, even one over several lines
+        Assert.assertEquals("x = a   + b;", McpCleanup.stripComments("x = a /* c */ + b;"));
+        Assert.assertEquals("a;   b;", McpCleanup.stripComments("a; /* one\n two */ b;"));
+        Assert.assertEquals("x = a / b * c;   y;", McpCleanup.stripComments("x = a / b * c; /**/ y;"));
+        Assert.assertEquals("a;\nb;", McpCleanup.stripComments("a; // x\nb;"));
+    }
+
+    @Test
+    public void testCommentsInLiterals() throws IOException
+    {
+        for (String input : new String[] { "s = \"// not a comment /* either */\";", "s = \"a\\\"// still a string\";" })
+        {
+            Assert.assertEquals(input, McpCleanup.stripComments(input));
+        }
+        Assert.assertEquals("c = '/'; d = '\"';", McpCleanup.stripComments("c = '/'; d = '\"'; // gone"));
+    }
+
+    // what FFPatcher and McpCleanup did before CleanupPipeline, kept as the reference
+
+    private static final Pattern FF_TRAILING       = Pattern.compile("(?m)[ \\t]+$");
+    private static final Pattern FF_NEWLINES       = Pattern.compile("(?m)^(\\r\\n|\\r|\\n){2,}");
+
+    private static final Pattern COMMENTS_TRAILING = Pattern.compile("(?m)[ \\t]+$");
+    private static final Pattern COMMENTS_NEWLINES = Pattern.compile("(?m)^(?:\\r\\n|\\r|\\n){2,}");
+
+    private static final Pattern CLEANUP_header      = Pattern.compile("^\\s+");
+    private static final Pattern CLEANUP_footer      = Pattern.compile("\\s+$");
+    private static final Pattern CLEANUP_trailing    = Pattern.compile("(?m)[ \\t]+$");
+    private static final Pattern CLEANUP_newlines    = Pattern.compile("(?m)^\\s*(?:\\r\\n|\\r|\\n){2,}");
+    private static final Pattern CLEANUP_ifstarts    = Pattern.compile("(?m)(^(?![\\s{}]*$).+(?:\\r\\n|\\r|\\n))((?:[ \\t]+)if.*)");
+    private static final Pattern CLEANUP_blockstarts = Pattern.compile("(?m)(?<=\\{)\\s+(?=(?:\\r\\n|\\r|\\n)[ \\t]*\\S)");
+    private static final Pattern CLEANUP_blockends   = Pattern.compile("(?m)(?<=[;}])\\s+(?=(?:\\r\\n|\\r|\\n)\\s*})");
+    private static final Pattern CLEANUP_gl          = Pattern.compile("\\s*\\/\\*\\s*GL_[^*]+\\*\\/\\s*");
+    private static final Pattern CLEANUP_unicode     = Pattern.compile("'\\\\u([0-9a-fA-F]{4})'");
+    private static final Pattern CLEANUP_charval     = Pattern.compile("Character\\.valueOf\\(('.')\\)");
+    private static final Pattern CLEANUP_maxD        = Pattern.compile("1\\.7976[0-9]*[Ee]\\+308[Dd]");
+
+    // pattern, replacement, in the order cleanup ran them
+    private static final String[][] CLEANUP_CONSTANTS = {
+            { "3\\.1415[0-9]*[Dd]", "Math.PI" },
+            { "3\\.1415[0-9]*[Ff]", "(float)Math.PI" },
+            { "6\\.2831[0-9]*[Dd]", "(Math.PI * 2D)" },
+            { "6\\.2831[0-9]*[Ff]", "((float)Math.PI * 2F)" },
+            { "1\\.5707[0-9]*[Dd]", "(Math.PI / 2D)" },
+            { "1\\.5707[0-9]*[Ff]", "((float)Math.PI / 2F)" },
+            { "4\\.7123[0-9]*[Dd]", "(Math.PI * 3D / 2D)" },
+            { "4\\.7123[0-9]*[Ff]", "((float)Math.PI * 3F / 2F)" },
+            { "0\\.7853[0-9]*[Dd]", "(Math.PI / 4D)" },
+            { "0\\.7853[0-9]*[Ff]", "((float)Math.PI / 4F)" },
+            { "0\\.6283[0-9]*[Dd]", "(Math.PI / 5D)" },
+            { "0\\.6283[0-9]*[Ff]", "((float)Math.PI / 5F)" },
+            { "57\\.295[0-9]*[Dd]", "(180D / Math.PI)" },
+            { "57\\.295[0-9]*[Ff]", "(180F / (float)Math.PI)" },
+            { "0\\.6981[0-9]*[Dd]", "(Math.PI * 2D / 9D)" },
+            { "0\\.6981[0-9]*[Ff]", "((float)Math.PI * 2F / 9F)" },
+            { "0\\.3141[0-9]*[Dd]", "(Math.PI / 10D)" },
+            { "0\\.3141[0-9]*[Ff]", "((float)Math.PI / 10F)" },
+            { "1\\.2566[0-9]*[Dd]", "(Math.PI * 2D / 5D)" },
+            { "1\\.2566[0-9]*[Ff]", "((float)Math.PI * 2F / 5F)" },
+            { "0\\.21991[0-9]*[Dd]", "(Math.PI * 7D / 100D)" },
+            { "0\\.21991[0-9]*[Ff]", "((float)Math.PI * 7F / 100F)" },
+            { "5\\.8119[0-9]*[Dd]", "(Math.PI * 185D / 100D)" },
+            { "0\\.8119[0-9]*[Ff]", "((float)Math.PI * 185F / 100F)" },
+    };
+
+    private static String regexProcessFile(String text)
+    {
+        text = FF_TRAILING.matcher(text).replaceAll("");
+        text = FF_NEWLINES.matcher(text).replaceAll(Constants.NEWLINE);
+        return text;
+    }
+
+    private static String regexStripComments(String text) throws IOException
+    {
+        StringReader in = new StringReader(text);
+        StringWriter out = new StringWriter(text.length());
+        boolean inComment = false;
+        boolean inString = false;
+        char c;
+        int ci;
+        while ((ci = in.read()) != -1)
+        {
+            c = (char) ci;
+            switch (c)
+            {
+                case '\\':
+                    out.write(c);
+                    out.write(in.read());
+                    break;
+                case '\"':
+                    if (!inComment)
+                    {
+                        out.write(c);
+                        inString = !inString;
+                    }
+                    break;
+                case '\'':
+                    if (!inComment)
+                    {
+                        out.write(c);
+                        out.write(in.read());
+                        out.write(in.read());
+                    }
+                    break;
+                case '*':
+                {
+                    char c2 = (char) in.read();
+                    if (inComment && c2 == '/')
+                    {
+                        inComment = false;
+                        out.write(' ');
+                    }
+                    else
+                    {
+                        out.write(c);
+                        out.write(c2);
+                    }
+                    break;
+                }
+                case '/':
+                    if (!inString)
+                    {
+                        char c2 = (char) in.read();
+                        switch (c2)
+                        {
+                            case '/':
+                                char c3 = 0;
+                                while (c3 != '\n' && c3 != '\r')
+                                {
+                                    c3 = (char) in.read();
+                                }
+                                out.write(c3);
+                                break;
+                            case '*':
+                                inComment = true;
+                                break;
+                            default:
+                                out.write(c);
+                                out.write(c2);
+                                break;
+                        }
+                    }
+                    else
+                    {
+                        out.write(c);
+                    }
+                    break;
+                default:
+                    if (!inComment)
+                    {
+                        out.write(c);
+                    }
+                    break;
+            }
+        }
+
+        text = out.toString();
+        text = COMMENTS_TRAILING.matcher(text).replaceAll("");
+        text = COMMENTS_NEWLINES.matcher(text).replaceAll(Constants.NEWLINE);
+        return text;
+    }
+
+    private static String regexCleanup(String text)
+    {
+        text = CLEANUP_header.matcher(text).replaceAll("");
+        text = CLEANUP_footer.matcher(text).replaceAll("");
+        text = CLEANUP_trailing.matcher(text).replaceAll("");
+        text = CLEANUP_newlines.matcher(text).replaceAll(Constants.NEWLINE);
+        text = CLEANUP_ifstarts.matcher(text).replaceAll("$1" + Constants.NEWLINE + "$2");
+        text = CLEANUP_blockstarts.matcher(text).replaceAll("");
+        text = CLEANUP_blockends.matcher(text).replaceAll("");
+        text = CLEANUP_gl.matcher(text).replaceAll("");
+        text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
+
+        Matcher matcher = CLEANUP_unicode.matcher(text);
+        StringBuffer buffer = new StringBuffer(text.length());
+        while (matcher.find())
+        {
+            int val = Integer.parseInt(matcher.group(1), 16);
+            if (val > 255)
+            {
+                matcher.appendReplacement(buffer, Matcher.quoteReplacement("" + val));
+            }
+        }
+        matcher.appendTail(buffer);
+        text = buffer.toString();
+
+        text = CLEANUP_charval.matcher(text).replaceAll("$1");
+
+        for (String[] constant : CLEANUP_CONSTANTS)
+        {
+            text = Pattern.compile(constant[0]).matcher(text).replaceAll(Matcher.quoteReplacement(constant[1]));
+        }
+        return text;
+    }
+}
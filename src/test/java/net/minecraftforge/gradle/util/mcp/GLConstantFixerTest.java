@@ -0,0 +1,235 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.json.GLConstantGroup;
+import net.minecraftforge.gradle.util.json.JsonFactory;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Checks GLConstantFixer on fixed sources, and its compiled lookup tables against the old search over gl.json.
+ */
+public class GLConstantFixerTest
+{
+    private static final String[] PACKAGES       = { "GL11", "GL12", "GL13", "GL14", "GL15", "GL20", "GL21", "ARBMultitexture", "ARBOcclusionQuery", "ARBVertexBufferObject", "ARBShaderObjects" };
+    private static final Pattern  CALL_REGEX     = Pattern.compile("(" + Joiner.on("|").join(PACKAGES) + ")\\.([\\w]+)\\(.+\\)");
+    private static final Pattern  CONSTANT_REGEX = Pattern.compile("(?<![-.\\w])\\d+(?![.\\w])");
+    private static final String   IMPORT_REPLACE = "import org.lwjgl.opengl.GL11;";
+
+    private static List<GLConstantGroup> json;
+    private static List<String>          calls;
+    private static List<String>          literals;
+
+    @BeforeClass
+    public static void loadJson() throws IOException
+    {
+        String text = Resources.toString(Resources.getResource(GLConstantFixer.class, "gl.json"), Charset.defaultCharset());
+        json = JsonFactory.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {}.getType());
+
+        calls = Lists.newArrayList("GL11.glNotInJson", "GL99.glEnable", "ARBShaderObjects.glUnknown");
+        literals = Lists.newArrayList("0", "00", "0256", "-1", "1.0F", "2F", "3L", "x4", "1234567890123", "99999");
+        for (GLConstantGroup group : json)
+        {
+            for (Map.Entry<String, List<String>> function : group.functions.entrySet())
+            {
+                for (String method : function.getValue())
+                {
+                    calls.add(function.getKey() + "." + method);
+                }
+            }
+            for (Map<String, String> constants : group.constants.values())
+            {
+                literals.addAll(constants.keySet());
+            }
+        }
+    }
+
+    @Test
+    public void testSimple() throws IOException
+    {
+        String in = Joiner.on(Constants.NEWLINE).join("import org.lwjgl.opengl.GL11;", "", "GL11.glEnable(3042);", "GL11.glBlendFunc(770, 771);");
+        String expected = Joiner.on(Constants.NEWLINE).join("import org.lwjgl.opengl.GL11;", "", "GL11.glEnable(GL11.GL_BLEND);", "GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);");
+        Assert.assertEquals(expected, new GLConstantFixer().fixOGL(in));
+    }
+
+    @Test
+    public void testImportOrder() throws IOException
+    {
+        // each import goes right under the GL11 one, so they end up in the reverse order of the package list
+        String in = Joiner.on('\n').join(IMPORT_REPLACE, "import org.lwjgl.opengl.GL15;", "",
+                "        GL11.glEnable(32879);", "        GL15.glBindBuffer(34962, 0);");
+        String expected = Joiner.on(Constants.NEWLINE).join(IMPORT_REPLACE,
+                "import org.lwjgl.opengl.ARBVertexBufferObject;", "import org.lwjgl.opengl.GL12;") + "\n" + Joiner.on('\n').join(
+                "import org.lwjgl.opengl.GL15;", "",
+                "        GL11.glEnable(GL12.GL_TEXTURE_3D);", "        GL15.glBindBuffer(ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);");
+        Assert.assertEquals(expected, new GLConstantFixer().fixOGL(in));
+    }
+
+    @Test
+    public void testImports() throws IOException
+    {
+        GLConstantFixer fixer = new GLConstantFixer();
+
+        // nothing from lwjgl is imported, so nothing is touched
+        String in = "package a;\n\n        GL11.glEnable(3042);";
+        Assert.assertEquals(in, fixer.fixOGL(in));
+
+        // constants are replaced, but new imports only go under the GL11 one
+        in = "import org.lwjgl.opengl.GL12;\n\n        GL11.glEnable(32879);";
+        Assert.assertEquals("import org.lwjgl.opengl.GL12;\n\n        GL11.glEnable(GL12.GL_TEXTURE_3D);", fixer.fixOGL(in));
+    }
+
+    @Test
+    public void testLiterals() throws IOException
+    {
+        // negative, decimal, qualified and long literals stay, and a call covers the line up to its last )
+        String in = IMPORT_REPLACE + "\n        GL11.glEnable(-3042, 3042.5F, a.3042, 3042L); // 3042\n        GL11.glDisable(x); foo(3042);";
+        String expected = IMPORT_REPLACE + "\n        GL11.glEnable(-3042, 3042.5F, a.3042, 3042L); // 3042\n        GL11.glDisable(x); foo(GL11.GL_BLEND);";
+        Assert.assertEquals(expected, new GLConstantFixer().fixOGL(in));
+    }
+
+    @Test
+    public void testMatchesJsonSearch() throws IOException
+    {
+        GLConstantFixer fixer = new GLConstantFixer();
+        Random rand = new Random(3456);
+
+        for (int round = 0; round < 300; round++)
+        {
+            List<String> lines = Lists.newArrayList();
+            if (rand.nextInt(10) != 0)
+                lines.add(IMPORT_REPLACE);
+            if (rand.nextInt(4) == 0)
+                lines.add("import org.lwjgl.opengl." + PACKAGES[rand.nextInt(PACKAGES.length)] + ";");
+            lines.add("");
+
+            for (int line = rand.nextInt(12); line > 0; line--)
+            {
+                StringBuilder buf = new StringBuilder("        ");
+                for (int call = 1 + rand.nextInt(2); call > 0; call--)
+                {
+                    buf.append(calls.get(rand.nextInt(calls.size()))).append('(');
+                    for (int arg = rand.nextInt(4); arg > 0; arg--)
+                    {
+                        String literal = literals.get(rand.nextInt(literals.size()));
+                        switch (rand.nextInt(6))
+                        {
+                            case 0:
+                                buf.append('-').append(literal);
+                                break;
+                            case 1:
+                                buf.append("a.").append(literal);
+                                break;
+                            case 2:
+                                buf.append("(int) ").append(literal).append(".5D");
+                                break;
+                            default:
+                                buf.append(literal);
+                        }
+                        buf.append(arg > 1 ? ", " : "");
+                    }
+                    buf.append(rand.nextBoolean() ? ");" : ") + ");
+                }
+                if (rand.nextInt(3) == 0)
+                    buf.append(" // 3042");
+                lines.add(buf.toString());
+            }
+
+            String text = Joiner.on(rand.nextBoolean() ? "\n" : "\r\n").join(lines);
+            Assert.assertEquals("round " + round + ": " + text, jsonFixOGL(text), fixer.fixOGL(text));
+        }
+    }
+
+    // what GLConstantFixer did before the lookup tables, kept as the reference
+
+    private static String jsonFixOGL(String text)
+    {
+        if (!text.contains("import org.lwjgl.opengl."))
+            return text;
+
+        text = jsonAnnotateConstants(text);
+
+        for (String pack : PACKAGES)
+        {
+            String imp = "import org.lwjgl.opengl." + pack + ";";
+            if (text.contains(pack + ".") && !text.contains(imp))
+                text = text.replace(IMPORT_REPLACE, IMPORT_REPLACE + Constants.NEWLINE + imp);
+        }
+        return text;
+    }
+
+    private static String jsonAnnotateConstants(String text)
+    {
+        Matcher rootMatch = CALL_REGEX.matcher(text);
+        StringBuffer out = new StringBuffer(text.length());
+
+        while (rootMatch.find())
+        {
+            String fullCall = rootMatch.group();
+            String pack = rootMatch.group(1);
+            String method = rootMatch.group(2);
+
+            Matcher constantMatcher = CONSTANT_REGEX.matcher(fullCall);
+            StringBuffer innerOut = new StringBuffer(fullCall.length());
+            while (constantMatcher.find())
+            {
+                String constant = constantMatcher.group();
+                String answer = null;
+
+                for (GLConstantGroup group : json)
+                {
+                    if (group.functions.containsKey(pack) && group.functions.get(pack).contains(method))
+                    {
+                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet())
+                        {
+                            if (entry.getValue().containsKey(constant))
+                                answer = entry.getKey() + "." + entry.getValue().get(constant);
+                        }
+                    }
+                }
+
+                if (answer != null)
+                    constantMatcher.appendReplacement(innerOut, Matcher.quoteReplacement(answer));
+            }
+            constantMatcher.appendTail(innerOut);
+            rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
+        }
+        rootMatch.appendTail(out);
+
+        return out.toString();
+    }
+}
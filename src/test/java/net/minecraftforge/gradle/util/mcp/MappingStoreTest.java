@@ -0,0 +1,65 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import net.minecraftforge.gradle.util.mcp.MappingStore.Mappings;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * Reads mapping CSVs with rows that repeat a name.
+ */
+public class MappingStoreTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testDuplicateRows() throws IOException
+    {
+        File csv = temp.newFile("methods.csv");
+        Files.write(Joiner.on('\n').join(
+                "searge,name,side,desc",
+                "func_1_a,first,0,The first doc.",
+                "func_1_a,second,0,",
+                "func_2_b,kept,0,Old doc.",
+                "func_2_b,replaced,0,New doc.",
+                "func_3_c,plain,0,",
+                ""), csv, Charset.defaultCharset());
+
+        Mappings mappings = MappingStore.read(csv, null);
+
+        Assert.assertEquals("second", mappings.getNames().get("func_1_a"));
+        Assert.assertEquals("an empty comment keeps the earlier doc", "The first doc.", mappings.getDoc("func_1_a"));
+        Assert.assertEquals("replaced", mappings.getNames().get("func_2_b"));
+        Assert.assertEquals("New doc.", mappings.getDoc("func_2_b"));
+        Assert.assertNull(mappings.getDoc("func_3_c"));
+    }
+}
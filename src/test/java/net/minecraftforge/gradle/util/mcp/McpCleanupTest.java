@@ -0,0 +1,73 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Runs decompiler output through the same fixes as PostDecompileTask, minus the patches and the formatter.
+ * The expected output of each sample, in {@code <sample>Out}, was made with the old regex based fixes, so it keeps all of their quirks.
+ */
+public class McpCleanupTest
+{
+    // CleanupRenderer has CRLF line endings, like decompiler output on windows
+    private static final String[] SAMPLES = { "CleanupTest", "CleanupStrings", "CleanupRenderer", "CleanupMath" };
+
+    @Test
+    public void testDecompiledCleanup() throws IOException
+    {
+        for (String sample : SAMPLES)
+        {
+            checkSample(sample);
+        }
+    }
+
+    private void checkSample(String sample) throws IOException
+    {
+        String input = readResource(sample);
+
+        input = FFPatcher.processFile(input);
+        input = McpCleanup.stripComments(input);
+        input = McpCleanup.fixImports(input);
+        input = McpCleanup.cleanup(input);
+
+        String[] expected = readResource(sample + "Out").split("\r\n|\r|\n", -1);
+        String[] actual = input.split("\r\n|\r|\n", -1);
+
+        for (int i = 0; i < Math.min(expected.length, actual.length); i++)
+        {
+            Assert.assertEquals(sample + " line " + (i + 1), expected[i], actual[i]);
+        }
+        Assert.assertEquals(sample, expected.length, actual.length);
+    }
+
+    private String readResource(String name) throws IOException
+    {
+        InputStream stream = this.getClass().getClassLoader().getResourceAsStream(name);
+        return new String(ByteStreams.toByteArray(stream), Charsets.UTF_8);
+    }
+}
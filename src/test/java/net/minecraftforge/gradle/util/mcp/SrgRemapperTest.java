@@ -0,0 +1,262 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * Checks SrgRemapper on fixed sources, and against the per line regexes RemapSources used before it.
+ */
+public class SrgRemapperTest
+{
+    private static final Pattern SRG_FINDER = Pattern.compile("func_[0-9]+_[a-zA-Z_]+|field_[0-9]+_[a-zA-Z_]+|p_[\\w]+_\\d+_\\b");
+    private static final Pattern METHOD     = Pattern.compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+(func_[0-9]+_[a-zA-Z_]+)\\(");
+    private static final Pattern FIELD      = Pattern.compile("^((?: {4})+|\\t+)(?:[\\w$.\\[\\]]+ )+(field_[0-9]+_[a-zA-Z_]+) *(?:=|;)");
+
+    // known names, names that are not mapped, and things that only look like names
+    private static final String[] NAMES  = {
+            "func_1_a", "func_1_b", "func_22_c", "func_333_", "func_4444_d_e", "func_9_z", "func_12", "func__a", "xfunc_1_a",
+            "field_1_a", "field_22_b", "field_5_", "field_9_z", "field_x_a", "afield_1_a",
+            "p_1_2_", "p_i22_1_", "p_a_b_", "p_1_22_x", "p__3_", "p_1_", "p_func_1_a_3_", "Ap_1_2_", "p_1_2_3_"
+    };
+    private static final String[] WORDS  = { "public", "static", "int", "String[]", "a.b$C", "void", "final", "x" };
+    private static final String[] PUNCT  = { "(", ")", " = ", "=", ";", " ;", "  ", " ", ".", ", ", "{", "}", "//", "\"", "1" };
+    private static final String[] INDENT = { "", "    ", "  ", "\t", "\t\t", "        ", "     ", " \t" };
+    private static final String[] EOL    = { "\n", "\r\n", "\r" };
+
+    @Test
+    public void testSimple()
+    {
+        SrgRemapper remapper = new SrgRemapper();
+        remapper.addMethod("func_1_a", "getThing", "Gets the thing.");
+        remapper.addField("field_2_b", "thing", null);
+        remapper.addParam("p_1_1_", "amount");
+
+        String in = "class A\n{\n    @Override\n    public int func_1_a(int p_1_1_)\n    {\n        return this.field_2_b + p_1_1_;\n    }\n}\n";
+        String out = remapper.remap(in, true);
+
+        String expected = Joiner.on(Constants.NEWLINE).join("class A", "{",
+                "    /**", "     * Gets the thing.", "     */",
+                "    @Override", "    public int getThing(int amount)", "    {", "        return this.thing + amount;", "    }", "}");
+        Assert.assertEquals(expected, out);
+    }
+
+    @Test
+    public void testLineEndings()
+    {
+        SrgRemapper remapper = new SrgRemapper();
+        remapper.addField("field_2_b", "thing", null);
+
+        String expected = Joiner.on(Constants.NEWLINE).join("a", "field_1_a", "thing", "", "b");
+        Assert.assertEquals(expected, remapper.remap("a\r\nfield_1_a\rfield_2_b\n\nb", false));
+    }
+
+    @Test
+    public void testJavadocAboveAnnotations()
+    {
+        SrgRemapper remapper = new SrgRemapper();
+        remapper.addField("field_2_b", "thing", "The thing.");
+
+        String in = "class A\n{\n\t@SideOnly(Side.CLIENT)\n\t@Deprecated\n\tprivate static int field_2_b = 1;\n}\n";
+        String expected = Joiner.on(Constants.NEWLINE).join("class A", "{",
+                "\t/** The thing. */",
+                "\t@SideOnly(Side.CLIENT)", "\t@Deprecated", "\tprivate static int thing = 1;", "}");
+        Assert.assertEquals(expected, remapper.remap(in, true));
+    }
+
+    @Test
+    public void testNoJavadocWithoutDeclaration()
+    {
+        SrgRemapper remapper = new SrgRemapper();
+        remapper.addMethod("func_1_a", "getThing", "Gets the thing.");
+        remapper.addField("field_2_b", "thing", "The thing.");
+
+        // an indent that isn't groups of 4 spaces, a call, and a field that is read
+        String in = "   public int func_1_a()\n        func_1_a();\n        int x = field_2_b;\n    int  field_2_b;";
+        String expected = Joiner.on(Constants.NEWLINE).join("   public int getThing()", "        getThing();", "        int x = thing;", "    int  thing;");
+        Assert.assertEquals(expected, remapper.remap(in, true));
+    }
+
+    @Test
+    public void testNameBoundaries()
+    {
+        SrgRemapper remapper = new SrgRemapper();
+        remapper.addMethod("func_1_a", "getThing", null);
+        remapper.addParam("p_1_2_3_", "deep");
+        remapper.addParam("p_i22_1_", "ctor");
+        remapper.addParam("p_1_22_x", "never");
+
+        // like the old regex, names are found inside longer words, and the suffix of a method stops at a digit
+        Assert.assertEquals("xgetThing getThing2", remapper.remap("xfunc_1_a func_1_a2", false));
+        // a parameter ends with _ at a word boundary, and only the whole name is looked up
+        Assert.assertEquals("deep(ctor) p_1_22_x p_1_2_3_a", remapper.remap("p_1_2_3_(p_i22_1_) p_1_22_x p_1_2_3_a", false));
+        Assert.assertEquals("p_1_2_3_\u00e9", remapper.remap("p_1_2_3_\u00e9", false));
+        // names that are not mapped stay
+        Assert.assertEquals("func_2_b field_1_a p_9_9_", remapper.remap("func_2_b field_1_a p_9_9_", false));
+    }
+
+    @Test
+    public void testMatchesRegex()
+    {
+        Random rand = new Random(2345);
+
+        for (int round = 0; round < 200; round++)
+        {
+            SrgRemapper remapper = new SrgRemapper();
+            Map<String, String> methods = Maps.newHashMap();
+            Map<String, String> methodDocs = Maps.newHashMap();
+            Map<String, String> fields = Maps.newHashMap();
+            Map<String, String> fieldDocs = Maps.newHashMap();
+            Map<String, String> params = Maps.newHashMap();
+
+            for (String name : NAMES)
+            {
+                if (rand.nextInt(4) == 0)
+                    continue;
+
+                String mapped = "mcp" + rand.nextInt(100);
+                String doc = rand.nextBoolean() ? "Doc of " + mapped : "";
+                if (name.startsWith("func_"))
+                {
+                    remapper.addMethod(name, mapped, doc);
+                    methods.put(name, mapped);
+                    methodDocs.put(name, doc);
+                }
+                else if (name.startsWith("field_"))
+                {
+                    remapper.addField(name, mapped, doc);
+                    fields.put(name, mapped);
+                    fieldDocs.put(name, doc);
+                }
+                else if (name.startsWith("p_"))
+                {
+                    remapper.addParam(name, mapped);
+                    params.put(name, mapped);
+                }
+            }
+
+            // the old code could not put a javadoc above the first line
+            StringBuilder text = new StringBuilder("package a;").append(EOL[rand.nextInt(EOL.length)]);
+            for (int line = rand.nextInt(30); line > 0; line--)
+            {
+                text.append(INDENT[rand.nextInt(INDENT.length)]);
+                if (rand.nextInt(5) == 0)
+                    text.append(rand.nextBoolean() ? "@Override" : "@SideOnly(Side.CLIENT)");
+
+                for (int token = rand.nextInt(8); token > 0; token--)
+                {
+                    switch (rand.nextInt(3))
+                    {
+                        case 0:
+                            text.append(NAMES[rand.nextInt(NAMES.length)]);
+                            break;
+                        case 1:
+                            text.append(WORDS[rand.nextInt(WORDS.length)]).append(' ');
+                            break;
+                        default:
+                            text.append(PUNCT[rand.nextInt(PUNCT.length)]);
+                    }
+                }
+                text.append(EOL[rand.nextInt(EOL.length)]);
+            }
+
+            boolean javadocs = rand.nextBoolean();
+            String expected = regexRemap(text.toString(), javadocs, methods, methodDocs, fields, fieldDocs, params);
+            Assert.assertEquals("round " + round + ": " + text, expected, remapper.remap(text.toString(), javadocs));
+        }
+    }
+
+    // what RemapSources did before SrgRemapper, kept as the reference
+
+    private static String regexRemap(String text, boolean javadocs, Map<String, String> methods, Map<String, String> methodDocs, Map<String, String> fields, Map<String, String> fieldDocs, Map<String, String> params)
+    {
+        List<String> newLines = new ArrayList<String>();
+        for (String line : Constants.lines(text))
+        {
+            if (javadocs)
+            {
+                Matcher matcher = METHOD.matcher(line);
+                if (matcher.find())
+                {
+                    String javadoc = methodDocs.get(matcher.group(2));
+                    if (!Strings.isNullOrEmpty(javadoc))
+                        insetAboveAnnotations(newLines, JavadocAdder.buildJavadoc(matcher.group(1), javadoc, true));
+                }
+                else
+                {
+                    matcher = FIELD.matcher(line);
+                    if (matcher.find())
+                    {
+                        String javadoc = fieldDocs.get(matcher.group(2));
+                        if (!Strings.isNullOrEmpty(javadoc))
+                            insetAboveAnnotations(newLines, JavadocAdder.buildJavadoc(matcher.group(1), javadoc, false));
+                    }
+                }
+            }
+
+            StringBuffer buf = new StringBuffer();
+            Matcher matcher = SRG_FINDER.matcher(line);
+            while (matcher.find())
+            {
+                String find = matcher.group();
+
+                if (find.startsWith("p_"))
+                    find = params.get(find);
+                else if (find.startsWith("func_"))
+                    find = methods.get(find);
+                else if (find.startsWith("field_"))
+                    find = fields.get(find);
+
+                if (find == null)
+                    find = matcher.group();
+
+                matcher.appendReplacement(buf, find);
+            }
+            matcher.appendTail(buf);
+            newLines.add(buf.toString());
+        }
+
+        return Joiner.on(Constants.NEWLINE).join(newLines);
+    }
+
+    private static void insetAboveAnnotations(List<String> list, String line)
+    {
+        int back = 0;
+        while (list.get(list.size() - 1 - back).trim().startsWith("@"))
+        {
+            back++;
+        }
+        list.add(list.size() - back, line);
+    }
+}
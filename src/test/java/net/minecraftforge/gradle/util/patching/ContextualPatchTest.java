@@ -0,0 +1,376 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013 Minecraft Forge
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.patching;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloudbees.diff.PatchException;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.minecraftforge.gradle.util.patching.ContextualPatch.HunkReport;
+import net.minecraftforge.gradle.util.patching.ContextualPatch.IContextProvider;
+import net.minecraftforge.gradle.util.patching.ContextualPatch.PatchReport;
+import net.minecraftforge.gradle.util.patching.ContextualPatch.PatchStatus;
+
+/**
+ * Checks that hunks found through the line index land where the old line by line search put them,
+ * including when the target drifted, has repeated lines, or only matches with fuzz or canonicalisation.
+ */
+public class ContextualPatchTest
+{
+    private static final String   TARGET     = "Test.java";
+    private static final Pattern  WHITESPACE = Pattern.compile("[\t| ]+");
+
+    // few distinct lines, so most context lines match in many places
+    private static final String[] VOCAB      = {
+            "}", "", "{", "return;", "x++;", "\tx++;", "x  ++;", "int a = 1;",
+            "public void foo()", "private void foo()", "final int b;", "int b;",
+            "label12: {", "label7: {", "break label7;", "break label12;"
+    };
+
+    @Test
+    public void testDriftedHunk() throws Exception
+    {
+        List<String> target = Lists.newArrayList("a", "b", "c", "d", "e", "f", "g", "h");
+        String patch = patch("@@ -3,5 +3,5 @@", " c", " d", "-e", "+E", " f", " g");
+
+        // lines added above the hunk, and a decoy of its leading context right after the guess
+        target.addAll(0, Lists.newArrayList("x", "y", "c", "d", "z"));
+
+        PatchReport report = apply(patch, target, 0, false, false);
+        Assert.assertEquals(Lists.newArrayList("x", "y", "c", "d", "z", "a", "b", "c", "d", "E", "f", "g", "h"), target);
+        HunkReport hunk = report.getHunks().get(0);
+        Assert.assertEquals(PatchStatus.Patched, hunk.getStatus());
+        Assert.assertEquals(8, hunk.getIndex());
+    }
+
+    @Test
+    public void testFuzzedHunk() throws Exception
+    {
+        List<String> target = Lists.newArrayList("a", "b", "C", "d", "e", "f", "g", "h");
+        String patch = patch("@@ -3,5 +3,5 @@", " c", " d", "-e", "+E", " f", " g");
+
+        Assert.assertEquals(PatchStatus.Failure, apply(patch, Lists.newArrayList(target), 0, false, false).getHunks().get(0).getStatus());
+
+        HunkReport hunk = apply(patch, target, 2, false, false).getHunks().get(0);
+        Assert.assertEquals(PatchStatus.Fuzzed, hunk.getStatus());
+        Assert.assertEquals(1, hunk.getFuzz());
+        Assert.assertEquals(Lists.newArrayList("a", "b", "C", "d", "E", "f", "g", "h"), target);
+    }
+
+    @Test
+    public void testCanonicalisedHunk() throws Exception
+    {
+        List<String> target = Lists.newArrayList("a", "private void  foo()", "label3: {", "e", "}");
+        String patch = patch("@@ -2,4 +2,4 @@", " public void foo()", " label9: {", "-e", "+E", " }");
+
+        Assert.assertEquals(PatchStatus.Failure, apply(patch, Lists.newArrayList(target), 0, false, false).getHunks().get(0).getStatus());
+
+        HunkReport hunk = apply(patch, target, 0, true, true).getHunks().get(0);
+        Assert.assertEquals(PatchStatus.Patched, hunk.getStatus());
+        Assert.assertEquals(Lists.newArrayList("a", "private void  foo()", "label3: {", "E", "}"), target);
+    }
+
+    @Test
+    public void testSearchesUpFirst() throws Exception
+    {
+        // the hunk matches 4 lines above its guess and 1 below, and the one above wins
+        List<String> target = Lists.newArrayList("c", "d", "e", "x", "x", "x", "c", "d", "e");
+        String patch = patch("@@ -5,3 +5,3 @@", " c", " d", "-e", "+E");
+
+        HunkReport hunk = apply(patch, target, 0, false, false).getHunks().get(0);
+        Assert.assertEquals(1, hunk.getIndex());
+        Assert.assertEquals(Lists.newArrayList("c", "d", "E", "x", "x", "x", "c", "d", "e"), target);
+    }
+
+    @Test
+    public void testNotAbovePatchedHunk() throws Exception
+    {
+        // the second hunk matches at the top too, but that is above where the first one was applied
+        List<String> target = Lists.newArrayList("c", "d", "e", "c", "d", "e", "c", "d", "e");
+        String patch = patch("@@ -4,3 +4,3 @@", " c", " d", "-e", "+E", "@@ -5,3 +5,3 @@", " c", " d", "-e", "+F");
+
+        List<HunkReport> hunks = apply(patch, target, 0, false, false).getHunks();
+        Assert.assertEquals(4, hunks.get(0).getIndex());
+        Assert.assertEquals(7, hunks.get(1).getIndex());
+        Assert.assertEquals(Lists.newArrayList("c", "d", "e", "c", "d", "E", "c", "d", "F"), target);
+    }
+
+    @Test
+    public void testMatchesLinearSearch() throws Exception
+    {
+        Random rand = new Random(1234);
+
+        for (int round = 0; round < 300; round++)
+        {
+            List<String> base = Lists.newArrayList();
+            for (int i = 20 + rand.nextInt(60); i > 0; i--)
+            {
+                base.add(rand.nextInt(4) == 0 ? "line " + rand.nextInt(1000) : VOCAB[rand.nextInt(VOCAB.length)]);
+            }
+
+            List<List<String>> hunks = Lists.newArrayList();
+            List<Integer> starts = Lists.newArrayList();
+            String patch = randomPatch(rand, base, hunks, starts);
+
+            // the target drifted away from what the patch was made against
+            List<String> target = Lists.newArrayList(base);
+            for (int i = rand.nextInt(8); i > 0; i--)
+            {
+                int pos = rand.nextInt(target.size() + 1);
+                switch (rand.nextInt(3))
+                {
+                    case 0:
+                        target.add(pos, VOCAB[rand.nextInt(VOCAB.length)]);
+                        break;
+                    case 1:
+                        if (pos < target.size())
+                            target.remove(pos);
+                        break;
+                    default:
+                        if (pos < target.size())
+                            target.set(pos, VOCAB[rand.nextInt(VOCAB.length)]);
+                }
+            }
+
+            int fuzz = rand.nextInt(4);
+            boolean whitespace = rand.nextBoolean();
+            boolean access = rand.nextBoolean();
+            String desc = "round " + round;
+
+            List<String> expected = Lists.newArrayList(target);
+            List<HunkReport> expectedHunks = linearApply(expected, hunks, starts, fuzz, whitespace, access);
+
+            List<String> actual = Lists.newArrayList(target);
+            List<HunkReport> actualHunks = apply(patch, actual, fuzz, whitespace, access).getHunks();
+
+            Assert.assertEquals(desc, expected, actual);
+            Assert.assertEquals(desc, expectedHunks.size(), actualHunks.size());
+            for (int i = 0; i < expectedHunks.size(); i++)
+            {
+                Assert.assertEquals(desc + " hunk " + i, expectedHunks.get(i).getStatus(), actualHunks.get(i).getStatus());
+                if (expectedHunks.get(i).getStatus().isSuccess())
+                {
+                    Assert.assertEquals(desc + " hunk " + i, expectedHunks.get(i).getIndex(), actualHunks.get(i).getIndex());
+                    Assert.assertEquals(desc + " hunk " + i, expectedHunks.get(i).getFuzz(), actualHunks.get(i).getFuzz());
+                }
+            }
+        }
+    }
+
+    private static String patch(String... lines)
+    {
+        return "--- a/" + TARGET + "\n+++ b/" + TARGET + "\n" + Joiner.on('\n').join(lines) + "\n";
+    }
+
+    private static PatchReport apply(String patch, final List<String> target, int fuzz, boolean whitespace, boolean access) throws IOException, PatchException
+    {
+        final Map<String, List<String>> files = Maps.newHashMap();
+        files.put(TARGET, target);
+
+        IContextProvider provider = new IContextProvider() {
+            @Override
+            public List<String> getData(String name)
+            {
+                return files.get(name);
+            }
+
+            @Override
+            public void setData(String name, List<String> data)
+            {
+                List<String> copy = Lists.newArrayList(data);
+                target.clear();
+                target.addAll(copy);
+            }
+        };
+
+        List<PatchReport> reports = ContextualPatch.create(patch, provider).setMaxFuzz(fuzz).setWhitespaceC14N(whitespace).setAccessC14N(access).patch(false);
+        Assert.assertEquals(1, reports.size());
+        return reports.get(0);
+    }
+
+    /**
+     * Makes a unified diff of a few random, separate edits to the base, with up to 3 lines of context.
+     */
+    private static String randomPatch(Random rand, List<String> base, List<List<String>> hunks, List<Integer> starts)
+    {
+        List<String> out = Lists.newArrayList();
+        int delta = 0;
+        int pos = rand.nextInt(6);
+
+        while (pos < base.size())
+        {
+            int removed = Math.min(rand.nextInt(3), base.size() - pos);
+            int added = removed == 0 ? 1 + rand.nextInt(2) : rand.nextInt(3);
+            int before = Math.min(3, pos);
+            int after = Math.min(3, base.size() - pos - removed);
+
+            List<String> lines = Lists.newArrayList();
+            for (int i = pos - before; i < pos; i++)
+                lines.add(" " + base.get(i));
+            for (int i = pos; i < pos + removed; i++)
+                lines.add("-" + base.get(i));
+            for (int i = 0; i < added; i++)
+                lines.add("+" + VOCAB[rand.nextInt(VOCAB.length)]);
+            for (int i = pos + removed; i < pos + removed + after; i++)
+                lines.add(" " + base.get(i));
+
+            int baseStart = pos - before + 1;
+            int modifiedStart = baseStart + delta;
+            out.add("@@ -" + baseStart + "," + (before + removed + after) + " +" + modifiedStart + "," + (before + added + after) + " @@");
+            out.addAll(lines);
+            hunks.add(lines);
+            starts.add(modifiedStart);
+
+            delta += added - removed;
+            pos += removed + 7 + rand.nextInt(15);
+        }
+
+        return patch(out.toArray(new String[out.size()]));
+    }
+
+    // the search ContextualPatch used before the line index, kept as the reference
+
+    private static List<HunkReport> linearApply(List<String> target, List<List<String>> hunks, List<Integer> starts, int maxFuzz, boolean whitespace, boolean access)
+    {
+        List<HunkReport> reports = Lists.newArrayList();
+        int lastPatchedLine = 1;
+
+        for (int h = 0; h < hunks.size(); h++)
+        {
+            List<String> hunk = hunks.get(h);
+            int idx = -1;
+            int fuzz = 0;
+            for (; fuzz <= maxFuzz; fuzz++)
+            {
+                idx = linearFind(target, hunk, starts.get(h), fuzz, lastPatchedLine, whitespace, access);
+                if (idx != -1)
+                    break;
+            }
+
+            if (idx == -1)
+            {
+                reports.add(new HunkReport(PatchStatus.Failure, null, 0, 0, h + 1));
+                continue;
+            }
+
+            int line = idx - 1;
+            for (String hunkLine : hunk)
+            {
+                if (hunkLine.charAt(0) == '+')
+                {
+                    target.add(line, hunkLine.substring(1));
+                }
+                else if (hunkLine.charAt(0) == '-')
+                {
+                    target.remove(line);
+                    line--;
+                }
+                line++;
+            }
+            lastPatchedLine = line + 1;
+            reports.add(new HunkReport(fuzz != 0 ? PatchStatus.Fuzzed : PatchStatus.Patched, null, idx, fuzz, h + 1));
+        }
+        return reports;
+    }
+
+    private static int linearFind(List<String> target, List<String> hunk, int guess, int fuzz, int lastPatchedLine, boolean whitespace, boolean access)
+    {
+        if (guess >= lastPatchedLine && linearMatches(target, hunk, guess, fuzz, whitespace, access))
+            return guess;
+        for (int i = guess - 1; i >= lastPatchedLine; i--)
+            if (linearMatches(target, hunk, i, fuzz, whitespace, access))
+                return i;
+        for (int i = guess + 1; i < target.size(); i++)
+            if (linearMatches(target, hunk, i, fuzz, whitespace, access))
+                return i;
+        return -1;
+    }
+
+    private static boolean linearMatches(List<String> target, List<String> hunk, int start, int fuzz, boolean whitespace, boolean access)
+    {
+        int idx = start - 1;
+        for (int hunkIdx = 0; hunkIdx < hunk.size(); hunkIdx++)
+        {
+            String hunkLine = hunk.get(hunkIdx);
+            if (hunkLine.charAt(0) == '+')
+                continue;
+            if (idx >= target.size())
+                return false;
+
+            boolean match = similar(target.get(idx), hunkLine.substring(1), whitespace, access);
+            if (!match && fuzz != 0 && hunkLine.charAt(0) != '-')
+                match = hunkIdx < fuzz || hunkIdx >= hunk.size() - fuzz;
+            if (!match)
+                return false;
+            idx++;
+        }
+        return true;
+    }
+
+    private static boolean similar(String target, String hunk, boolean whitespace, boolean access)
+    {
+        if (whitespace)
+        {
+            target = WHITESPACE.matcher(target).replaceAll(" ");
+            hunk = WHITESPACE.matcher(hunk).replaceAll(" ");
+        }
+        if (!access)
+            return target.equals(hunk);
+
+        String[] t = target.split(" ");
+        String[] h = hunk.split(" ");
+        int ti = 0;
+        int hi = 0;
+        while (ti < t.length && hi < h.length)
+        {
+            boolean tAccess = isAccess(t[ti]);
+            boolean hAccess = isAccess(h[hi]);
+            if (tAccess || hAccess)
+            {
+                if (tAccess)
+                    ti++;
+                if (hAccess)
+                    hi++;
+                continue;
+            }
+            boolean labels = t[ti].startsWith("label") && h[hi].startsWith("label");
+            if (!labels && !t[ti].equals(h[hi]))
+                return false;
+            ti++;
+            hi++;
+        }
+        return h.length == hi && t.length == ti;
+    }
+
+    private static boolean isAccess(String data)
+    {
+        return data.equalsIgnoreCase("public") || data.equalsIgnoreCase("private") || data.equalsIgnoreCase("protected") || data.equalsIgnoreCase("final");
+    }
+}